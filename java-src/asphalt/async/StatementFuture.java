@@ -0,0 +1,85 @@
+package asphalt.async;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link CompletableFuture} that runs a JDBC task when executed as a {@link Runnable}, and maps cancellation to
+ * {@link Statement#cancel()} on the statement the task is executing. Statements are registered via
+ * {@link #register(Statement)} on the thread running the task; a task that is cancelled before it starts never runs.
+ * @param <T> result type
+ */
+public class StatementFuture<T> extends CompletableFuture<T> implements Runnable {
+
+    private static final ThreadLocal<StatementFuture<?>> CURRENT = new ThreadLocal<StatementFuture<?>>();
+
+    private final Callable<T> task;
+    private final AtomicReference<Statement> statement = new AtomicReference<Statement>();
+
+    public StatementFuture(Callable<T> task) {
+        this.task = task;
+    }
+
+    /**
+     * Register given statement as the one being executed by the task running on the current thread, if any.
+     * @param stmt the statement about to be executed
+     */
+    public static void register(Statement stmt) {
+        final StatementFuture<?> future = CURRENT.get();
+        if (future != null) {
+            future.statement.set(stmt);
+            if (future.isCancelled()) {
+                cancelQuietly(stmt);
+            }
+        }
+    }
+
+    private static void cancelQuietly(Statement stmt) {
+        try {
+            stmt.cancel();
+        } catch (SQLException e) {
+            // best effort only: the statement may have completed or been closed meanwhile
+        }
+    }
+
+    @Override
+    public void run() {
+        if (isDone()) {
+            return;
+        }
+        final StatementFuture<?> previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            complete(task.call());
+        } catch (Throwable e) {
+            completeExceptionally(e);
+        } finally {
+            statement.set(null);
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Cancel this future, and the statement being executed (if any) via {@link Statement#cancel()}. The executing
+     * thread is never interrupted, as some drivers close the connection upon interrupt.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        final boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            final Statement stmt = statement.get();
+            if (stmt != null) {
+                cancelQuietly(stmt);
+            }
+        }
+        return cancelled;
+    }
+
+}
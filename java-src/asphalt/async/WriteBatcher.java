@@ -0,0 +1,193 @@
+package asphalt.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import clojure.lang.IFn;
+
+/**
+ * Coalesces single-row writes from many threads into batches. Writes are queued in a bounded queue (callers block when
+ * it is full) and a single flusher thread executes them as one batch when either the batch size is reached or the
+ * linger time has elapsed since the first queued write of the batch. Each write gets a future of its own update count;
+ * when a batch fails, every write in that batch fails with the same error. Closing the batcher flushes queued writes.
+ */
+public class WriteBatcher implements AutoCloseable {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final class Write {
+        final Object params;
+        final CompletableFuture<Long> future = new CompletableFuture<Long>();
+        Write(Object params) {
+            this.params = params;
+        }
+    }
+
+    /** Queued by {@link #close()} to wake up the flusher while it waits for writes, never executed. */
+    private static final Write CLOSE = new Write(null);
+
+    private final IFn batchExecutor;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final long enqueueTimeoutNanos;
+    private final ArrayBlockingQueue<Write> queue;
+    private final Thread flusher;
+    private volatile boolean closed = false;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+
+    /**
+     * Create and start a write batcher.
+     * @param batchExecutor        Clojure fn that accepts a vector of params and returns update counts (long array)
+     * @param batchSize            max number of writes per batch
+     * @param lingerMillis         max time to wait for more writes after the first write of a batch
+     * @param queueCapacity        max number of queued writes
+     * @param enqueueTimeoutMillis max time to block when the queue is full, negative to block indefinitely
+     */
+    public WriteBatcher(IFn batchExecutor, int batchSize, long lingerMillis, int queueCapacity,
+            long enqueueTimeoutMillis) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Expected batch size to be a positive integer, but found " + batchSize);
+        }
+        this.batchExecutor = batchExecutor;
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.enqueueTimeoutNanos = enqueueTimeoutMillis < 0? -1L: TimeUnit.MILLISECONDS.toNanos(enqueueTimeoutMillis);
+        this.queue = new ArrayBlockingQueue<Write>(queueCapacity);
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "asphalt-write-batcher-" + THREAD_COUNT.incrementAndGet());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queue a write with given params, blocking while the queue is full (up to the enqueue timeout) and return a future
+     * of the update count.
+     * @throws RejectedExecutionException when the batcher is closed or the enqueue timeout elapses
+     */
+    public CompletableFuture<Long> submit(Object params) throws InterruptedException {
+        if (closed) {
+            throw new RejectedExecutionException("Write batcher is closed");
+        }
+        final Write write = new Write(params);
+        if (enqueueTimeoutNanos < 0) {
+            queue.put(write);
+        } else if (!queue.offer(write, enqueueTimeoutNanos, TimeUnit.NANOSECONDS)) {
+            throw new RejectedExecutionException("Timed out queueing write, queue is full");
+        }
+        if (closed && queue.remove(write)) {
+            // lost the race with close(): the flusher may have already drained the queue
+            throw new RejectedExecutionException("Write batcher is closed");
+        }
+        writes.increment();
+        return write.future;
+    }
+
+    private void flushLoop() {
+        final List<Write> batch = new ArrayList<Write>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                final Write first = queue.poll(100L, TimeUnit.MILLISECONDS);
+                if (first == null || first == CLOSE) {
+                    continue;
+                }
+                batch.add(first);
+                final long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    final long remaining = deadline - System.nanoTime();
+                    if (closed || remaining <= 0L) {
+                        break;
+                    }
+                    final Write next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null || next == CLOSE) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // flush what we have, and stop polling once closed and drained
+            }
+            while (batch.remove(CLOSE)) {
+                // drained along with the writes
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void flush(List<Write> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<Object> params = new ArrayList<Object>(batch.size());
+        for (Write each: batch) {
+            params.add(each.params);
+        }
+        batches.increment();
+        try {
+            final long[] counts = (long[]) batchExecutor.invoke(clojure.lang.PersistentVector.create(params));
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(i < counts.length? counts[i]: -1L);
+            }
+        } catch (Throwable e) {
+            failedBatches.increment();
+            for (Write each: batch) {
+                each.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Stop accepting writes, flush the queued writes and wait for the flusher thread to finish. A flusher lingering for
+     * more writes is woken up, so closing does not wait for the linger time. If the calling thread is interrupted while
+     * waiting, the interrupt status is restored and the queued writes are flushed in the background.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            queue.offer(CLOSE);  // when the queue is full the flusher does not block polling, so no wake-up is needed
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getWriteCount() {
+        return writes.sum();
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getFailedBatchCount() {
+        return failedBatches.sum();
+    }
+
+}
@@ -0,0 +1,195 @@
+package asphalt.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of query results for one SQL template, keyed by params. Entries are spread over lock-striped LRU
+ * segments, expire after a TTL, and are invalidated when any table read by the template is written to (see
+ * {@link TableVersions}). Stale entries are evicted lazily, upon lookup.
+ */
+public class ResultCache {
+
+    /** Returned by {@link #get(Object)} when no usable entry is found, as cached results may be <tt>null</tt>. */
+    public static final Object MISS = new Object();
+
+    private static final class Entry {
+        final Object value;
+        final long expiresAtNanos;
+        final long[] versions;
+        Entry(Object value, long expiresAtNanos, long[] versions) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+            this.versions = versions;
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<Object, Entry> {
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+        private final LongAdder evictions;
+        Segment(int maxEntries, LongAdder evictions) {
+            super(16, 0.75f, true);  // access-order, i.e. LRU
+            this.maxEntries = maxEntries;
+            this.evictions = evictions;
+        }
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+            if (size() > maxEntries) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final String name;
+    private final String[] tables;
+    private final TableVersions tableVersions;
+    private final long ttlNanos;
+    private final Segment[] segments;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Create a result cache.
+     * @param name          name of the SQL template
+     * @param tables        normalized names of the tables read by the SQL template
+     * @param tableVersions table version counters
+     * @param maxEntries    max number of cached results
+     * @param ttlMillis     duration after which a cached result expires
+     */
+    public ResultCache(String name, String[] tables, TableVersions tableVersions, int maxEntries, long ttlMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Expected max entries to be a positive integer, but found "
+                    + maxEntries);
+        }
+        this.name = name;
+        this.tables = tables.clone();
+        this.tableVersions = tableVersions;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        int stripes = 1;
+        while (stripes < 16 && stripes * 2 <= maxEntries) {
+            stripes *= 2;
+        }
+        this.segments = new Segment[stripes];
+        this.mask = stripes - 1;
+        final int perSegment = (maxEntries + stripes - 1) / stripes;
+        for (int i = 0; i < stripes; i++) {
+            segments[i] = new Segment(perSegment, evictions);
+        }
+        tableVersions.activate();
+    }
+
+    private Segment segmentFor(Object key) {
+        final int h = key == null? 0: key.hashCode();
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    /** Return the current versions of the tables read by the template, to be taken before executing the query. */
+    public long[] versions() {
+        return tableVersions.snapshot(tables);
+    }
+
+    /** Return the cached result for given params, or {@link #MISS}. */
+    public Object get(Object key) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final Entry entry = segment.get(key);
+            if (entry != null) {
+                if (entry.expiresAtNanos - System.nanoTime() <= 0L) {
+                    segment.remove(key);
+                    expirations.increment();
+                } else if (!tableVersions.isCurrent(tables, entry.versions)) {
+                    segment.remove(key);
+                    invalidations.increment();
+                } else {
+                    hits.increment();
+                    return entry.value;
+                }
+            }
+        }
+        misses.increment();
+        return MISS;
+    }
+
+    /**
+     * Cache the result for given params, unless any table read by the template was written to since the given versions
+     * (see {@link #versions()}) were taken.
+     */
+    public void put(Object key, Object value, long[] versions) {
+        if (!tableVersions.isCurrent(tables, versions)) {
+            return;
+        }
+        final Entry entry = new Entry(value, System.nanoTime() + ttlNanos, versions);
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    public void clear() {
+        for (Segment each: segments) {
+            synchronized (each) {
+                each.clear();
+            }
+        }
+    }
+
+    public void resetMetrics() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        invalidations.reset();
+        expirations.reset();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getTables() {
+        return tables.clone();
+    }
+
+    public int size() {
+        int n = 0;
+        for (Segment each: segments) {
+            synchronized (each) {
+                n += each.size();
+            }
+        }
+        return n;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Number of entries evicted to stay within the max entries */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** Number of entries evicted upon lookup because a table read by the template was written to */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /** Number of entries evicted upon lookup because they expired */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+}
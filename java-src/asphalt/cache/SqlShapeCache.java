@@ -0,0 +1,85 @@
+package asphalt.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded concurrent cache of generated SQL strings, keyed by SQL shape (e.g. multi-value param counts). Once the cache
+ * is full, newly generated shapes are not cached any more, so that a flood of distinct shapes cannot grow it without
+ * bound.
+ */
+public class SqlShapeCache {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<Object, String> shapes = new ConcurrentHashMap<Object, String>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+
+    public SqlShapeCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Expected cache size to be a positive integer, but found " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Return the cached SQL for the given shape key, or <tt>null</tt> if not cached.
+     * @param key SQL shape key
+     * @return cached SQL, or <tt>null</tt>
+     */
+    public String get(Object key) {
+        final String sql = shapes.get(key);
+        if (sql == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return sql;
+    }
+
+    /**
+     * Cache the SQL generated for the given shape key, unless the cache is full.
+     * @param key SQL shape key
+     * @param sql generated SQL
+     * @return <tt>true</tt> if the SQL is cached, <tt>false</tt> otherwise
+     */
+    public boolean put(Object key, String sql) {
+        if (shapes.size() >= maxSize) {
+            overflows.increment();
+            return false;
+        }
+        shapes.putIfAbsent(key, sql);
+        return true;
+    }
+
+    /** Number of distinct SQL shapes cached */
+    public int size() {
+        return shapes.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** Number of times SQL was generated because the shape was not cached */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Number of generated shapes that could not be cached because the cache was full */
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        overflows.reset();
+    }
+
+}
@@ -0,0 +1,112 @@
+package asphalt.cache;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of idle prepared statements belonging to a single JDBC connection. Statements are removed from the cache
+ * while in use (checked out) and put back when the caller closes them (checked in), so that the same statement is
+ * never shared by two callers at once.
+ */
+public class StatementCache {
+
+    private final int maxSize;
+    private final StatementCacheMetrics metrics;
+    private final LinkedHashMap<StatementKey, CachedPreparedStatement> idle;
+    private boolean closed = false;
+
+    public StatementCache(final int maxSize, final StatementCacheMetrics metrics) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Expected cache size to be a positive integer, but found " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.metrics = metrics;
+        this.idle = new LinkedHashMap<StatementKey, CachedPreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StatementKey, CachedPreparedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    StatementCache.this.metrics.recordEviction();
+                    eldest.getValue().closeQuietly();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public StatementCacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Remove and return the idle statement for the given key, or <tt>null</tt> if none is cached.
+     * @param key statement key
+     * @return cached statement, or <tt>null</tt>
+     */
+    public synchronized CachedPreparedStatement checkout(StatementKey key) {
+        final CachedPreparedStatement result = idle.remove(key);
+        if (result == null) {
+            metrics.recordMiss();
+        } else {
+            metrics.recordHit();
+        }
+        return result;
+    }
+
+    /**
+     * Put a statement back into the cache for reuse.
+     * @param stmt the statement to return
+     * @return <tt>true</tt> if the statement was cached, <tt>false</tt> if the caller should close it instead
+     */
+    public synchronized boolean checkin(CachedPreparedStatement stmt) {
+        if (closed || idle.containsKey(stmt.getKey())) {
+            return false;
+        }
+        idle.put(stmt.getKey(), stmt);
+        return true;
+    }
+
+    public synchronized int size() {
+        return idle.size();
+    }
+
+    /**
+     * Close all idle statements and refuse further check-ins.
+     * @throws SQLException if closing any statement fails
+     */
+    public void close() throws SQLException {
+        final List<CachedPreparedStatement> stmts;
+        synchronized (this) {
+            closed = true;
+            stmts = new ArrayList<>(idle.values());
+            idle.clear();
+        }
+        SQLException error = null;
+        for (Iterator<CachedPreparedStatement> it = stmts.iterator(); it.hasNext();) {
+            final PreparedStatement each = it.next().getDelegate();
+            try {
+                each.close();
+            } catch (SQLException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.setNextException(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+}
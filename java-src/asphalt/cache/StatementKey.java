@@ -0,0 +1,89 @@
+package asphalt.cache;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+public class StatementKey {
+
+    private final String sql;
+    private final int autoGeneratedKeys;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+    private final int resultSetHoldability;
+    private final int hash;
+
+    public StatementKey(final String sql, final int autoGeneratedKeys, final int resultSetType,
+            final int resultSetConcurrency, final int resultSetHoldability) {
+        if (sql == null) {
+            throw new NullPointerException("Expected valid SQL, but found NULL");
+        }
+        this.sql = sql;
+        this.autoGeneratedKeys = autoGeneratedKeys;
+        this.resultSetType = resultSetType;
+        this.resultSetConcurrency = resultSetConcurrency;
+        this.resultSetHoldability = resultSetHoldability;
+        int h = sql.hashCode();
+        h = 31 * h + autoGeneratedKeys;
+        h = 31 * h + resultSetType;
+        h = 31 * h + resultSetConcurrency;
+        h = 31 * h + resultSetHoldability;
+        this.hash = h;
+    }
+
+    public StatementKey(final String sql, final int autoGeneratedKeys) {
+        this(sql, autoGeneratedKeys, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, 0);
+    }
+
+    public StatementKey(final String sql) {
+        this(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getAutoGeneratedKeys() {
+        return autoGeneratedKeys;
+    }
+
+    public int getResultSetType() {
+        return resultSetType;
+    }
+
+    public int getResultSetConcurrency() {
+        return resultSetConcurrency;
+    }
+
+    public int getHoldability() {
+        return resultSetHoldability;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof StatementKey)) {
+            return false;
+        }
+        final StatementKey that = (StatementKey) obj;
+        return hash == that.hash &&
+                autoGeneratedKeys == that.autoGeneratedKeys &&
+                resultSetType == that.resultSetType &&
+                resultSetConcurrency == that.resultSetConcurrency &&
+                resultSetHoldability == that.resultSetHoldability &&
+                sql.equals(that.sql);
+    }
+
+    @Override
+    public String toString() {
+        return "StatementKey(" + sql + ", " + autoGeneratedKeys + ", " + resultSetType + ", " +
+                resultSetConcurrency + ", " + resultSetHoldability + ")";
+    }
+
+}
@@ -0,0 +1,69 @@
+package asphalt.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version counters of database tables, bumped whenever a table is written to. Cached query results record the versions
+ * of the tables they read (before executing the query), and are stale once any of those versions has moved on. A write
+ * to unknown tables bumps the version of all tables (see {@link #bumpAll()}).
+ */
+public class TableVersions {
+
+    private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong allVersion = new AtomicLong();
+    private volatile boolean active = false;
+
+    private AtomicLong counter(String table) {
+        final AtomicLong counter = versions.get(table);
+        if (counter != null) {
+            return counter;
+        }
+        final AtomicLong created = new AtomicLong();
+        final AtomicLong existing = versions.putIfAbsent(table, created);
+        return existing == null? created: existing;
+    }
+
+    /** Mark as active, i.e. some result cache depends on the table versions so that writes must be tracked. */
+    public void activate() {
+        active = true;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /** Bump the version of given (normalized) table name. */
+    public void bump(String table) {
+        counter(table).incrementAndGet();
+    }
+
+    /** Bump the version of all tables, e.g. upon a write to tables that cannot be determined. */
+    public void bumpAll() {
+        allVersion.incrementAndGet();
+    }
+
+    /** Return the current versions of given (normalized) table names. */
+    public long[] snapshot(String[] tables) {
+        final long[] result = new long[tables.length + 1];
+        result[tables.length] = allVersion.get();
+        for (int i = 0; i < tables.length; i++) {
+            result[i] = counter(tables[i]).get();
+        }
+        return result;
+    }
+
+    /** Return <tt>true</tt> if the given versions (see {@link #snapshot(String[])}) of the tables are still current. */
+    public boolean isCurrent(String[] tables, long[] snapshot) {
+        if (allVersion.get() != snapshot[tables.length]) {
+            return false;
+        }
+        for (int i = 0; i < tables.length; i++) {
+            if (counter(tables[i]).get() != snapshot[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
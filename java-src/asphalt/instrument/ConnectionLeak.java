@@ -0,0 +1,45 @@
+package asphalt.instrument;
+
+/**
+ * Connection lease that exceeded the leak-detection threshold.
+ */
+public class ConnectionLeak {
+
+    private final String threadName;
+    private final long heldNanos;
+    private final StackTraceElement[] stackTrace;
+    private final boolean returned;
+
+    public ConnectionLeak(String threadName, long heldNanos, StackTraceElement[] stackTrace, boolean returned) {
+        this.threadName = threadName;
+        this.heldNanos = heldNanos;
+        this.stackTrace = stackTrace;
+        this.returned = returned;
+    }
+
+    /**
+     * Return the name of the thread that acquired the connection.
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public long getHeldNanos() {
+        return heldNanos;
+    }
+
+    /**
+     * Return the stack trace where the connection was acquired.
+     */
+    public StackTraceElement[] getStackTrace() {
+        return stackTrace;
+    }
+
+    /**
+     * Return true if the leak was detected when the connection was returned, false if it was still held.
+     */
+    public boolean isReturned() {
+        return returned;
+    }
+
+}
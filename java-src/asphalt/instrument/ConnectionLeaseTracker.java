@@ -0,0 +1,165 @@
+package asphalt.instrument;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks connection leases: acquisition-wait and hold-time histograms, in-flight gauge (with peak) and optional leak
+ * detection. When leak detection is enabled, the stack trace where a connection is acquired is captured with every
+ * lease, and reported for the leases exceeding the leak-detection threshold, i.e. when such a lease is returned or
+ * found by {@link #checkLeaks()}. Nested leases of the same connection (e.g. a connection used as a connection source)
+ * count as one lease, which ends when the outermost lease is returned.
+ */
+public class ConnectionLeaseTracker {
+
+    private static final class Lease {
+        private static final AtomicIntegerFieldUpdater<Lease> REPORTED =
+                AtomicIntegerFieldUpdater.newUpdater(Lease.class, "reported");
+        final String owner = Thread.currentThread().getName();
+        final long start;
+        final Throwable acquiredAt;  // null when leak detection is disabled
+        volatile int reported = 0;
+        int depth = 1;  // nested leases, updated atomically via the leases map
+
+        Lease(long start, boolean captureStackTrace) {
+            this.start = start;
+            this.acquiredAt = captureStackTrace? new Throwable("Connection acquired"): null;
+        }
+
+        boolean markReported() {
+            return REPORTED.compareAndSet(this, 0, 1);
+        }
+    }
+
+    private final LatencyHistogram acquireHistogram = new LatencyHistogram();
+    private final LatencyHistogram holdHistogram = new LatencyHistogram();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final LongAccumulator peakInFlight = new LongAccumulator(Math::max, 0);
+    private final ConcurrentHashMap<Connection, Lease> leases = new ConcurrentHashMap<Connection, Lease>();
+    private final long leakThresholdNanos;
+    private final LongSupplier nanoClock;
+
+    /**
+     * Create a lease tracker.
+     * @param leakThresholdNanos hold duration beyond which a lease is considered leaked, zero or negative to disable
+     */
+    public ConnectionLeaseTracker(long leakThresholdNanos) {
+        this(leakThresholdNanos, System::nanoTime);
+    }
+
+    /**
+     * Create a lease tracker.
+     * @param leakThresholdNanos hold duration beyond which a lease is considered leaked, zero or negative to disable
+     * @param nanoClock          source of the current time in nanoseconds for hold durations, e.g. System::nanoTime
+     */
+    public ConnectionLeaseTracker(long leakThresholdNanos, LongSupplier nanoClock) {
+        this.leakThresholdNanos = leakThresholdNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    public boolean isLeakDetectionEnabled() {
+        return leakThresholdNanos > 0;
+    }
+
+    /**
+     * Record a connection lease.
+     * @param conn         the connection acquired
+     * @param acquireNanos nanoseconds spent waiting to acquire the connection
+     */
+    public void acquire(Connection conn, long acquireNanos) {
+        acquireHistogram.record(acquireNanos);
+        final Lease created = new Lease(nanoClock.getAsLong(), isLeakDetectionEnabled());
+        final Lease lease = leases.merge(conn, created, (existing, ignored) -> {
+            existing.depth++;
+            return existing;
+        });
+        if (lease == created) {
+            peakInFlight.accumulate(inFlight.incrementAndGet());
+        }
+    }
+
+    /**
+     * Record failure to acquire a connection.
+     * @param acquireNanos nanoseconds spent waiting before the failure
+     */
+    public void acquireError(long acquireNanos) {
+        acquireHistogram.recordError(acquireNanos);
+    }
+
+    /**
+     * Record the end of a connection lease.
+     * @param conn the connection returned
+     * @return the leak if the lease exceeded the leak-detection threshold (and was not reported earlier), else null
+     */
+    public ConnectionLeak release(Connection conn) {
+        final Lease[] ended = new Lease[1];
+        leases.computeIfPresent(conn, (c, lease) -> {
+            if (--lease.depth > 0) {
+                return lease;  // nested lease
+            }
+            ended[0] = lease;
+            return null;
+        });
+        final Lease lease = ended[0];
+        if (lease == null) {
+            return null;  // not leased via this tracker, or nested lease
+        }
+        final long heldNanos = nanoClock.getAsLong() - lease.start;
+        holdHistogram.record(heldNanos);
+        inFlight.decrementAndGet();
+        if (isLeakDetectionEnabled() && heldNanos >= leakThresholdNanos && lease.markReported()) {
+            return new ConnectionLeak(lease.owner, heldNanos, lease.acquiredAt.getStackTrace(), true);
+        }
+        return null;
+    }
+
+    /**
+     * Find the leases held beyond the leak-detection threshold that are not reported yet. Every leak is reported once.
+     * @return list of leaks, empty when leak detection is disabled
+     */
+    public List<ConnectionLeak> checkLeaks() {
+        final List<ConnectionLeak> result = new ArrayList<ConnectionLeak>();
+        if (!isLeakDetectionEnabled()) {
+            return result;
+        }
+        final long now = nanoClock.getAsLong();
+        for (Lease lease: leases.values()) {
+            final long heldNanos = now - lease.start;
+            if (lease.acquiredAt != null && heldNanos >= leakThresholdNanos && lease.markReported()) {
+                result.add(new ConnectionLeak(lease.owner, heldNanos, lease.acquiredAt.getStackTrace(), false));
+            }
+        }
+        return result;
+    }
+
+    public LatencyHistogram getAcquireHistogram() {
+        return acquireHistogram;
+    }
+
+    public LatencyHistogram getHoldHistogram() {
+        return holdHistogram;
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * Reset the peak in-flight count to the current in-flight count.
+     */
+    public void resetPeakInFlight() {
+        peakInFlight.reset();
+        peakInFlight.accumulate(inFlight.get());
+    }
+
+}
@@ -0,0 +1,64 @@
+package asphalt.instrument;
+
+/**
+ * Allocation-free variant of {@link JdbcEventListener} using primitive correlation IDs. Instrumented wrappers skip
+ * event creation, timing and callbacks altogether for the {@link #NOP} listener, and read the clock only once after the
+ * JDBC event, i.e. {@link #lastly(long, long, Object)} receives the same elapsed time as the preceding callback.
+ * @param <E> the JDBC event type
+ */
+public interface FastJdbcEventListener<E> {
+
+    public static final FastJdbcEventListener<?> NOP = new FastJdbcEventListener<Object>() {
+        @Override
+        public long before(Object event) { return 0L; }
+        @Override
+        public void onSuccess(long id, long nanos, Object event) {}
+        @Override
+        public void onError(long id, long nanos, Object event, Exception e) {}
+        @Override
+        public void lastly(long id, long nanos, Object event) {}
+    };
+
+    /**
+     * Return the {@link #NOP} listener for the given event type.
+     * @param <E> the JDBC event type
+     * @return the NOP listener
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> FastJdbcEventListener<E> nop() {
+        return (FastJdbcEventListener<E>) NOP;
+    }
+
+    /**
+     * Triggered before a JDBC event takes place.
+     * @param event the JDBC event
+     * @return correlation ID
+     */
+    public long before(E event);
+
+    /**
+     * Triggered after a JDBC event takes place successfully.
+     * @param id correlation ID
+     * @param nanos nanoseconds elapsed since start
+     * @param event the JDBC event
+     */
+    public void onSuccess(long id, long nanos, E event);
+
+    /**
+     * Triggered after a JDBC event results in error.
+     * @param id correlation ID
+     * @param nanos nanoseconds elapsed since start
+     * @param event the JDBC event
+     * @param e the exception
+     */
+    public void onError(long id, long nanos, E event, Exception e);
+
+    /**
+     * Triggered finally, after everything is over.
+     * @param id correlation ID
+     * @param nanos nanoseconds elapsed since start
+     * @param event the JDBC event
+     */
+    public void lastly(long id, long nanos, E event);
+
+}
@@ -14,4 +14,22 @@ public interface JdbcEventFactory<JdbcStatementCreation, SQLExecution> {
     public SQLExecution sqlQueryExecutionEventForPreparedStatement(String sql);
     public SQLExecution sqlUpdateExecutionEventForPreparedStatement(String sql);
 
+    /**
+     * Return the event for fetching the rows of a statement result set. Defaults to the query execution event, for
+     * factories that do not distinguish the fetch details.
+     */
+    public default SQLExecution sqlFetchEventForStatement(String sql, long firstRowNanos, long rowCount,
+            long roundTrips) {
+        return sqlQueryExecutionEventForStatement(sql);
+    }
+
+    /**
+     * Return the event for fetching the rows of a prepared statement result set. Defaults to the query execution
+     * event, for factories that do not distinguish the fetch details.
+     */
+    public default SQLExecution sqlFetchEventForPreparedStatement(String sql, long firstRowNanos, long rowCount,
+            long roundTrips) {
+        return sqlQueryExecutionEventForPreparedStatement(sql);
+    }
+
 }
@@ -0,0 +1,61 @@
+package asphalt.instrument;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link FastJdbcEventListener} delegating to a {@link JdbcEventListener}. Non-null String correlation IDs are held
+ * against a generated long ID until {@link #lastly(long, long, Object)} is triggered.
+ * @param <E> the JDBC event type
+ */
+public class JdbcEventListenerAdapter<E> implements FastJdbcEventListener<E> {
+
+    private final JdbcEventListener<E> listener;
+    private final AtomicLong idGenerator = new AtomicLong();
+    private final ConcurrentHashMap<Long, String> ids = new ConcurrentHashMap<Long, String>();
+
+    public JdbcEventListenerAdapter(JdbcEventListener<E> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adapt a {@link JdbcEventListener} as a fast listener. The NOP listener is adapted as
+     * {@link FastJdbcEventListener#NOP}.
+     * @param listener the listener to adapt
+     * @return adapted listener
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> FastJdbcEventListener<E> adapt(JdbcEventListener<E> listener) {
+        if (listener == JdbcEventListener.NOP) {
+            return (FastJdbcEventListener<E>) FastJdbcEventListener.NOP;
+        }
+        return new JdbcEventListenerAdapter<E>(listener);
+    }
+
+    @Override
+    public long before(E event) {
+        final String id = listener.before(event);
+        if (id == null) {
+            return 0L;
+        }
+        final long longId = idGenerator.incrementAndGet();
+        ids.put(longId, id);
+        return longId;
+    }
+
+    @Override
+    public void onSuccess(long id, long nanos, E event) {
+        listener.onSuccess(id == 0L? null: ids.get(id), nanos, event);
+    }
+
+    @Override
+    public void onError(long id, long nanos, E event, Exception e) {
+        listener.onError(id == 0L? null: ids.get(id), nanos, event, e);
+    }
+
+    @Override
+    public void lastly(long id, long nanos, E event) {
+        listener.lastly(id == 0L? null: ids.remove(id), nanos, event);
+    }
+
+}
@@ -0,0 +1,104 @@
+package asphalt.instrument;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (in the spirit of HdrHistogram): every power-of-two range of
+ * values is split into 16 linear sub-buckets, limiting the relative error of reported values to 1/16 (6.25%). Bucket
+ * counters are striped across threads to avoid contention. Values (nanoseconds) beyond 2^36 (about 68 seconds) are
+ * counted in the last bucket, but the maximum value is tracked exactly.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final long MAX_TRACKABLE = (1L << (MAX_EXPONENT + 1)) - 1;
+    public static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+    private final int stripeMask;
+    private final AtomicLongArray[] stripes;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        this(defaultStripeCount());
+    }
+
+    /**
+     * Create a histogram with the specified number of counter stripes (rounded up to a power of two).
+     */
+    public LatencyHistogram(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Expected stripe count to be a positive integer, but found "
+                    + stripeCount);
+        }
+        final int n = Integer.highestOneBit(stripeCount) == stripeCount? stripeCount:
+            Integer.highestOneBit(stripeCount) << 1;
+        this.stripeMask = n - 1;
+        this.stripes = new AtomicLongArray[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new AtomicLongArray(BUCKET_COUNT);
+        }
+    }
+
+    private static int defaultStripeCount() {
+        return Math.min(8, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static int bucketIndex(long value) {
+        final long v = value < 0? 0: (value > MAX_TRACKABLE? MAX_TRACKABLE: value);
+        if (v < SUB_COUNT) {
+            return (int) v;
+        }
+        final int shift = (63 - Long.numberOfLeadingZeros(v)) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((v >>> shift) & (SUB_COUNT - 1));
+    }
+
+    /**
+     * Return the highest value that is counted in the specified bucket.
+     */
+    public static long bucketUpperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BITS) - 1;
+        final long sub = index & (SUB_COUNT - 1);
+        return ((SUB_COUNT + sub + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        stripes[((int) Thread.currentThread().getId()) & stripeMask].incrementAndGet(bucketIndex(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public void recordError(long nanos) {
+        errors.increment();
+        record(nanos);
+    }
+
+    /**
+     * Return a snapshot of the values recorded so far, resetting the histogram (to begin a new interval) if specified.
+     * Values recorded concurrently with a reset are counted in either of the intervals.
+     */
+    public LatencySnapshot snapshot(boolean reset) {
+        final long[] buckets = new long[BUCKET_COUNT];
+        for (AtomicLongArray stripe: stripes) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] += reset? stripe.getAndSet(i, 0): stripe.get(i);
+            }
+        }
+        if (reset) {
+            return new LatencySnapshot(buckets, count.sumThenReset(), errors.sumThenReset(), sum.sumThenReset(),
+                    max.getThenReset());
+        }
+        return new LatencySnapshot(buckets, count.sum(), errors.sum(), sum.sum(), max.get());
+    }
+
+}
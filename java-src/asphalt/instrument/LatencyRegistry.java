@@ -0,0 +1,68 @@
+package asphalt.instrument;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent registry of latency histograms keyed by SQL. The number of keys is bounded, as SQL may be generated:
+ * once the max number of keys is reached, latencies for new keys are recorded under {@link #OVERFLOW_KEY}.
+ */
+public class LatencyRegistry {
+
+    public static final String OVERFLOW_KEY = "<other>";
+
+    public static final int DEFAULT_MAX_KEYS = 1000;
+
+    private final int stripeCount;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    public LatencyRegistry() {
+        this(Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public LatencyRegistry(int stripeCount) {
+        this(stripeCount, DEFAULT_MAX_KEYS);
+    }
+
+    public LatencyRegistry(int stripeCount, int maxKeys) {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("Expected max keys to be a positive integer, but found " + maxKeys);
+        }
+        this.stripeCount = stripeCount;
+        this.maxKeys = maxKeys;
+    }
+
+    public LatencyHistogram histogram(String key) {
+        final LatencyHistogram h = histograms.get(key);  // avoid locking in computeIfAbsent when present
+        if (h != null) {
+            return h;
+        }
+        // the bound is approximate under contention, the overflow bucket being in addition to max keys
+        final String k = histograms.size() < maxKeys? key: OVERFLOW_KEY;
+        return histograms.computeIfAbsent(k, x -> new LatencyHistogram(stripeCount));
+    }
+
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    public void record(String key, long nanos) {
+        if (key != null) {
+            histogram(key).record(nanos);
+        }
+    }
+
+    public void recordError(String key, long nanos) {
+        if (key != null) {
+            histogram(key).recordError(nanos);
+        }
+    }
+
+    public Map<String, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+}
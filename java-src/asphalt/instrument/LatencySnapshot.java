@@ -0,0 +1,61 @@
+package asphalt.instrument;
+
+/**
+ * Immutable snapshot of a {@link LatencyHistogram}. Percentile values are bucket upper bounds, capped by the maximum.
+ */
+public class LatencySnapshot {
+
+    private final long[] buckets;
+    private final long count;
+    private final long errors;
+    private final long sum;
+    private final long max;
+
+    public LatencySnapshot(long[] buckets, long count, long errors, long sum, long max) {
+        this.buckets = buckets;
+        this.count = count;
+        this.errors = errors;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0? 0.0: ((double) sum) / count;
+    }
+
+    /**
+     * Return the value (nanoseconds) at or below which the given percentile (0.0 to 100.0) of recorded values fall.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (long each: buckets) {
+            total += each;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final double p = Math.min(Math.max(percentile, 0.0), 100.0);
+        final long rank = Math.max(1, (long) Math.ceil((p / 100.0) * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+}
@@ -0,0 +1,67 @@
+package asphalt.instrument;
+
+/**
+ * Immutable entry in a {@link SlowQueryLog}.
+ */
+public class SlowQueryEntry {
+
+    private final long sequence;
+    private final String sql;
+    private final Object kind;
+    private final long nanos;
+    private final String threadName;
+    private final long timestamp;
+    private final Exception error;
+    private final boolean slow;
+
+    public SlowQueryEntry(long sequence, String sql, Object kind, long nanos, String threadName, long timestamp,
+            Exception error, boolean slow) {
+        this.sequence = sequence;
+        this.sql = sql;
+        this.kind = kind;
+        this.nanos = nanos;
+        this.threadName = threadName;
+        this.timestamp = timestamp;
+        this.error = error;
+        this.slow = slow;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public Object getKind() {
+        return kind;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * Return the wall-clock time (milliseconds since epoch) when the entry was recorded.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Return true if the entry was recorded for exceeding the threshold (or for an error), false if it was sampled.
+     */
+    public boolean isSlow() {
+        return slow;
+    }
+
+}
@@ -0,0 +1,116 @@
+package asphalt.instrument;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free log of the last N slow SQL executions, held in a preallocated ring buffer. Executions taking at least the
+ * threshold duration, or resulting in error, are always recorded; faster ones are sampled 1-in-N (or not at all when
+ * the sample rate is zero). Entries are allocated only when recorded, so the common (fast, unsampled) path does not
+ * allocate. Under concurrent writes {@link #drain()} may miss entries that are being written at the time.
+ */
+public class SlowQueryLog {
+
+    private static final Comparator<SlowQueryEntry> BY_SEQUENCE =
+            (a, b) -> Long.compare(a.getSequence(), b.getSequence());
+
+    private final AtomicReferenceArray<SlowQueryEntry> entries;
+    private final int capacity;
+    private final int mask;
+    private final long thresholdNanos;
+    private final int sampleRate;
+    private final AtomicLong cursor = new AtomicLong();   // sequence of the next entry
+    private final AtomicLong drained = new AtomicLong();  // sequence up to which entries are drained
+
+    /**
+     * Create a slow-query log.
+     * @param capacity       max number of entries retained (rounded up to a power of two)
+     * @param thresholdNanos executions taking at least this duration are considered slow
+     * @param sampleRate     record 1 in this many fast executions, zero to record none
+     */
+    public SlowQueryLog(int capacity, long thresholdNanos, int sampleRate) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Expected capacity to be a positive integer, but found " + capacity);
+        }
+        if (sampleRate < 0) {
+            throw new IllegalArgumentException("Expected sample rate to be zero or positive integer, but found "
+                    + sampleRate);
+        }
+        final int n = Integer.highestOneBit(capacity) == capacity? capacity: Integer.highestOneBit(capacity) << 1;
+        this.entries = new AtomicReferenceArray<SlowQueryEntry>(n);
+        this.capacity = n;
+        this.mask = n - 1;
+        this.thresholdNanos = thresholdNanos;
+        this.sampleRate = sampleRate;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Return the total number of entries recorded so far, including those overwritten.
+     */
+    public long getRecordedCount() {
+        return cursor.get();
+    }
+
+    /**
+     * Record an execution if it is slow, resulted in error or is sampled.
+     * @param sql   the SQL
+     * @param kind  the kind of execution, e.g. <tt>:sql-query</tt>
+     * @param nanos nanoseconds elapsed
+     * @param error the exception, or null if the execution succeeded
+     * @return true if recorded, false otherwise
+     */
+    public boolean record(String sql, Object kind, long nanos, Exception error) {
+        final boolean slow = nanos >= thresholdNanos || error != null;
+        if (!slow && (sampleRate == 0 || ThreadLocalRandom.current().nextInt(sampleRate) != 0)) {
+            return false;
+        }
+        final long sequence = cursor.getAndIncrement();
+        entries.set((int) (sequence & mask), new SlowQueryEntry(sequence, sql, kind, nanos,
+                Thread.currentThread().getName(), System.currentTimeMillis(), error, slow));
+        return true;
+    }
+
+    private List<SlowQueryEntry> collect(long from, long until) {
+        final List<SlowQueryEntry> result = new ArrayList<SlowQueryEntry>((int) Math.min(capacity, until - from));
+        for (int i = 0; i < capacity; i++) {
+            final SlowQueryEntry e = entries.get(i);
+            if (e != null && e.getSequence() >= from && e.getSequence() < until) {
+                result.add(e);
+            }
+        }
+        result.sort(BY_SEQUENCE);
+        return result;
+    }
+
+    /**
+     * Return the retained entries (oldest first) without removing them.
+     */
+    public List<SlowQueryEntry> snapshot() {
+        final long until = cursor.get();
+        return collect(Math.max(0L, until - capacity), until);
+    }
+
+    /**
+     * Return the entries (oldest first) recorded since the last drain, that are still retained.
+     */
+    public List<SlowQueryEntry> drain() {
+        final long until = cursor.get();
+        long from;
+        do {
+            from = drained.get();
+            if (from >= until) {
+                return new ArrayList<SlowQueryEntry>(0);
+            }
+        } while (!drained.compareAndSet(from, until));
+        return collect(Math.max(from, until - capacity), until);
+    }
+
+}
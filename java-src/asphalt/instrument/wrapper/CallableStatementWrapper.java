@@ -20,6 +20,7 @@ import java.sql.Timestamp;
 import java.util.Calendar;
 import java.util.Map;
 
+import asphalt.instrument.FastJdbcEventListener;
 import asphalt.instrument.JdbcEventFactory;
 import asphalt.instrument.JdbcEventListener;
 
@@ -34,6 +35,21 @@ public class CallableStatementWrapper<SQLExecution> extends PreparedStatementWra
         this.stmt = stmt;
     }
 
+    public CallableStatementWrapper(final Connection conn, final CallableStatement stmt, final String sql,
+            final JdbcEventFactory<?, SQLExecution> eventFactory,
+            final FastJdbcEventListener<SQLExecution> sqlExecutionListener) {
+        super(conn, stmt, sql, eventFactory, sqlExecutionListener);
+        this.stmt = stmt;
+    }
+
+    public CallableStatementWrapper(final Connection conn, final CallableStatement stmt, final String sql,
+            final JdbcEventFactory<?, SQLExecution> eventFactory,
+            final FastJdbcEventListener<SQLExecution> sqlExecutionListener,
+            final FastJdbcEventListener<SQLExecution> sqlFetchListener) {
+        super(conn, stmt, sql, eventFactory, sqlExecutionListener, sqlFetchListener);
+        this.stmt = stmt;
+    }
+
     @Override
     public void registerOutParameter(int parameterIndex, int sqlType) throws SQLException {
         stmt.registerOutParameter(parameterIndex, sqlType);
@@ -19,26 +19,48 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
 
-import asphalt.instrument.IStopWatch;
+import asphalt.instrument.FastJdbcEventListener;
 import asphalt.instrument.JdbcEventFactory;
 import asphalt.instrument.JdbcEventListener;
-import asphalt.instrument.StopWatchNanos;
+import asphalt.instrument.JdbcEventListenerAdapter;
 
 public class ConnectionWrapper<JdbcStatementCreation, SQLExecution> implements Connection {
 
     private final Connection conn;
     private final JdbcEventFactory<JdbcStatementCreation, SQLExecution> eventFactory;
-    private final JdbcEventListener<JdbcStatementCreation> stmtCreationListener;
-    private final JdbcEventListener<SQLExecution> sqlExecutionListener;
+    private final FastJdbcEventListener<JdbcStatementCreation> stmtCreationListener;
+    private final FastJdbcEventListener<SQLExecution> sqlExecutionListener;
+    private final FastJdbcEventListener<SQLExecution> sqlFetchListener;
 
     public ConnectionWrapper(final Connection conn,
             final JdbcEventFactory<JdbcStatementCreation, SQLExecution> eventFactory,
             final JdbcEventListener<JdbcStatementCreation> stmtCreationListener,
             final JdbcEventListener<SQLExecution> sqlExecutionListener) {
+        this(conn, eventFactory, JdbcEventListenerAdapter.adapt(stmtCreationListener),
+                JdbcEventListenerAdapter.adapt(sqlExecutionListener));
+    }
+
+    public ConnectionWrapper(final Connection conn,
+            final JdbcEventFactory<JdbcStatementCreation, SQLExecution> eventFactory,
+            final FastJdbcEventListener<JdbcStatementCreation> stmtCreationListener,
+            final FastJdbcEventListener<SQLExecution> sqlExecutionListener) {
+        this(conn, eventFactory, stmtCreationListener, sqlExecutionListener, FastJdbcEventListener.<SQLExecution>nop());
+    }
+
+    public ConnectionWrapper(final Connection conn,
+            final JdbcEventFactory<JdbcStatementCreation, SQLExecution> eventFactory,
+            final FastJdbcEventListener<JdbcStatementCreation> stmtCreationListener,
+            final FastJdbcEventListener<SQLExecution> sqlExecutionListener,
+            final FastJdbcEventListener<SQLExecution> sqlFetchListener) {
         this.conn = conn;
         this.eventFactory = eventFactory;
         this.stmtCreationListener = stmtCreationListener;
         this.sqlExecutionListener = sqlExecutionListener;
+        this.sqlFetchListener = sqlFetchListener;
+    }
+
+    public Connection getDelegate() {
+        return conn;
     }
 
     @Override
@@ -53,52 +75,79 @@ public class ConnectionWrapper<JdbcStatementCreation, SQLExecution> implements C
 
     @Override
     public Statement createStatement() throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final Statement stmt = conn.createStatement();
+            return new StatementWrapper<>(this, stmt, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcStatementCreationEvent();
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final Statement stmt = conn.createStatement();
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);
-            return new StatementWrapper<>(this, stmt, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new StatementWrapper<>(this, stmt, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final PreparedStatement pstmt = conn.prepareStatement(sql);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcPreparedStatementCreationEvent(sql);
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final PreparedStatement pstmt = conn.prepareStatement(sql);
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);;
-            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public CallableStatement prepareCall(String sql) throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final CallableStatement cstmt = conn.prepareCall(sql);
+            return new CallableStatementWrapper<>(this, cstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcCallableStatementCreationEvent(sql);
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final CallableStatement cstmt = conn.prepareCall(sql);
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);
-            return new CallableStatementWrapper<>(this, cstmt, sql, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new CallableStatementWrapper<>(this, cstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
@@ -184,53 +233,80 @@ public class ConnectionWrapper<JdbcStatementCreation, SQLExecution> implements C
 
     @Override
     public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final Statement stmt = conn.createStatement(resultSetType, resultSetConcurrency);
+            return new StatementWrapper<>(this, stmt, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcStatementCreationEvent();
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final Statement stmt = conn.createStatement(resultSetType, resultSetConcurrency);
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);
-            return new StatementWrapper<>(this, stmt, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new StatementWrapper<>(this, stmt, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
             throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final PreparedStatement pstmt = conn.prepareStatement(sql, resultSetType, resultSetConcurrency);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcPreparedStatementCreationEvent(sql);
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final PreparedStatement pstmt = conn.prepareStatement(sql, resultSetType, resultSetConcurrency);
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);;
-            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final CallableStatement cstmt = conn.prepareCall(sql, resultSetType, resultSetConcurrency);
+            return new CallableStatementWrapper<>(this, cstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcCallableStatementCreationEvent(sql);
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final CallableStatement cstmt = conn.prepareCall(sql, resultSetType, resultSetConcurrency);
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);
-            return new CallableStatementWrapper<>(this, cstmt, sql, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new CallableStatementWrapper<>(this, cstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
@@ -277,107 +353,163 @@ public class ConnectionWrapper<JdbcStatementCreation, SQLExecution> implements C
     @Override
     public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
             throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final Statement stmt = conn.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+            return new StatementWrapper<>(this, stmt, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcStatementCreationEvent();
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final Statement stmt = conn.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);
-            return new StatementWrapper<>(this, stmt, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new StatementWrapper<>(this, stmt, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
             int resultSetHoldability) throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final PreparedStatement pstmt =
+                    conn.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcPreparedStatementCreationEvent(sql);
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final PreparedStatement pstmt =
                     conn.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);
-            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
             int resultSetHoldability) throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final CallableStatement cstmt =
+                    conn.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+            return new CallableStatementWrapper<>(this, cstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcCallableStatementCreationEvent(sql);
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final CallableStatement cstmt =
                     conn.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);
-            return new CallableStatementWrapper<>(this, cstmt, sql, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new CallableStatementWrapper<>(this, cstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final PreparedStatement pstmt = conn.prepareStatement(sql, autoGeneratedKeys);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcPreparedStatementCreationEvent(sql);
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final PreparedStatement pstmt = conn.prepareStatement(sql, autoGeneratedKeys);
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);
-            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final PreparedStatement pstmt = conn.prepareStatement(sql, columnIndexes);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcPreparedStatementCreationEvent(sql);
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final PreparedStatement pstmt = conn.prepareStatement(sql, columnIndexes);
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);
-            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        if (stmtCreationListener == FastJdbcEventListener.NOP) {
+            final PreparedStatement pstmt = conn.prepareStatement(sql, columnNames);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
+        }
         final JdbcStatementCreation event = eventFactory.jdbcPreparedStatementCreationEvent(sql);
-        final String id = stmtCreationListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = stmtCreationListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final PreparedStatement pstmt = conn.prepareStatement(sql, columnNames);
-            stmtCreationListener.onSuccess(id, timer.elapsed(), event);
-            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onSuccess(id, nanos, event);
+            return new PreparedStatementWrapper<>(this, pstmt, sql, eventFactory, sqlExecutionListener,
+                    sqlFetchListener);
         } catch (SQLException|RuntimeException e) {
-            stmtCreationListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            stmtCreationListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            stmtCreationListener.lastly(id, timer.elapsed(), event);
+            stmtCreationListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
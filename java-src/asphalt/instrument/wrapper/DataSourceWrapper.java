@@ -8,23 +8,41 @@ import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 
+import asphalt.instrument.FastJdbcEventListener;
 import asphalt.instrument.JdbcEventFactory;
 import asphalt.instrument.JdbcEventListener;
+import asphalt.instrument.JdbcEventListenerAdapter;
 
 public class DataSourceWrapper<JdbcStatementCreation, SQLExecution> implements DataSource {
 
     private final DataSource ds;
     private final JdbcEventFactory<JdbcStatementCreation, SQLExecution> eventFactory;
-    private final JdbcEventListener<JdbcStatementCreation> stmtCreationListener;
-    private final JdbcEventListener<SQLExecution> sqlExecutionListener;
+    private final FastJdbcEventListener<JdbcStatementCreation> stmtCreationListener;
+    private final FastJdbcEventListener<SQLExecution> sqlExecutionListener;
+    private final FastJdbcEventListener<SQLExecution> sqlFetchListener;
 
     public DataSourceWrapper(DataSource ds, final JdbcEventFactory<JdbcStatementCreation, SQLExecution> eventFactory,
             final JdbcEventListener<JdbcStatementCreation> stmtCreationListener,
             final JdbcEventListener<SQLExecution> sqlExecutionListener) {
+        this(ds, eventFactory, JdbcEventListenerAdapter.adapt(stmtCreationListener),
+                JdbcEventListenerAdapter.adapt(sqlExecutionListener));
+    }
+
+    public DataSourceWrapper(DataSource ds, final JdbcEventFactory<JdbcStatementCreation, SQLExecution> eventFactory,
+            final FastJdbcEventListener<JdbcStatementCreation> stmtCreationListener,
+            final FastJdbcEventListener<SQLExecution> sqlExecutionListener) {
+        this(ds, eventFactory, stmtCreationListener, sqlExecutionListener, FastJdbcEventListener.<SQLExecution>nop());
+    }
+
+    public DataSourceWrapper(DataSource ds, final JdbcEventFactory<JdbcStatementCreation, SQLExecution> eventFactory,
+            final FastJdbcEventListener<JdbcStatementCreation> stmtCreationListener,
+            final FastJdbcEventListener<SQLExecution> sqlExecutionListener,
+            final FastJdbcEventListener<SQLExecution> sqlFetchListener) {
         this.ds = ds;
         this.eventFactory = eventFactory;
         this.stmtCreationListener = stmtCreationListener;
         this.sqlExecutionListener = sqlExecutionListener;
+        this.sqlFetchListener = sqlFetchListener;
     }
 
     @Override
@@ -64,13 +82,14 @@ public class DataSourceWrapper<JdbcStatementCreation, SQLExecution> implements D
 
     @Override
     public Connection getConnection() throws SQLException {
-        return new ConnectionWrapper<>(ds.getConnection(), eventFactory, stmtCreationListener, sqlExecutionListener);
+        return new ConnectionWrapper<>(ds.getConnection(), eventFactory, stmtCreationListener, sqlExecutionListener,
+                sqlFetchListener);
     }
 
     @Override
     public Connection getConnection(String username, String password) throws SQLException {
         return new ConnectionWrapper<>(ds.getConnection(username, password), eventFactory,
-                stmtCreationListener, sqlExecutionListener);
+                stmtCreationListener, sqlExecutionListener, sqlFetchListener);
     }
 
 }
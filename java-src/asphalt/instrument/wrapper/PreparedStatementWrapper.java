@@ -22,61 +22,140 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.Calendar;
 
-import asphalt.instrument.IStopWatch;
+import asphalt.instrument.FastJdbcEventListener;
 import asphalt.instrument.JdbcEventFactory;
 import asphalt.instrument.JdbcEventListener;
-import asphalt.instrument.StopWatchNanos;
+import asphalt.instrument.JdbcEventListenerAdapter;
 
 public class PreparedStatementWrapper<SQLExecution> extends StatementWrapper<SQLExecution> implements PreparedStatement {
 
     private final PreparedStatement pstmt;
-    private final JdbcEventListener<SQLExecution> sqlExecutionListener;
-    private final SQLExecution preparedStatementQueryEvent;
-    private final SQLExecution preparedStatementUpdateEvent;
-    private final SQLExecution preparedStatementSQLEvent;
+    private final String sql;
+    private final JdbcEventFactory<?, SQLExecution> eventFactory;
+    private final FastJdbcEventListener<SQLExecution> sqlExecutionListener;
+
+    // events are created lazily, on first execution - benign race as events are immutable
+    private SQLExecution preparedStatementQueryEvent;
+    private SQLExecution preparedStatementUpdateEvent;
+    private SQLExecution preparedStatementSQLEvent;
 
     public PreparedStatementWrapper(final Connection conn, final PreparedStatement pstmt, final String sql,
             final JdbcEventFactory<?, SQLExecution> eventFactory,
             final JdbcEventListener<SQLExecution> sqlExecutionListener) {
-        super(conn, pstmt, eventFactory, sqlExecutionListener);
+        this(conn, pstmt, sql, eventFactory, JdbcEventListenerAdapter.adapt(sqlExecutionListener));
+    }
+
+    public PreparedStatementWrapper(final Connection conn, final PreparedStatement pstmt, final String sql,
+            final JdbcEventFactory<?, SQLExecution> eventFactory,
+            final FastJdbcEventListener<SQLExecution> sqlExecutionListener) {
+        this(conn, pstmt, sql, eventFactory, sqlExecutionListener, FastJdbcEventListener.<SQLExecution>nop());
+    }
+
+    public PreparedStatementWrapper(final Connection conn, final PreparedStatement pstmt, final String sql,
+            final JdbcEventFactory<?, SQLExecution> eventFactory,
+            final FastJdbcEventListener<SQLExecution> sqlExecutionListener,
+            final FastJdbcEventListener<SQLExecution> sqlFetchListener) {
+        super(conn, pstmt, eventFactory, sqlExecutionListener, sqlFetchListener);
         this.pstmt = pstmt;
+        this.sql = sql;
+        this.eventFactory = eventFactory;
         this.sqlExecutionListener = sqlExecutionListener;
-        this.preparedStatementQueryEvent = eventFactory.sqlQueryExecutionEventForPreparedStatement(sql);
-        this.preparedStatementUpdateEvent = eventFactory.sqlUpdateExecutionEventForPreparedStatement(sql);
-        this.preparedStatementSQLEvent = eventFactory.sqlExecutionEventForPreparedStatement(sql);
+    }
+
+    private SQLExecution queryEvent() {
+        SQLExecution event = preparedStatementQueryEvent;
+        if (event == null) {
+            event = eventFactory.sqlQueryExecutionEventForPreparedStatement(sql);
+            preparedStatementQueryEvent = event;
+        }
+        return event;
+    }
+
+    private SQLExecution updateEvent() {
+        SQLExecution event = preparedStatementUpdateEvent;
+        if (event == null) {
+            event = eventFactory.sqlUpdateExecutionEventForPreparedStatement(sql);
+            preparedStatementUpdateEvent = event;
+        }
+        return event;
+    }
+
+    private SQLExecution sqlEvent() {
+        SQLExecution event = preparedStatementSQLEvent;
+        if (event == null) {
+            event = eventFactory.sqlExecutionEventForPreparedStatement(sql);
+            preparedStatementSQLEvent = event;
+        }
+        return event;
     }
 
     @Override
     public ResultSet executeQuery() throws SQLException {
-        final SQLExecution event = preparedStatementQueryEvent;
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            final long start = System.nanoTime();
+            return wrapResultSet(pstmt.executeQuery(), sql, true, start);
+        }
+        final SQLExecution event = queryEvent();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final ResultSet rs = pstmt.executeQuery();
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
-            return rs;
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
+            return wrapResultSet(rs, sql, true, start);
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public int executeUpdate() throws SQLException {
-        final SQLExecution event = preparedStatementUpdateEvent;
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return pstmt.executeUpdate();
+        }
+        final SQLExecution event = updateEvent();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final int updateCount = pstmt.executeUpdate();
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
             return updateCount;
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate() throws SQLException {
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return pstmt.executeLargeUpdate();
+        }
+        final SQLExecution event = updateEvent();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
+        try {
+            final long updateCount = pstmt.executeLargeUpdate();
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
+            return updateCount;
+        } catch (SQLException|RuntimeException e) {
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
+            throw e;
+        } finally {
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
@@ -183,18 +262,24 @@ public class PreparedStatementWrapper<SQLExecution> extends StatementWrapper<SQL
 
     @Override
     public boolean execute() throws SQLException {
-        final SQLExecution event = preparedStatementSQLEvent;
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return pstmt.execute();
+        }
+        final SQLExecution event = sqlEvent();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final boolean result = pstmt.execute();
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
             return result;
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
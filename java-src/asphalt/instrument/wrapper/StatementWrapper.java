@@ -6,25 +6,48 @@ import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
 
-import asphalt.instrument.IStopWatch;
+import asphalt.instrument.FastJdbcEventListener;
 import asphalt.instrument.JdbcEventFactory;
 import asphalt.instrument.JdbcEventListener;
-import asphalt.instrument.StopWatchNanos;
+import asphalt.instrument.JdbcEventListenerAdapter;
 
 public class StatementWrapper<SQLExecution> implements Statement {
 
     private final Connection conn;
     private final Statement stmt;
     private final JdbcEventFactory<?, SQLExecution> eventFactory;
-    private final JdbcEventListener<SQLExecution> sqlExecutionListener;
+    private final FastJdbcEventListener<SQLExecution> sqlExecutionListener;
+    private final FastJdbcEventListener<SQLExecution> sqlFetchListener;
 
     public StatementWrapper(final Connection conn, final Statement stmt,
             final JdbcEventFactory<?, SQLExecution> eventFactory,
             final JdbcEventListener<SQLExecution> sqlExecutionListener) {
+        this(conn, stmt, eventFactory, JdbcEventListenerAdapter.adapt(sqlExecutionListener));
+    }
+
+    public StatementWrapper(final Connection conn, final Statement stmt,
+            final JdbcEventFactory<?, SQLExecution> eventFactory,
+            final FastJdbcEventListener<SQLExecution> sqlExecutionListener) {
+        this(conn, stmt, eventFactory, sqlExecutionListener, FastJdbcEventListener.<SQLExecution>nop());
+    }
+
+    public StatementWrapper(final Connection conn, final Statement stmt,
+            final JdbcEventFactory<?, SQLExecution> eventFactory,
+            final FastJdbcEventListener<SQLExecution> sqlExecutionListener,
+            final FastJdbcEventListener<SQLExecution> sqlFetchListener) {
         this.conn = conn;
         this.stmt = stmt;
         this.eventFactory = eventFactory;
         this.sqlExecutionListener = sqlExecutionListener;
+        this.sqlFetchListener = sqlFetchListener;
+    }
+
+    /** Wrap given result set (returned by executeQuery) to report a fetch event when it is closed, if required. */
+    protected ResultSet wrapResultSet(final ResultSet rs, final String sql, final boolean prepared, final long start) {
+        if (sqlFetchListener == FastJdbcEventListener.NOP) {
+            return rs;
+        }
+        return new ResultSetWrapper<>(this, rs, sql, prepared, eventFactory, sqlFetchListener, start);
     }
 
     @Override
@@ -42,18 +65,25 @@ public class StatementWrapper<SQLExecution> implements Statement {
         if (sql == null) {
             throw new NullPointerException("Expected valid SQL, but found NULL");
         }
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            final long start = System.nanoTime();
+            return wrapResultSet(stmt.executeQuery(sql), sql, false, start);
+        }
         final SQLExecution event = eventFactory.sqlQueryExecutionEventForStatement(sql);
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final ResultSet rs = stmt.executeQuery(sql);
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
-            return rs;
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
+            return wrapResultSet(rs, sql, false, start);
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
@@ -62,18 +92,24 @@ public class StatementWrapper<SQLExecution> implements Statement {
         if (sql == null) {
             throw new NullPointerException("Expected valid SQL, but found NULL");
         }
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.executeUpdate(sql);
+        }
         final SQLExecution event = eventFactory.sqlUpdateExecutionEventForStatement(sql);
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final int updateCount = stmt.executeUpdate(sql);
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
             return updateCount;
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
@@ -142,18 +178,24 @@ public class StatementWrapper<SQLExecution> implements Statement {
         if (sql == null) {
             throw new NullPointerException("Expected valid SQL, but found NULL");
         }
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.execute(sql);
+        }
         final SQLExecution event = eventFactory.sqlExecutionEventForStatement(sql);
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final boolean result = stmt.execute(sql);
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
             return result;
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
@@ -234,103 +276,139 @@ public class StatementWrapper<SQLExecution> implements Statement {
 
     @Override
     public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.executeUpdate(sql, autoGeneratedKeys);
+        }
         final SQLExecution event = eventFactory.sqlUpdateExecutionEventForStatement(sql);
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final int updateCount = stmt.executeUpdate(sql, autoGeneratedKeys);
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
             return updateCount;
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.executeUpdate(sql, columnIndexes);
+        }
         final SQLExecution event = eventFactory.sqlUpdateExecutionEventForStatement(sql);
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final int updateCount = stmt.executeUpdate(sql, columnIndexes);
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
             return updateCount;
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.executeUpdate(sql, columnNames);
+        }
         final SQLExecution event = eventFactory.sqlUpdateExecutionEventForStatement(sql);
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final int updateCount = stmt.executeUpdate(sql, columnNames);
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
             return updateCount;
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.execute(sql, autoGeneratedKeys);
+        }
         final SQLExecution event = eventFactory.sqlExecutionEventForStatement(sql);
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final boolean result = stmt.execute(sql, autoGeneratedKeys);
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
             return result;
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.execute(sql, columnIndexes);
+        }
         final SQLExecution event = eventFactory.sqlExecutionEventForStatement(sql);
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final boolean result = stmt.execute(sql, columnIndexes);
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
             return result;
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
     @Override
     public boolean execute(String sql, String[] columnNames) throws SQLException {
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.execute(sql, columnNames);
+        }
         final SQLExecution event = eventFactory.sqlExecutionEventForStatement(sql);
-        final String id = sqlExecutionListener.before(event);
-        final IStopWatch timer = new StopWatchNanos();
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
         try {
             final boolean result = stmt.execute(sql, columnNames);
-            sqlExecutionListener.onSuccess(id, timer.elapsed(), event);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
             return result;
         } catch (SQLException|RuntimeException e) {
-            sqlExecutionListener.onError(id, timer.elapsed(), event, e);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
             throw e;
         } finally {
-            sqlExecutionListener.lastly(id, timer.elapsed(), event);
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
         }
     }
 
@@ -364,4 +442,116 @@ public class StatementWrapper<SQLExecution> implements Statement {
         return stmt.isCloseOnCompletion();
     }
 
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        return stmt.getLargeUpdateCount();
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        stmt.setLargeMaxRows(max);
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        return stmt.getLargeMaxRows();
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        return stmt.executeLargeBatch();
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.executeLargeUpdate(sql);
+        }
+        final SQLExecution event = eventFactory.sqlUpdateExecutionEventForStatement(sql);
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
+        try {
+            final long updateCount = stmt.executeLargeUpdate(sql);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
+            return updateCount;
+        } catch (SQLException|RuntimeException e) {
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
+            throw e;
+        } finally {
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.executeLargeUpdate(sql, autoGeneratedKeys);
+        }
+        final SQLExecution event = eventFactory.sqlUpdateExecutionEventForStatement(sql);
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
+        try {
+            final long updateCount = stmt.executeLargeUpdate(sql, autoGeneratedKeys);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
+            return updateCount;
+        } catch (SQLException|RuntimeException e) {
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
+            throw e;
+        } finally {
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.executeLargeUpdate(sql, columnIndexes);
+        }
+        final SQLExecution event = eventFactory.sqlUpdateExecutionEventForStatement(sql);
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
+        try {
+            final long updateCount = stmt.executeLargeUpdate(sql, columnIndexes);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
+            return updateCount;
+        } catch (SQLException|RuntimeException e) {
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
+            throw e;
+        } finally {
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        if (sqlExecutionListener == FastJdbcEventListener.NOP) {
+            return stmt.executeLargeUpdate(sql, columnNames);
+        }
+        final SQLExecution event = eventFactory.sqlUpdateExecutionEventForStatement(sql);
+        final long id = sqlExecutionListener.before(event);
+        final long start = System.nanoTime();
+        long nanos = -1L;
+        try {
+            final long updateCount = stmt.executeLargeUpdate(sql, columnNames);
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onSuccess(id, nanos, event);
+            return updateCount;
+        } catch (SQLException|RuntimeException e) {
+            nanos = System.nanoTime() - start;
+            sqlExecutionListener.onError(id, nanos, event, e);
+            throw e;
+        } finally {
+            sqlExecutionListener.lastly(id, nanos < 0L? System.nanoTime() - start: nanos, event);
+        }
+    }
+
 }
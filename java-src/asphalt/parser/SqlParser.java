@@ -0,0 +1,177 @@
+package asphalt.parser;
+
+import clojure.lang.IPersistentVector;
+import clojure.lang.ITransientCollection;
+import clojure.lang.PersistentVector;
+import clojure.lang.RT;
+
+/**
+ * Single-pass SQL template parser with primitive state flags, producing the same output as the Clojure reference
+ * implementation asphalt.internal.isql/parse-sql-str-reference, i.e. a vector [sql-tokens result-types] where
+ * sql-tokens is a vector of alternating SQL strings and [param-name param-type] vectors, and result-types is a vector
+ * of type-hint strings. The text buffers are pooled per thread and reused across calls.
+ */
+public class SqlParser {
+
+    /** Type hint substituted for the shortcut (type-hint char repeated), i.e. default type hint */
+    public static final String DEFAULT_TYPE_HINT = "object";
+
+    private static final int MAX_POOLED_CAPACITY = 1 << 16;
+
+    private static final class Buffers {
+        final StringBuilder sb = new StringBuilder();   // SQL string in progress
+        final StringBuilder nsb = new StringBuilder();  // named param in progress
+        final StringBuilder tsb = new StringBuilder();  // type hint in progress
+    }
+
+    private static final ThreadLocal<Buffers> POOLED_BUFFERS = new ThreadLocal<Buffers>();
+
+    private static Buffers borrowBuffers() {
+        final Buffers buffers = POOLED_BUFFERS.get();
+        if (buffers == null) {
+            return new Buffers();
+        }
+        POOLED_BUFFERS.set(null);  // borrowed, in case of a nested parse
+        buffers.sb.setLength(0);
+        buffers.nsb.setLength(0);
+        buffers.tsb.setLength(0);
+        return buffers;
+    }
+
+    private static void returnBuffers(Buffers buffers) {
+        if (buffers.sb.capacity() <= MAX_POOLED_CAPACITY) {
+            POOLED_BUFFERS.set(buffers);
+        }
+    }
+
+    public static IPersistentVector parse(final String sql, final char ec, final char mc, final char tc) {
+        final Buffers buffers = borrowBuffers();
+        try {
+            return parse(sql, ec, mc, tc, buffers.sb, buffers.nsb, buffers.tsb);
+        } finally {
+            returnBuffers(buffers);
+        }
+    }
+
+    private static IPersistentVector parse(final String sql, final char ec, final char mc, final char tc,
+            final StringBuilder sb, final StringBuilder nsb, final StringBuilder tsb) {
+        final int n = sql.length();
+        ITransientCollection st = PersistentVector.EMPTY.asTransient();  // SQL template tokens
+        ITransientCollection ts = PersistentVector.EMPTY.asTransient();  // result column types
+        boolean c = false;      // SQL comment in progress
+        boolean d = false;      // double-quote string in progress
+        boolean e = false;      // escape state
+        boolean named = false;  // named param in progress
+        boolean s = false;      // single-quote string in progress
+        boolean t = false;      // type hint in progress
+        boolean typed = false;  // type hint (in tsb) pending to be consumed
+        for (int i = 0; i < n; i++) {
+            final char ch = sql.charAt(i);
+            if (c) {
+                sb.append(ch);
+                if (ch == '\n') c = false;
+            } else if (d) {
+                sb.append(ch);
+                if (ch == '"') d = false;
+            } else if (e) {
+                sb.append(ch);
+                e = false;
+            } else if (named) {
+                if (isValidNameChar(nsb, ch)) {
+                    nsb.append(ch);
+                } else if (ch == ec || ch == mc || ch == tc || ch == '"' || ch == '\'') {
+                    throw new IllegalArgumentException(String.format(
+                            "Named parameter cannot precede special chars #{%s %s %s \\\" \\'}: %s%s%s%s",
+                            charLiteral(ec), charLiteral(mc), charLiteral(tc), sb, mc, nsb, ch));
+                } else {
+                    st = addNamed(st, sb, nsb, typed? tsb: null);
+                    sb.append(ch);
+                    typed = false;
+                    named = false;
+                }
+            } else if (s) {
+                sb.append(ch);
+                if (ch == '\'') s = false;
+            } else if (t) {
+                if (isValidTypeChar(tsb, ch)) {
+                    tsb.append(ch);
+                } else if (tsb.length() == 0 && ch == tc) {
+                    tsb.append(DEFAULT_TYPE_HINT);
+                } else if (Character.isWhitespace(ch)) {
+                    t = false;  // whitespace implies type has ended, and is dropped
+                } else {
+                    throw new IllegalArgumentException(String.format(
+                            "Expected type-hint '%s%s' to precede a whitespace, but found '%s': %s%s%s%s",
+                            tc, tsb, ch, sb, tc, tsb, ch));
+                }
+            } else if (ch == mc) {
+                named = true;
+                nsb.setLength(0);
+            } else {
+                if (typed) {
+                    ts = ts.conj(tsb.toString());
+                    typed = false;
+                }
+                if (ch == ec) {
+                    e = true;
+                } else if (ch == tc) {
+                    t = true;
+                    typed = true;
+                    tsb.setLength(0);
+                } else {
+                    sb.append(ch);
+                    switch (ch) {
+                    case '"':  d = true; break;
+                    case '\'': s = true; break;
+                    case '-':  c = sb.length() > 1 && sb.charAt(sb.length() - 2) == '-'; break;
+                    default: break;
+                    }
+                }
+            }
+        }
+        // verify that final state is sane and clean up any unfinished stuff
+        if (d) {
+            throw new IllegalArgumentException("SQL cannot end with incomplete double-quote token: " + sql);
+        }
+        if (e) {
+            throw new IllegalArgumentException(String.format(
+                    "SQL cannot end with a dangling escape character '%s': %s", ec, sql));
+        }
+        if (named) {
+            st = addNamed(st, sb, nsb, typed? tsb: null);
+            typed = false;
+        }
+        if (s) {
+            throw new IllegalArgumentException("SQL cannot end with incomplete single-quote token: " + sql);
+        }
+        if (t || typed) {
+            throw new IllegalArgumentException("SQL cannot end with a type hint");
+        }
+        if (sb.length() > 0) {
+            st = st.conj(sb.toString());
+        }
+        return RT.vector(st.persistent(), ts.persistent());
+    }
+
+    private static ITransientCollection addNamed(ITransientCollection st, StringBuilder sb, StringBuilder nsb,
+            StringBuilder tsb) {
+        st = st.conj(sb.toString());
+        sb.setLength(0);
+        return st.conj(RT.vector(nsb.toString(), tsb == null? null: tsb.toString()));
+    }
+
+    public static boolean isValidNameChar(CharSequence partialName, char ch) {
+        return partialName.length() == 0? Character.isJavaIdentifierStart(ch):
+            (Character.isJavaIdentifierPart(ch) || ch == '-');  // hyphens for keywords
+    }
+
+    public static boolean isValidTypeChar(CharSequence partialType, char ch) {
+        return partialType.length() == 0? Character.isJavaIdentifierStart(ch):
+            (Character.isJavaIdentifierPart(ch) || ch == '-');
+    }
+
+    private static String charLiteral(char ch) {
+        return "\\" + ch;
+    }
+
+}
@@ -0,0 +1,280 @@
+package asphalt.pool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lightweight, bounded JDBC connection pool. Borrowing first tries the connection last used by the current thread
+ * (thread-affine reuse), then the shared lock-free idle queue (most recently used first), and finally creates a new
+ * connection if the pool is not full. Idle connections beyond the idle timeout are evicted, amortized over returns, so
+ * the pool runs no background thread. Connections are handed out (and must be returned) as they are, without proxies;
+ * their state (e.g. auto-commit) is not reset upon return.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final Callable<Connection> factory;
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+    private final long borrowTimeoutNanos;
+
+    private final Semaphore permits;
+    private final AtomicInteger total = new AtomicInteger();
+    private final ConcurrentLinkedDeque<PoolEntry> idle = new ConcurrentLinkedDeque<PoolEntry>();
+    private final ConcurrentHashMap<Connection, PoolEntry> entries = new ConcurrentHashMap<Connection, PoolEntry>();
+    private final ThreadLocal<PoolEntry> affinity = new ThreadLocal<PoolEntry>();
+    private final AtomicLong lastEvictionNanos = new AtomicLong(System.nanoTime());
+    private volatile boolean closed = false;
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder affineBorrows = new LongAdder();
+    private final LongAdder creations = new LongAdder();
+    private final LongAdder discards = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * Create a connection pool.
+     * @param factory             creates new connections
+     * @param maxSize             max number of connections
+     * @param idleTimeoutMillis   idle duration after which a connection is evicted
+     * @param borrowTimeoutMillis max duration to wait for a connection when the pool is exhausted
+     */
+    public ConnectionPool(Callable<Connection> factory, int maxSize, long idleTimeoutMillis,
+            long borrowTimeoutMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Expected max size to be a positive integer, but found " + maxSize);
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        this.permits = new Semaphore(maxSize);
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        final long deadline = System.nanoTime() + borrowTimeoutNanos;
+        try {
+            if (!permits.tryAcquire(borrowTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw borrowTimeout();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        try {
+            final PoolEntry entry = reserve(deadline);
+            affinity.set(entry);
+            borrows.increment();
+            return entry.connection;
+        } catch (SQLException|RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private SQLTransientConnectionException borrowTimeout() {
+        timeouts.increment();
+        return new SQLTransientConnectionException(String.format(
+                "Timed out after %d ms waiting for a connection, pool max size %d",
+                TimeUnit.NANOSECONDS.toMillis(borrowTimeoutNanos), maxSize));
+    }
+
+    private PoolEntry reserve(long deadline) throws SQLException {
+        final PoolEntry affine = affinity.get();
+        if (affine != null && affine.reserve()) {
+            if (isUsable(affine)) {
+                affineBorrows.increment();
+                return affine;
+            }
+            discard(affine);
+        }
+        while (true) {
+            PoolEntry entry;
+            while ((entry = idle.pollFirst()) != null) {
+                entry.unmarkQueued();
+                if (entry.reserve()) {
+                    if (isUsable(entry)) {
+                        return entry;
+                    }
+                    discard(entry);
+                }
+            }
+            final int n = total.get();
+            if (n < maxSize) {
+                if (total.compareAndSet(n, n + 1)) {
+                    return create();
+                }
+            } else if (System.nanoTime() - deadline > 0L) {
+                throw borrowTimeout();  // should not happen, unless permits and connections are out of sync
+            } else {
+                Thread.yield();  // permit acquired, so an idle connection is on its way back to the queue
+            }
+        }
+    }
+
+    private PoolEntry create() throws SQLException {
+        final Connection conn;
+        try {
+            conn = factory.call();
+        } catch (SQLException|RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        } catch (Exception e) {
+            total.decrementAndGet();
+            throw new SQLException("Unable to create connection", e);
+        }
+        final PoolEntry entry = new PoolEntry(conn);
+        entries.put(conn, entry);
+        creations.increment();
+        return entry;
+    }
+
+    private boolean isUsable(PoolEntry entry) {
+        if (System.nanoTime() - entry.lastUsedNanos > idleTimeoutNanos) {
+            return false;
+        }
+        try {
+            return !entry.connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Discard (close) a reserved entry.
+     */
+    private void discard(PoolEntry entry) {
+        entry.remove(PoolEntry.IN_USE);
+        discardRemoved(entry);
+    }
+
+    private void discardRemoved(PoolEntry entry) {
+        entries.remove(entry.connection);
+        total.decrementAndGet();
+        discards.increment();
+        try {
+            entry.connection.close();
+        } catch (SQLException|RuntimeException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Return a borrowed connection to the pool. Returning a connection more than once is an error, reported before the
+     * pool state is affected.
+     * @throws IllegalArgumentException when the connection is not borrowed from this pool, or is already returned
+     */
+    public void release(Connection conn) {
+        final PoolEntry entry = entries.get(conn);
+        if (entry == null) {
+            throw new IllegalArgumentException("Expected a connection borrowed from this pool, but found " + conn);
+        }
+        boolean usable;
+        try {
+            usable = !closed && !conn.isClosed();
+        } catch (SQLException e) {
+            usable = false;
+        }
+        if (!(usable? entry.unreserve(): entry.remove(PoolEntry.IN_USE))) {
+            throw new IllegalArgumentException("Expected a connection not returned yet, but found " + conn);
+        }
+        try {
+            if (usable) {
+                if (entry.markQueued()) {
+                    idle.offerFirst(entry);
+                }
+            } else {
+                discardRemoved(entry);
+            }
+        } finally {
+            permits.release();
+        }
+        final long last = lastEvictionNanos.get();
+        final long now = System.nanoTime();
+        if (now - last > (idleTimeoutNanos >>> 2) && lastEvictionNanos.compareAndSet(last, now)) {
+            evictIdle();
+        }
+    }
+
+    /**
+     * Evict (close) the idle connections that exceeded the idle timeout.
+     * @return number of connections evicted
+     */
+    public int evictIdle() {
+        int count = 0;
+        final long now = System.nanoTime();
+        final Iterator<PoolEntry> iter = idle.descendingIterator();  // least recently used first
+        while (iter.hasNext()) {
+            final PoolEntry entry = iter.next();
+            if (now - entry.lastUsedNanos > idleTimeoutNanos && entry.reserve()) {
+                iter.remove();
+                discard(entry);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PoolEntry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            if (entry.reserve()) {
+                discard(entry);
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getTotal() {
+        return total.get();
+    }
+
+    public int getInUse() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public long getBorrowCount() {
+        return borrows.sum();
+    }
+
+    /**
+     * Return the number of borrows that reused the connection last used by the borrowing thread.
+     */
+    public long getAffineBorrowCount() {
+        return affineBorrows.sum();
+    }
+
+    public long getCreateCount() {
+        return creations.sum();
+    }
+
+    public long getDiscardCount() {
+        return discards.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+}
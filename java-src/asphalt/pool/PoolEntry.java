@@ -0,0 +1,54 @@
+package asphalt.pool;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Pooled connection with lock-free state transitions.
+ */
+class PoolEntry {
+
+    static final int IDLE = 0;
+    static final int IN_USE = 1;
+    static final int REMOVED = 2;
+
+    private static final AtomicIntegerFieldUpdater<PoolEntry> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(PoolEntry.class, "state");
+    private static final AtomicIntegerFieldUpdater<PoolEntry> QUEUED =
+            AtomicIntegerFieldUpdater.newUpdater(PoolEntry.class, "queued");
+
+    final Connection connection;
+    volatile long lastUsedNanos = System.nanoTime();
+    private volatile int state = IN_USE;
+    private volatile int queued = 0;  // whether present in the shared idle queue
+
+    PoolEntry(Connection connection) {
+        this.connection = connection;
+    }
+
+    boolean reserve() {
+        return STATE.compareAndSet(this, IDLE, IN_USE);
+    }
+
+    boolean unreserve() {
+        lastUsedNanos = System.nanoTime();
+        return STATE.compareAndSet(this, IN_USE, IDLE);
+    }
+
+    boolean remove(int expectedState) {
+        return STATE.compareAndSet(this, expectedState, REMOVED);
+    }
+
+    boolean isIdle() {
+        return state == IDLE;
+    }
+
+    boolean markQueued() {
+        return QUEUED.compareAndSet(this, 0, 1);
+    }
+
+    void unmarkQueued() {
+        queued = 0;
+    }
+
+}
@@ -0,0 +1,58 @@
+package asphalt.pool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free load balancer across a fixed number of replicas, tracking the in-flight leases per replica. Selects either
+ * in round-robin order, or the replica with the least in-flight leases (ties broken in round-robin order).
+ */
+public class ReplicaBalancer {
+
+    private final int count;
+    private final boolean leastInFlight;
+    private final AtomicLongArray inFlight;
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    public ReplicaBalancer(int count, boolean leastInFlight) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Expected replica count to be a positive integer, but found " + count);
+        }
+        this.count = count;
+        this.leastInFlight = leastInFlight;
+        this.inFlight = new AtomicLongArray(count);
+    }
+
+    /** Select a replica and return its index, incrementing its in-flight count. */
+    public int acquire() {
+        final int start = (cursor.getAndIncrement() & Integer.MAX_VALUE) % count;
+        int selected = start;
+        if (leastInFlight) {
+            long min = inFlight.get(start);
+            for (int i = 1; i < count && min > 0; i++) {
+                final int index = (start + i) % count;
+                final long n = inFlight.get(index);
+                if (n < min) {
+                    min = n;
+                    selected = index;
+                }
+            }
+        }
+        inFlight.incrementAndGet(selected);
+        return selected;
+    }
+
+    /** Release a lease on the replica at given index. */
+    public void release(int index) {
+        inFlight.decrementAndGet(index);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getInFlight(int index) {
+        return inFlight.get(index);
+    }
+
+}
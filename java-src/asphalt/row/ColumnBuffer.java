@@ -0,0 +1,192 @@
+package asphalt.row;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import clojure.lang.IFn;
+
+/**
+ * Growable buffer of column values read from a {@link ResultSet}, one buffer per column. Primitive buffers read values
+ * without boxing and track SQL NULL values in a bitmap (NULL is stored as zero/false in the array); object buffers
+ * store NULL as null.
+ */
+public abstract class ColumnBuffer {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    protected final int columnIndex;
+    protected int size = 0;
+    private BitSet nulls = null;
+
+    protected ColumnBuffer(int columnIndex) {
+        this.columnIndex = columnIndex;
+    }
+
+    /** Read the column value from the current row of given result set, appending it to the buffer. */
+    public abstract void read(ResultSet resultSet) throws SQLException;
+
+    /** Return column values as an array trimmed to size, i.e. long[], int[], double[], boolean[] or Object[]. */
+    public abstract Object toArray();
+
+    public int size() {
+        return size;
+    }
+
+    /** Return bitmap of the NULL value positions, or null if there are no NULL values (always null for objects). */
+    public BitSet getNulls() {
+        return nulls;
+    }
+
+    protected final void markNull() {
+        if (nulls == null) {
+            nulls = new BitSet();
+        }
+        nulls.set(size);
+    }
+
+    protected static int grow(int capacity) {
+        return capacity < INITIAL_CAPACITY? INITIAL_CAPACITY: capacity + (capacity >> 1);
+    }
+
+    /**
+     * Read rows (at most maxRows) from given result set into the column buffers, returning the number of rows read.
+     */
+    public static long fetch(ResultSet resultSet, ColumnBuffer[] buffers, long maxRows) throws SQLException {
+        long count = 0;
+        while (count < maxRows && resultSet.next()) {
+            for (ColumnBuffer each: buffers) {
+                each.read(resultSet);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    public static class LongBuffer extends ColumnBuffer {
+        private long[] values = new long[0];
+
+        public LongBuffer(int columnIndex) {
+            super(columnIndex);
+        }
+
+        @Override
+        public void read(ResultSet resultSet) throws SQLException {
+            final long value = resultSet.getLong(columnIndex);
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            if (value == 0L && resultSet.wasNull()) {
+                markNull();
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        public Object toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    public static class IntBuffer extends ColumnBuffer {
+        private int[] values = new int[0];
+
+        public IntBuffer(int columnIndex) {
+            super(columnIndex);
+        }
+
+        @Override
+        public void read(ResultSet resultSet) throws SQLException {
+            final int value = resultSet.getInt(columnIndex);
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            if (value == 0 && resultSet.wasNull()) {
+                markNull();
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        public Object toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    public static class DoubleBuffer extends ColumnBuffer {
+        private double[] values = new double[0];
+
+        public DoubleBuffer(int columnIndex) {
+            super(columnIndex);
+        }
+
+        @Override
+        public void read(ResultSet resultSet) throws SQLException {
+            final double value = resultSet.getDouble(columnIndex);
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            if (value == 0.0 && resultSet.wasNull()) {
+                markNull();
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        public Object toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    public static class BooleanBuffer extends ColumnBuffer {
+        private boolean[] values = new boolean[0];
+
+        public BooleanBuffer(int columnIndex) {
+            super(columnIndex);
+        }
+
+        @Override
+        public void read(ResultSet resultSet) throws SQLException {
+            final boolean value = resultSet.getBoolean(columnIndex);
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            if (!value && resultSet.wasNull()) {
+                markNull();
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        public Object toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /** Buffer of object values, read using a Clojure fn that accepts the result set as argument. */
+    public static class ObjectBuffer extends ColumnBuffer {
+        private final IFn reader;
+        private Object[] values = new Object[0];
+
+        public ObjectBuffer(int columnIndex, IFn reader) {
+            super(columnIndex);
+            this.reader = reader;
+        }
+
+        @Override
+        public void read(ResultSet resultSet) throws SQLException {
+            final Object value = reader.invoke(resultSet);
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        public Object toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package asphalt.row;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of column keys shared by all rows (see {@link RowMap}) of a result set.
+ */
+public class ColumnKeys {
+
+    /** Column count up to which keys are looked up by a linear scan instead of a hash map. */
+    private static final int SCAN_THRESHOLD = 8;
+
+    private final Object[] keys;
+    private final Map<Object, Integer> index;
+
+    public ColumnKeys(Object[] keys) {
+        this.keys = keys.clone();
+        if (keys.length > SCAN_THRESHOLD) {
+            final Map<Object, Integer> m = new HashMap<Object, Integer>(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (m.put(keys[i], i) != null) {
+                    throw new IllegalArgumentException("Column keys must be unique, found duplicate: " + keys[i]);
+                }
+            }
+            this.index = m;
+        } else {
+            for (int i = 0; i < keys.length; i++) {
+                for (int j = i + 1; j < keys.length; j++) {
+                    if (equal(keys[i], keys[j])) {
+                        throw new IllegalArgumentException("Column keys must be unique, found duplicate: " + keys[i]);
+                    }
+                }
+            }
+            this.index = null;
+        }
+    }
+
+    private static boolean equal(Object x, Object y) {
+        return x == y || (x != null && x.equals(y));
+    }
+
+    public int count() {
+        return keys.length;
+    }
+
+    public Object keyAt(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Return the column index of the specified key, or -1 if the key is not found.
+     */
+    public int indexOf(Object key) {
+        if (index != null) {
+            final Integer i = index.get(key);
+            return i == null? -1: i;
+        }
+        for (int i = 0; i < keys.length; i++) {  // keywords are interned, so look for identical key first
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        if (key != null) {
+            for (int i = 0; i < keys.length; i++) {
+                if (key.equals(keys[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,82 @@
+package asphalt.row;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of {@link ColumnKeys} keyed by column label signature (e.g. the key-maker and the column labels).
+ * Entries are spread over lock-striped LRU segments, so that signatures no longer in use (e.g. of short-lived
+ * key-makers) are evicted rather than filling up the cache for good.
+ */
+public class ColumnKeysCache {
+
+    private static final class Segment extends LinkedHashMap<Object, ColumnKeys> {
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);  // access-order, i.e. LRU
+            this.maxEntries = maxEntries;
+        }
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, ColumnKeys> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    private final Segment[] segments;
+    private final int mask;
+
+    /**
+     * Create a column keys cache.
+     * @param maxEntries max number of cached column keys
+     */
+    public ColumnKeysCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Expected max entries to be a positive integer, but found "
+                    + maxEntries);
+        }
+        int stripes = 1;
+        while (stripes < 16 && stripes * 2 <= maxEntries) {
+            stripes *= 2;
+        }
+        this.segments = new Segment[stripes];
+        this.mask = stripes - 1;
+        final int perSegment = (maxEntries + stripes - 1) / stripes;
+        for (int i = 0; i < stripes; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    private Segment segmentFor(Object key) {
+        final int h = key == null? 0: key.hashCode();
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    /** Return the cached column keys for given signature, or <tt>null</tt>. */
+    public ColumnKeys get(Object key) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /** Cache the column keys for given signature, evicting the least recently used entry of its segment if full. */
+    public void put(Object key, ColumnKeys columnKeys) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, columnKeys);
+        }
+    }
+
+    /** Return the number of cached column keys. */
+    public int size() {
+        int size = 0;
+        for (Segment segment: segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,302 @@
+package asphalt.row;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Base64;
+
+import clojure.lang.IFn;
+import clojure.lang.RT;
+
+/**
+ * Writes rows read from a {@link ResultSet} as text (CSV, JSON lines or EDN) to a {@link Writer}, one row at a time.
+ * Rows are formatted into a per-thread (pooled) buffer that is drained to the writer whenever it fills up, so that the
+ * memory used does not depend on the number of rows.
+ */
+public abstract class RowExporter {
+
+    private static final int MAX_POOLED_CAPACITY = 1 << 20;
+
+    private static final ThreadLocal<StringBuilder> POOLED_TEXT = new ThreadLocal<StringBuilder>();
+    private static final ThreadLocal<char[]> POOLED_CHARS = new ThreadLocal<char[]>();
+
+    protected final String[] labels;
+
+    protected RowExporter(String[] labels) {
+        this.labels = labels.clone();
+    }
+
+    /** Append the header (if any) to given buffer. */
+    protected abstract void appendHeader(StringBuilder sb);
+
+    /** Append a row of column values, followed by a line separator, to given buffer. */
+    protected abstract void appendRow(StringBuilder sb, Object[] values);
+
+    // ----- CSV -----
+
+    public static class Csv extends RowExporter {
+        private final char separator;
+        private final boolean header;
+
+        public Csv(String[] labels, char separator, boolean header) {
+            super(labels);
+            this.separator = separator;
+            this.header = header;
+        }
+
+        private void appendText(StringBuilder sb, String text) {
+            boolean quote = false;
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                if (c == separator || c == '"' || c == '\n' || c == '\r') {
+                    quote = true;
+                    break;
+                }
+            }
+            if (!quote) {
+                sb.append(text);
+                return;
+            }
+            sb.append('"');
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                if (c == '"') {
+                    sb.append('"');
+                }
+                sb.append(c);
+            }
+            sb.append('"');
+        }
+
+        @Override
+        protected void appendHeader(StringBuilder sb) {
+            if (header) {
+                for (int i = 0; i < labels.length; i++) {
+                    if (i > 0) {
+                        sb.append(separator);
+                    }
+                    appendText(sb, labels[i]);
+                }
+                sb.append('\n');
+            }
+        }
+
+        @Override
+        protected void appendRow(StringBuilder sb, Object[] values) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    sb.append(separator);
+                }
+                final Object value = values[i];
+                if (value == null) {
+                    continue;  // SQL NULL as empty field
+                } else if (value instanceof Long || value instanceof Integer) {
+                    sb.append(((Number) value).longValue());
+                } else if (value instanceof byte[]) {
+                    sb.append(Base64.getEncoder().encodeToString((byte[]) value));
+                } else {
+                    appendText(sb, value.toString());
+                }
+            }
+            sb.append('\n');
+        }
+    }
+
+    // ----- JSON lines -----
+
+    public static class JsonLines extends RowExporter {
+        private final String[] quotedLabels;
+
+        public JsonLines(String[] labels) {
+            super(labels);
+            this.quotedLabels = new String[labels.length];
+            for (int i = 0; i < labels.length; i++) {
+                final StringBuilder sb = new StringBuilder();
+                appendString(sb, labels[i]);
+                quotedLabels[i] = sb.append(':').toString();
+            }
+        }
+
+        private static void appendString(StringBuilder sb, String text) {
+            sb.append('"');
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n");  break;
+                case '\r': sb.append("\\r");  break;
+                case '\t': sb.append("\\t");  break;
+                default:
+                    if (c < 0x20) {
+                        sb.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+            sb.append('"');
+        }
+
+        @Override
+        protected void appendHeader(StringBuilder sb) {
+            // no header, every row is a JSON object keyed by column labels
+        }
+
+        @Override
+        protected void appendRow(StringBuilder sb, Object[] values) {
+            sb.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(quotedLabels[i]);
+                final Object value = values[i];
+                if (value == null) {
+                    sb.append("null");
+                } else if (value instanceof Long || value instanceof Integer) {
+                    sb.append(((Number) value).longValue());
+                } else if (value instanceof Double || value instanceof Float) {
+                    final double d = ((Number) value).doubleValue();
+                    if (Double.isNaN(d) || Double.isInfinite(d)) {
+                        sb.append("null");
+                    } else {
+                        sb.append(d);
+                    }
+                } else if (value instanceof Number || value instanceof Boolean) {
+                    sb.append(value.toString());
+                } else if (value instanceof byte[]) {
+                    appendString(sb, Base64.getEncoder().encodeToString((byte[]) value));
+                } else {
+                    appendString(sb, value.toString());
+                }
+            }
+            sb.append("}\n");
+        }
+    }
+
+    // ----- EDN -----
+
+    public static class Edn extends RowExporter {
+        private final String[] keys;
+
+        /**
+         * @param labels column labels
+         * @param keys   printed map keys (e.g. keywords) for the columns
+         */
+        public Edn(String[] labels, String[] keys) {
+            super(labels);
+            this.keys = keys.clone();
+        }
+
+        @Override
+        protected void appendHeader(StringBuilder sb) {
+            // no header, every row is an EDN map
+        }
+
+        @Override
+        protected void appendRow(StringBuilder sb, Object[] values) {
+            sb.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(keys[i]).append(' ');
+                final Object value = values[i];
+                if (value == null) {
+                    sb.append("nil");
+                } else if (value instanceof Long || value instanceof Integer) {
+                    sb.append(((Number) value).longValue());
+                } else if (value instanceof Boolean) {
+                    sb.append(value.toString());
+                } else if (value instanceof byte[]) {
+                    sb.append('"').append(Base64.getEncoder().encodeToString((byte[]) value)).append('"');
+                } else {
+                    sb.append(RT.printString(value));
+                }
+            }
+            sb.append("}\n");
+        }
+    }
+
+    // ----- export -----
+
+    private static StringBuilder borrowText(int bufferSize) {
+        final StringBuilder sb = POOLED_TEXT.get();
+        if (sb == null) {
+            return new StringBuilder(bufferSize + 1024);
+        }
+        POOLED_TEXT.set(null);  // borrowed, in case of a nested export
+        sb.setLength(0);
+        return sb;
+    }
+
+    private static void returnText(StringBuilder sb) {
+        if (sb.capacity() <= MAX_POOLED_CAPACITY) {
+            POOLED_TEXT.set(sb);
+        }
+    }
+
+    private static char[] borrowChars(int size) {
+        final char[] chars = POOLED_CHARS.get();
+        if (chars == null || chars.length < size) {
+            return new char[size];
+        }
+        POOLED_CHARS.set(null);
+        return chars;
+    }
+
+    private static void returnChars(char[] chars) {
+        if (chars.length <= MAX_POOLED_CAPACITY) {
+            POOLED_CHARS.set(chars);
+        }
+    }
+
+    private static void drain(StringBuilder sb, char[] chars, Writer out) throws IOException {
+        final int total = sb.length();
+        for (int start = 0; start < total; start += chars.length) {
+            final int end = Math.min(total, start + chars.length);
+            sb.getChars(start, end, chars, 0);
+            out.write(chars, 0, end - start);
+        }
+        sb.setLength(0);
+    }
+
+    /**
+     * Write rows (at most maxRows) from given result set to the writer, reading column values using the column
+     * readers. Formatted text is written to the writer whenever it exceeds bufferSize chars, and the writer is flushed
+     * every flushRows rows (if positive) and at the end. Return the number of rows written.
+     */
+    public long export(ResultSet resultSet, IFn[] readers, Writer out, long maxRows, long flushRows, int bufferSize)
+            throws SQLException, IOException {
+        final StringBuilder sb = borrowText(bufferSize);
+        final char[] chars = borrowChars(bufferSize);
+        try {
+            final Object[] values = new Object[readers.length];
+            appendHeader(sb);
+            long count = 0;
+            while (count < maxRows && resultSet.next()) {
+                for (int i = 0; i < readers.length; i++) {
+                    values[i] = readers[i].invoke(resultSet);
+                }
+                appendRow(sb, values);
+                count++;
+                if (sb.length() >= bufferSize) {
+                    drain(sb, chars, out);
+                }
+                if (flushRows > 0 && count % flushRows == 0) {
+                    drain(sb, chars, out);
+                    out.flush();
+                }
+            }
+            drain(sb, chars, out);
+            out.flush();
+            return count;
+        } finally {
+            returnText(sb);
+            returnChars(chars);
+        }
+    }
+
+}
@@ -0,0 +1,218 @@
+package asphalt.row;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import clojure.lang.APersistentMap;
+import clojure.lang.ASeq;
+import clojure.lang.IFn;
+import clojure.lang.IKVReduce;
+import clojure.lang.IMapEntry;
+import clojure.lang.IObj;
+import clojure.lang.IPersistentCollection;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ISeq;
+import clojure.lang.ITransientMap;
+import clojure.lang.MapEntry;
+import clojure.lang.Obj;
+import clojure.lang.PersistentArrayMap;
+import clojure.lang.RT;
+
+/**
+ * Immutable map of a result row that stores column values in an array, looking up keys in the {@link ColumnKeys}
+ * shared by all rows of the result set. Adding new keys (or removing keys) returns a regular Clojure map.
+ */
+public class RowMap extends APersistentMap implements IObj, IKVReduce {
+
+    private final ColumnKeys columnKeys;
+    private final Object[] values;
+    private final IPersistentMap meta;
+
+    public RowMap(ColumnKeys columnKeys, Object[] values) {
+        this(columnKeys, values, null);
+    }
+
+    public RowMap(ColumnKeys columnKeys, Object[] values, IPersistentMap meta) {
+        if (columnKeys.count() != values.length) {
+            throw new IllegalArgumentException(String.format("Expected %d column values, but found %d",
+                    columnKeys.count(), values.length));
+        }
+        this.columnKeys = columnKeys;
+        this.values = values;
+        this.meta = meta;
+    }
+
+    public ColumnKeys getColumnKeys() {
+        return columnKeys;
+    }
+
+    // ----- IObj -----
+
+    @Override
+    public IPersistentMap meta() {
+        return meta;
+    }
+
+    @Override
+    public RowMap withMeta(IPersistentMap meta) {
+        return new RowMap(columnKeys, values, meta);
+    }
+
+    // ----- ILookup -----
+
+    @Override
+    public Object valAt(Object key) {
+        return valAt(key, null);
+    }
+
+    @Override
+    public Object valAt(Object key, Object notFound) {
+        final int i = columnKeys.indexOf(key);
+        return i < 0? notFound: values[i];
+    }
+
+    // ----- Associative -----
+
+    @Override
+    public boolean containsKey(Object key) {
+        return columnKeys.indexOf(key) >= 0;
+    }
+
+    @Override
+    public IMapEntry entryAt(Object key) {
+        final int i = columnKeys.indexOf(key);
+        return i < 0? null: new MapEntry(columnKeys.keyAt(i), values[i]);
+    }
+
+    // ----- IPersistentMap -----
+
+    /**
+     * Return a regular (hash/array) map having the same entries and metadata as this row.
+     */
+    public IPersistentMap toPersistentMap() {
+        ITransientMap m = PersistentArrayMap.EMPTY.asTransient();
+        for (int i = 0; i < values.length; i++) {
+            m = m.assoc(columnKeys.keyAt(i), values[i]);
+        }
+        final IPersistentMap result = m.persistent();
+        return meta == null? result: (IPersistentMap) ((IObj) result).withMeta(meta);
+    }
+
+    @Override
+    public IPersistentMap assoc(Object key, Object val) {
+        final int i = columnKeys.indexOf(key);
+        if (i < 0) {
+            return toPersistentMap().assoc(key, val);
+        }
+        if (values[i] == val) {
+            return this;
+        }
+        final Object[] newValues = values.clone();
+        newValues[i] = val;
+        return new RowMap(columnKeys, newValues, meta);
+    }
+
+    @Override
+    public IPersistentMap assocEx(Object key, Object val) {
+        if (containsKey(key)) {
+            throw new RuntimeException("Key already present");
+        }
+        return assoc(key, val);
+    }
+
+    @Override
+    public IPersistentMap without(Object key) {
+        return containsKey(key)? toPersistentMap().without(key): this;
+    }
+
+    // ----- IPersistentCollection / Counted -----
+
+    @Override
+    public int count() {
+        return values.length;
+    }
+
+    @Override
+    public IPersistentCollection empty() {
+        return (IPersistentCollection) PersistentArrayMap.EMPTY.withMeta(meta);
+    }
+
+    // ----- Seqable / Iterable -----
+
+    @Override
+    public ISeq seq() {
+        return values.length == 0? null: new Seq(this, 0, null);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < values.length;
+            }
+
+            @Override
+            public Object next() {
+                if (i >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                final MapEntry entry = new MapEntry(columnKeys.keyAt(i), values[i]);
+                i++;
+                return entry;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // ----- IKVReduce -----
+
+    @Override
+    public Object kvreduce(IFn f, Object init) {
+        for (int i = 0; i < values.length; i++) {
+            init = f.invoke(init, columnKeys.keyAt(i), values[i]);
+            if (RT.isReduced(init)) {
+                return ((clojure.lang.IDeref) init).deref();
+            }
+        }
+        return init;
+    }
+
+    static class Seq extends ASeq {
+        private final RowMap row;
+        private final int i;
+
+        Seq(RowMap row, int i, IPersistentMap meta) {
+            super(meta);
+            this.row = row;
+            this.i = i;
+        }
+
+        @Override
+        public Object first() {
+            return new MapEntry(row.columnKeys.keyAt(i), row.values[i]);
+        }
+
+        @Override
+        public ISeq next() {
+            return (i + 1) < row.values.length? new Seq(row, i + 1, null): null;
+        }
+
+        @Override
+        public int count() {
+            return row.values.length - i;
+        }
+
+        @Override
+        public Obj withMeta(IPersistentMap meta) {
+            return new Seq(row, i, meta);
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package asphalt.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import clojure.lang.IFn;
+
+/**
+ * Fetching 100 rows: `asphalt.core/fetch-maps` vs `asphalt.core/fetch-rows` (as vectors and as records) vs
+ * `asphalt.core/fetch-columns`, and exporting 100 rows as CSV with `asphalt.core/export-rows`
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FetchBenchmark {
+
+    private IFn fetchMaps;
+    private IFn fetchRows;
+    private IFn fetchRecords;
+    private IFn fetchColumns;
+    private IFn exportCsv;
+
+    @Setup
+    public void setup() {
+        fetchMaps = Fixture.fn("fetch-maps");
+        fetchRows = Fixture.fn("fetch-rows");
+        fetchRecords = Fixture.fn("fetch-records");
+        fetchColumns = Fixture.fn("fetch-columns");
+        exportCsv = Fixture.fn("export-csv");
+    }
+
+    @Benchmark
+    public Object fetchMaps() {
+        return fetchMaps.invoke();
+    }
+
+    @Benchmark
+    public Object fetchRows() {
+        return fetchRows.invoke();
+    }
+
+    @Benchmark
+    public Object fetchRecords() {
+        return fetchRecords.invoke();
+    }
+
+    @Benchmark
+    public Object fetchColumns() {
+        return fetchColumns.invoke();
+    }
+
+    @Benchmark
+    public Object exportCsv() {
+        return exportCsv.invoke();
+    }
+
+}
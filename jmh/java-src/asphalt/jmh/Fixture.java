@@ -0,0 +1,26 @@
+package asphalt.jmh;
+
+import clojure.java.api.Clojure;
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+
+/**
+ * Access to the benchmark subjects defined in the Clojure namespace asphalt.jmh.fixture
+ */
+public class Fixture {
+
+    public static final String NS = "asphalt.jmh.fixture";
+
+    static {
+        Clojure.var("clojure.core", "require").invoke(Clojure.read(NS));
+    }
+
+    public static IFn fn(String name) {
+        return (IFn) value(name);
+    }
+
+    public static Object value(String name) {
+        return ((IDeref) Clojure.var(NS, name)).deref();
+    }
+
+}
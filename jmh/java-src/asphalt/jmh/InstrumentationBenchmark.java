@@ -0,0 +1,66 @@
+package asphalt.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import clojure.lang.IFn;
+
+/**
+ * Overhead of `ConnectionWrapper`/`PreparedStatementWrapper` instrumentation for prepare, update and close: raw
+ * connection vs wrapped connection with NOP listeners vs wrapped connection with (no-op) Clojure fn listeners vs
+ * wrapped connection with (no-op) `FastJdbcEventListener` listeners
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InstrumentationBenchmark {
+
+    private IFn executeUpdate;
+    private Object rawConnection;
+    private Object nopInstrumentedConnection;
+    private Object instrumentedConnection;
+    private Object fastInstrumentedConnection;
+
+    @Setup
+    public void setup() {
+        executeUpdate = Fixture.fn("execute-update");
+        rawConnection = Fixture.value("raw-connection");
+        nopInstrumentedConnection = Fixture.value("nop-instrumented-connection");
+        instrumentedConnection = Fixture.value("instrumented-connection");
+        fastInstrumentedConnection = Fixture.value("fast-instrumented-connection");
+    }
+
+    @Benchmark
+    public Object raw() {
+        return executeUpdate.invoke(rawConnection);
+    }
+
+    @Benchmark
+    public Object nopListener() {
+        return executeUpdate.invoke(nopInstrumentedConnection);
+    }
+
+    @Benchmark
+    public Object fnListener() {
+        return executeUpdate.invoke(instrumentedConnection);
+    }
+
+    @Benchmark
+    public Object fastListener() {
+        return executeUpdate.invoke(fastInstrumentedConnection);
+    }
+
+}
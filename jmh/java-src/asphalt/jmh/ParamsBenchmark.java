@@ -0,0 +1,53 @@
+package asphalt.jmh;
+
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import clojure.lang.IFn;
+
+/**
+ * Setting params: runtime `asphalt.param/set-params` vs compiled `asphalt.param/make-params-layer`
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParamsBenchmark {
+
+    private PreparedStatement pstmt;
+    private Object params;
+    private IFn setParamsRuntime;
+    private IFn paramsLayer;
+
+    @Setup
+    public void setup() {
+        pstmt = (PreparedStatement) Fixture.fn("stub-prepared-statement").invoke();
+        params = Fixture.value("params");
+        setParamsRuntime = Fixture.fn("set-params-runtime");
+        paramsLayer = Fixture.fn("params-layer");
+    }
+
+    @Benchmark
+    public Object setParams() {
+        return setParamsRuntime.invoke(pstmt, params);
+    }
+
+    @Benchmark
+    public Object makeParamsLayer() {
+        return paramsLayer.invoke(pstmt, params);
+    }
+
+}
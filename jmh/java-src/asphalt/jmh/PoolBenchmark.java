@@ -0,0 +1,53 @@
+package asphalt.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import clojure.lang.IFn;
+
+/**
+ * Throughput of `with-connection` (obtain and return) by 4 threads: built-in connection pool (max size 8) vs creating
+ * a stub connection every time
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class PoolBenchmark {
+
+    private IFn withConnection;
+    private Object unpooledSource;
+    private Object pooledSource;
+
+    @Setup
+    public void setup() {
+        withConnection = Fixture.fn("with-connection");
+        unpooledSource = Fixture.value("unpooled-source");
+        pooledSource = Fixture.value("pooled-source");
+    }
+
+    @Benchmark
+    public Object unpooled() {
+        return withConnection.invoke(unpooledSource);
+    }
+
+    @Benchmark
+    public Object pooled() {
+        return withConnection.invoke(pooledSource);
+    }
+
+}
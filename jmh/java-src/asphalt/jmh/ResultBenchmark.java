@@ -0,0 +1,51 @@
+package asphalt.jmh;
+
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import clojure.lang.IFn;
+
+/**
+ * Reading a row: runtime `asphalt.result/read-columns` vs compiled `asphalt.result/make-columns-reader`
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultBenchmark {
+
+    private ResultSet resultSet;
+    private IFn readColumnsRuntime;
+    private IFn readColumnsCompiled;
+
+    @Setup
+    public void setup() {
+        resultSet = (ResultSet) Fixture.fn("stub-result-set").invoke(1L);
+        readColumnsRuntime = Fixture.fn("read-columns-runtime");
+        readColumnsCompiled = Fixture.fn("read-columns-compiled");
+    }
+
+    @Benchmark
+    public Object readColumns() {
+        return readColumnsRuntime.invoke(resultSet);
+    }
+
+    @Benchmark
+    public Object makeColumnsReader() {
+        return readColumnsCompiled.invoke(resultSet);
+    }
+
+}
@@ -0,0 +1,56 @@
+package asphalt.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import clojure.lang.IFn;
+
+/**
+ * SQL template parsing (`asphalt.internal.isql/parse-sql-str` vs the map-based reference parser) and SQL generation
+ * (`asphalt.internal.isql/make-sql`)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SqlBenchmark {
+
+    private IFn parseSqlStr;
+    private IFn parseSqlStrReference;
+    private IFn makeSql;
+
+    @Setup
+    public void setup() {
+        parseSqlStr = Fixture.fn("parse-sql-str");
+        parseSqlStrReference = Fixture.fn("parse-sql-str-reference");
+        makeSql = Fixture.fn("make-sql");
+    }
+
+    @Benchmark
+    public Object parseSqlStr() {
+        return parseSqlStr.invoke();
+    }
+
+    @Benchmark
+    public Object parseSqlStrReference() {
+        return parseSqlStrReference.invoke();
+    }
+
+    @Benchmark
+    public Object makeSql() {
+        return makeSql.invoke();
+    }
+
+}
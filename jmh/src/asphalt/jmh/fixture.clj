@@ -0,0 +1,247 @@
+;   Copyright (c) Shantanu Kumar. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file LICENSE at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+
+(ns asphalt.jmh.fixture
+  "Stub JDBC objects and benchmark subjects for the JMH benchmarks in asphalt.jmh package. The stubs are in-memory and
+  do no I/O, so that the measurements reflect only the library code paths."
+  (:require
+    [asphalt.core           :as a]
+    [asphalt.internal       :as i]
+    [asphalt.internal.isql  :as isql]
+    [asphalt.param          :as p]
+    [asphalt.result         :as r]
+    [asphalt.type           :as t])
+  (:import
+    [java.sql Connection Date PreparedStatement ResultSet ResultSetMetaData]
+    [asphalt.instrument FastJdbcEventListener JdbcEventListener]
+    [asphalt.instrument.wrapper ConnectionWrapper]))
+
+
+;; ----- stub JDBC objects -----
+
+
+(def ^:const column-count 4)
+
+
+(def column-labels ["NAME" "SALARY" "DEPT" "J_DATE"])
+
+
+(def ^Date joined (Date. 0))
+
+
+(def column-values ["Joe Coder" (int 100000) "Accounts" joined])
+
+
+(def ^ResultSetMetaData stub-metadata
+  (reify ResultSetMetaData
+    (getColumnCount     [_] column-count)
+    (getColumnLabel     [_ i] (get column-labels (dec i)))
+    (getColumnClassName [_ i] (.getName (class (get column-values (dec i)))))))
+
+
+(defn stub-result-set
+  "Return a stub java.sql.ResultSet having `row-count` identical rows."
+  ^ResultSet [^long row-count]
+  (let [cursor (long-array 1)]
+    (reify ResultSet
+      (next         [_] (let [n (unchecked-inc (aget cursor 0))]
+                          (aset cursor 0 n)
+                          (<= n row-count)))
+      (getMetaData  [_] stub-metadata)
+      (setFetchSize [_ n])
+      (^Object getObject [_ ^int i] (get column-values (dec i)))
+      (^String getString [_ ^int i] (str (get column-values (dec i))))
+      (^int    getInt    [_ ^int i] (int (get column-values (dec i))))
+      (^Date   getDate   [_ ^int i] joined)
+      (wasNull      [_] false)
+      (close        [_]))))
+
+
+(defn stub-prepared-statement
+  "Return a stub java.sql.PreparedStatement that ignores params, and returns a single-row result set upon query."
+  ^PreparedStatement []
+  (reify PreparedStatement
+    (^void setString [_ ^int i ^String v])
+    (^void setInt    [_ ^int i ^int v])
+    (^void setLong   [_ ^int i ^long v])
+    (^void setDate   [_ ^int i ^Date v])
+    (^void setObject [_ ^int i ^Object v])
+    (executeQuery    [_] (stub-result-set 1))
+    (executeUpdate   [_] 1)
+    (close           [_])))
+
+
+(defn stub-connection
+  "Return a stub java.sql.Connection that prepares stub statements."
+  ^Connection []
+  (reify Connection
+    (^PreparedStatement prepareStatement [_ ^String sql] (stub-prepared-statement))
+    (isClosed [_] false)
+    (close [_])))
+
+
+;; ----- params -----
+
+
+(def param-keys [:name :salary :dept :joined])
+
+
+(def param-types [:string :int :string :date])
+
+
+(def params {:name "Joe Coder" :salary 100000 :dept "Accounts" :joined joined})
+
+
+(defn set-params-runtime
+  [^PreparedStatement pstmt params]
+  (p/set-params pstmt param-keys param-types params))
+
+
+(def params-layer (p/make-params-layer param-keys param-types))
+
+
+;; ----- result columns -----
+
+
+(def result-types [:string :int :string :date])
+
+
+(defn read-columns-runtime
+  [^ResultSet result-set]
+  (r/read-columns result-types result-set column-count))
+
+
+(def columns-reader (r/make-columns-reader result-types))
+
+
+(defn read-columns-compiled
+  [^ResultSet result-set]
+  (columns-reader result-set column-count))
+
+
+;; ----- SQL parsing and generation -----
+
+
+(def sql "SELECT ^string name, ^int salary, ^string dept, ^date j_date FROM emp
+WHERE dept = ^string $dept AND level IN (^ints $levels)")
+
+
+(defn parse-sql-str
+  []
+  (isql/parse-sql-str sql \\ \$ \^))
+
+
+(defn parse-sql-str-reference
+  []
+  (isql/parse-sql-str-reference sql \\ \$ \^))
+
+
+(a/defsql dynamic-template sql)
+
+
+(def sql-params {:dept "Accounts" :levels [1 2 3]})
+
+
+(defn make-sql
+  []
+  (t/get-sql dynamic-template sql-params))
+
+
+;; ----- fetching rows -----
+
+
+(def ^:const fetch-row-count 100)
+
+
+(defn fetch-maps
+  []
+  (a/fetch-maps dynamic-template (stub-result-set fetch-row-count)))
+
+
+(defn fetch-rows
+  []
+  (a/fetch-rows dynamic-template (stub-result-set fetch-row-count)))
+
+
+(a/defrowrecord EmpRow [^string name ^int salary ^string dept ^date j-date])
+
+
+(a/defsql record-template sql {:make-row-maker make-EmpRow-row-maker})
+
+
+(defn fetch-records
+  []
+  (a/fetch-rows record-template (stub-result-set fetch-row-count)))
+
+
+(defn fetch-columns
+  []
+  (a/fetch-columns {:column-types result-types} dynamic-template (stub-result-set fetch-row-count)))
+
+
+(def ^java.io.Writer null-writer (proxy [java.io.Writer] []
+                                   (write [& _])
+                                   (flush [])
+                                   (close [])))
+
+
+(defn export-csv
+  []
+  (a/export-rows {:out null-writer} dynamic-template (stub-result-set fetch-row-count)))
+
+
+;; ----- instrumentation overhead -----
+
+
+(def ^Connection raw-connection (stub-connection))
+
+
+(def ^Connection nop-instrumented-connection
+  (ConnectionWrapper. raw-connection i/jdbc-event-factory JdbcEventListener/NOP JdbcEventListener/NOP))
+
+
+(def ^Connection instrumented-connection
+  (let [listener (i/make-jdbc-event-listener {})]
+    (ConnectionWrapper. raw-connection i/jdbc-event-factory listener listener)))
+
+
+(def ^Connection fast-instrumented-connection
+  (let [listener (reify FastJdbcEventListener
+                   (before    [this event]                0)
+                   (onSuccess [this id nanos event]       nil)
+                   (onError   [this id nanos event error] nil)
+                   (lastly    [this id nanos event]       nil))]
+    (ConnectionWrapper. raw-connection i/jdbc-event-factory listener listener)))
+
+
+(defn execute-update
+  [^Connection connection]
+  (with-open [pstmt (.prepareStatement connection "UPDATE emp SET salary = ? WHERE id = ?")]
+    (.setInt pstmt 1 100000)
+    (.setInt pstmt 2 1)
+    (.executeUpdate pstmt)))
+
+
+;; ----- connection pool -----
+
+
+(def unpooled-source (reify t/IConnectionSource
+                       (create-connection [this] (stub-connection))
+                       (obtain-connection [this] (stub-connection))
+                       (return-connection [this conn] (.close ^Connection conn))))
+
+
+(def pooled-source (a/pooled-connection-source unpooled-source {:max-size 8}))
+
+
+(defn with-connection
+  [connection-source]
+  (i/with-connection [conn connection-source]
+    (.isClosed conn)))
+
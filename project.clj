@@ -4,14 +4,13 @@
   :license {:name "Eclipse Public License"
             :url "http://www.eclipse.org/legal/epl-v10.html"}
   :java-source-paths ["java-src"]
-  :javac-options ["-target" "1.7" "-source" "1.7" "-Xlint:-options"]
+  :javac-options ["-target" "1.8" "-source" "1.8" "-Xlint:-options"]
   :profiles {:dev {:dependencies [[org.clojure/tools.nrepl "0.2.12"]
                                   [simple-jndi "0.11.4.1"]
                                   [com.h2database/h2 "1.3.176"]]}
-             :provided {:dependencies [[org.clojure/clojure "1.6.0"]
+             :provided {:dependencies [[org.clojure/clojure "1.7.0"]
                                        [clj-dbcp "0.8.2"]]
                         :test-paths ["test-connpool/dbcp"]}
-             :c16 {:dependencies [[org.clojure/clojure "1.6.0"]]}
              :c17 {:dependencies [[org.clojure/clojure "1.7.0"]]
                    :global-vars {*unchecked-math* :warn-on-boxed}}
              :c18 {:dependencies [[org.clojure/clojure "1.8.0"]]
@@ -22,10 +21,17 @@
              :perf {:dependencies [[citius "0.2.4"]
                                    [org.clojure/java.jdbc "0.7.1"]]
                     :test-paths ["perf"]}
+             :jmh  {:dependencies [[org.openjdk.jmh/jmh-core "1.21"]
+                                   [org.openjdk.jmh/jmh-generator-annprocess "1.21"]]
+                    :source-paths ["jmh/src"]
+                    :java-source-paths ["jmh/java-src"]
+                    :main org.openjdk.jmh.Main}
              :dbcp  {:test-paths ["test-connpool/dbcp"]  :dependencies [[clj-dbcp "0.8.2"]]}
              :dbcp2 {:test-paths ["test-connpool/dbcp2"] :dependencies [[clj-dbcp "0.9.0"]]}
              :c3p0  {:test-paths ["test-connpool/c3p0"]  :dependencies [[com.mchange/c3p0 "0.9.5.2"]]}
-             :bone  {:test-paths ["test-connpool/bone"]  :dependencies [[com.jolbox/bonecp "0.8.0.RELEASE"]]}}
+             :bone  {:test-paths ["test-connpool/bone"]  :dependencies [[com.jolbox/bonecp "0.8.0.RELEASE"]]}
+             :asphalt-pool {:test-paths ["test-connpool/asphalt"]}}
+  :aliases {"jmh" ["with-profile" "+jmh" "run" "-prof" "gc"]}
   :jvm-opts ^:replace ["-server" "-Xms2048m" "-Xmx2048m" #_FIXME "-Duser.timezone=UTC"]
   :global-vars {*warn-on-reflection* true
                 *assert* true})
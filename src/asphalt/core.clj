@@ -10,17 +10,33 @@
 (ns asphalt.core
   (:refer-clojure :exclude [update])
   (:require
-    [clojure.string        :as str]
-    [asphalt.param         :as p]
-    [asphalt.result        :as r]
-    [asphalt.type          :as t]
-    [asphalt.internal      :as i]
-    [asphalt.internal.isql :as isql])
+    [clojure.string           :as str]
+    [asphalt.param            :as p]
+    [asphalt.result           :as r]
+    [asphalt.type             :as t]
+    [asphalt.internal         :as i]
+    [asphalt.internal.iresult :as iresult]
+    [asphalt.internal.isql    :as isql])
   (:import
+    [java.io   OutputStream OutputStreamWriter Writer]
+    [java.nio.channels Channels WritableByteChannel]
+    [java.nio.charset  StandardCharsets]
     [java.util.regex Pattern]
-    [java.sql  Connection PreparedStatement ResultSet ResultSetMetaData]
+    [java.sql  Connection PreparedStatement ResultSet ResultSetMetaData Types]
     [javax.sql DataSource]
-    [asphalt.instrument JdbcEventListener]
+    [java.util.concurrent ArrayBlockingQueue CompletableFuture ConcurrentHashMap ConcurrentLinkedQueue
+                          ExecutionException Executor ExecutorService LinkedBlockingQueue TimeUnit]
+    [java.util.concurrent.atomic AtomicLong AtomicReference]
+    [java.util.function   BiConsumer]
+    [asphalt.async AsyncExecutors WriteBatcher]
+    [asphalt.cache ResultCache StatementCacheMetrics SqlShapeCache]
+    [asphalt.pool  ConnectionPool ReplicaBalancer]
+    [asphalt.type  TxnConnectionSource]
+    [asphalt.row   ColumnBuffer ColumnBuffer$BooleanBuffer ColumnBuffer$DoubleBuffer ColumnBuffer$IntBuffer
+                   ColumnBuffer$LongBuffer ColumnBuffer$ObjectBuffer RowExporter RowExporter$Csv RowExporter$Edn
+                   RowExporter$JsonLines RowMap]
+    [asphalt.instrument ConnectionLeaseTracker FastJdbcEventListener JdbcEventListener
+                        LatencyHistogram LatencyRegistry LatencySnapshot SlowQueryEntry SlowQueryLog]
     [asphalt.instrument.wrapper ConnectionWrapper DataSourceWrapper]))
 
 
@@ -29,7 +45,8 @@
 
 (defn instrument-connection-source
   "DEPRECATED: Alternate implementation to be provided in a future vesion.
-  Make instrumented connection source using connection-creation, statement-creation and SQL-execution listeners.
+  Make instrumented connection source using connection-creation, statement-creation, SQL-execution and SQL-fetch
+  listeners.
 
   Option :conn-creation corresponds to a map containing the following fns, triggered when JDBC connections are created:
   ;; event = :jdbc-connection-creation-event
@@ -48,39 +65,62 @@
   {:before     (fn [^asphalt.type.SQLExecutionEvent event])
    :on-success (fn [^String id ^long nanos ^asphalt.type.SQLExecutionEvent event])
    :on-error   (fn [^String id ^long nanos ^asphalt.type.SQLExecutionEvent event ^Exception error])
-   :lastly     (fn [^String id ^long nanos ^asphalt.type.SQLExecutionEvent event])}"
+   :lastly     (fn [^String id ^long nanos ^asphalt.type.SQLExecutionEvent event])}
+
+  Option :sql-fetch (opt-in) corresponds to a map containing the following fns, triggered when a result set returned by
+  `executeQuery` is closed (the event is not triggered if the result set is never closed):
+  {:before     (fn [^asphalt.type.SQLFetchEvent event])
+   :on-success (fn [^String id ^long nanos ^asphalt.type.SQLFetchEvent event])
+   :on-error   (fn [^String id ^long nanos ^asphalt.type.SQLFetchEvent event ^Exception error])
+   :lastly     (fn [^String id ^long nanos ^asphalt.type.SQLFetchEvent event])}
+  The event carries :first-row-nanos, :row-count and approximate :round-trips, where `nanos` is the total time spent
+  fetching rows. Result sets are not wrapped unless this option is specified.
+
+  Every option may also be an asphalt.instrument.JdbcEventListener or an asphalt.instrument.FastJdbcEventListener
+  instance. The latter uses primitive (long) correlation IDs, avoiding allocation on the instrumented call path.
+  Events are not created for NOP listeners, and connections are not wrapped when all listeners are NOP."
   {:added "0.4.0"
    :deprecated "0.6.4"}
-  [connection-source {:keys [conn-creation stmt-creation sql-execution]
+  [connection-source {:keys [conn-creation stmt-creation sql-execution sql-fetch]
                       :or {conn-creation JdbcEventListener/NOP
                            stmt-creation JdbcEventListener/NOP
-                           sql-execution JdbcEventListener/NOP}}]
-  (let [as-jdbc-event-listener (fn [x] (if (instance? JdbcEventListener x) x
-                                         (i/make-jdbc-event-listener x)))
-        ^JdbcEventListener conn-creation-listener (as-jdbc-event-listener conn-creation)
-        ^JdbcEventListener stmt-creation-listener (as-jdbc-event-listener stmt-creation)
-        ^JdbcEventListener sql-execution-listener (as-jdbc-event-listener sql-execution)
-        nanos-now (fn (^long [] (System/nanoTime))
-                    (^long [^long start] (- (System/nanoTime) start)))
-        make-conn (fn [f] (let [event :jdbc-connection-creation-event
-                                ^String id (.before conn-creation-listener event)
-                                start (nanos-now)]
-                            (try
-                              (let [result (ConnectionWrapper.
-                                             (f connection-source)
-                                             i/jdbc-event-factory
-                                             stmt-creation-listener sql-execution-listener)]
-                                (.onSuccess conn-creation-listener id (nanos-now start) event)
-                                result)
-                              (catch Exception e
-                                (.onError conn-creation-listener id (nanos-now start) event e)
-                                (throw e))
-                              (finally
-                                (.lastly conn-creation-listener id (nanos-now start) event)))))]
-    (reify t/IConnectionSource
-      (create-connection            [this] (make-conn t/create-connection))
-      (obtain-connection            [this] (make-conn t/obtain-connection))
-      (return-connection [this connection] (t/return-connection connection-source connection)))))
+                           sql-execution JdbcEventListener/NOP
+                           sql-fetch     JdbcEventListener/NOP}}]
+  (let [^FastJdbcEventListener conn-creation-listener (i/as-fast-jdbc-event-listener conn-creation)
+        ^FastJdbcEventListener stmt-creation-listener (i/as-fast-jdbc-event-listener stmt-creation)
+        ^FastJdbcEventListener sql-execution-listener (i/as-fast-jdbc-event-listener sql-execution)
+        ^FastJdbcEventListener sql-fetch-listener     (i/as-fast-jdbc-event-listener sql-fetch)
+        conn-nop? (i/nop-listener? conn-creation-listener)
+        wrap-nop? (and (i/nop-listener? stmt-creation-listener) (i/nop-listener? sql-execution-listener)
+                    (i/nop-listener? sql-fetch-listener))
+        wrap-conn (if wrap-nop?
+                    identity
+                    (fn [connection] (ConnectionWrapper. ^Connection connection
+                                       i/jdbc-event-factory
+                                       stmt-creation-listener sql-execution-listener sql-fetch-listener)))
+        make-conn (if conn-nop?
+                    (fn [f] (wrap-conn (f connection-source)))
+                    (fn [f] (let [event :jdbc-connection-creation-event
+                                  id    (.before conn-creation-listener event)
+                                  start (System/nanoTime)]
+                              (try
+                                (let [result (wrap-conn (f connection-source))]
+                                  (.onSuccess conn-creation-listener id (- (System/nanoTime) start) event)
+                                  result)
+                                (catch Exception e
+                                  (.onError conn-creation-listener id (- (System/nanoTime) start) event e)
+                                  (throw e))
+                                (finally
+                                  (.lastly conn-creation-listener id (- (System/nanoTime) start) event))))))]
+    (if (and conn-nop? wrap-nop?)
+      connection-source  ; nothing to instrument
+      (reify t/IConnectionSource
+        (create-connection            [this] (make-conn t/create-connection))
+        (obtain-connection            [this] (make-conn t/obtain-connection))
+        (return-connection [this connection] (t/return-connection connection-source
+                                               (if (instance? ConnectionWrapper connection)
+                                                 (.getDelegate ^ConnectionWrapper connection)
+                                                 connection)))))))
 
 
 (defn instrument-datasource
@@ -104,13 +144,311 @@
   [^DataSource ds {:keys [stmt-creation sql-execution]
                    :or {stmt-creation JdbcEventListener/NOP
                         sql-execution      JdbcEventListener/NOP}}]
-  (let [stmt-creation-listener (if (instance? JdbcEventListener stmt-creation)
-                                 stmt-creation
-                                 (i/make-jdbc-event-listener stmt-creation))
-        sql-execution-listener (if (instance? JdbcEventListener sql-execution)
-                                 sql-execution
-                                 (i/make-jdbc-event-listener sql-execution))]
-    (DataSourceWrapper. ds i/jdbc-event-factory stmt-creation-listener sql-execution-listener)))
+  (let [^FastJdbcEventListener stmt-creation-listener (i/as-fast-jdbc-event-listener stmt-creation)
+        ^FastJdbcEventListener sql-execution-listener (i/as-fast-jdbc-event-listener sql-execution)]
+    (if (and (i/nop-listener? stmt-creation-listener) (i/nop-listener? sql-execution-listener))
+      ds  ; nothing to instrument
+      (DataSourceWrapper. ds i/jdbc-event-factory stmt-creation-listener sql-execution-listener))))
+
+
+(defn make-latency-recorder
+  "Make a recorder of per-SQL latency histograms, tracking statement preparation and SQL execution separately. Counters
+  are lock-free and striped across threads. Each histogram takes some tens of kilobytes, hence the number of distinct
+  SQL strings tracked is bounded: beyond :max-keys, latencies are recorded under the SQL key \"<other>\".
+  Options:
+  Key        Type/spec         Default                       Description
+  ----       ----------        -------                       ------------
+  :stripes   positive integer  min(8, available processors)  number of counter stripes per histogram
+  :max-keys  positive integer  1000                          max number of distinct SQL strings tracked
+  See:
+    latency-listeners
+    latency-snapshot"
+  ([]
+    (make-latency-recorder {}))
+  ([{:keys [stripes max-keys]
+     :or {stripes  (min 8 (.availableProcessors (Runtime/getRuntime)))
+          max-keys LatencyRegistry/DEFAULT_MAX_KEYS}}]
+    (i/expected #(and (integer? %) (pos? (long %))) "stripes to be a positive integer" stripes)
+    (i/expected #(and (integer? %) (pos? (long %))) "max-keys to be a positive integer" max-keys)
+    {:prepare (LatencyRegistry. (int stripes) (int max-keys))
+     :execute (LatencyRegistry. (int stripes) (int max-keys))}))
+
+
+(defn latency-listeners
+  "Given a latency recorder (see `make-latency-recorder`) return a map {:stmt-creation listener :sql-execution listener}
+  of JDBC event listeners, usable as options in `instrument-connection-source`."
+  [latency-recorder]
+  {:stmt-creation (i/make-latency-listener (:prepare latency-recorder))
+   :sql-execution (i/make-latency-listener (:execute latency-recorder))})
+
+
+(defn- latency-stats
+  "Return a map of latency stats from given histogram, or nil if the histogram is empty."
+  [^LatencyHistogram histogram reset?]
+  (let [^LatencySnapshot snapshot (.snapshot histogram (boolean reset?))]
+    (when-not (zero? (.getCount snapshot))
+      {:count  (.getCount snapshot)
+       :errors (.getErrors snapshot)
+       :mean   (.getMean snapshot)
+       :p50    (.getValueAtPercentile snapshot 50.0)
+       :p99    (.getValueAtPercentile snapshot 99.0)
+       :p999   (.getValueAtPercentile snapshot 99.9)
+       :max    (.getMax snapshot)})))
+
+
+(defn latency-snapshot
+  "Given a latency recorder (see `make-latency-recorder`) return a snapshot of the latencies recorded so far as a map
+  {:prepare {sql stats} :execute {sql stats}}, where stats is a map with keys :count, :errors, :mean, :p50, :p99,
+  :p999 and :max (in nanoseconds). Begins a new interval, i.e. resets the histograms, when `reset?` is true."
+  ([latency-recorder]
+    (latency-snapshot latency-recorder false))
+  ([latency-recorder reset?]
+    (let [stats (fn [^LatencyRegistry registry]
+                  (reduce (fn [m [^String sql histogram]]
+                            (if-let [stats (latency-stats histogram reset?)]
+                              (assoc m sql stats)
+                              m))
+                    {} (.getHistograms registry)))]
+      {:prepare (stats (:prepare latency-recorder))
+       :execute (stats (:execute latency-recorder))})))
+
+
+(defn make-slow-query-log
+  "Make a lock-free, in-memory log of the last N slow SQL executions. Executions that take at least the threshold
+  duration, or result in error, are always recorded; faster ones are sampled 1-in-N (if enabled).
+  Options:
+  Key               Type/spec             Default  Description
+  ----              ----------            -------  ------------
+  :capacity         positive integer      1024     max number of entries retained (rounded up to a power of two)
+  :threshold-millis non-negative number   100      executions taking at least this long are considered slow
+  :sample-rate      non-negative integer  0        record 1 in this many fast executions, 0 to record none
+  See:
+    slow-query-listener
+    slow-query-snapshot
+    drain-slow-queries"
+  (^SlowQueryLog []
+    (make-slow-query-log {}))
+  (^SlowQueryLog [{:keys [capacity threshold-millis sample-rate]
+                   :or {capacity         1024
+                        threshold-millis 100
+                        sample-rate      0}}]
+    (i/expected #(and (integer? %) (pos? (long %))) "capacity to be a positive integer" capacity)
+    (i/expected #(and (number? %) (not (neg? (double %)))) "threshold-millis to be a non-negative number"
+      threshold-millis)
+    (i/expected #(and (integer? %) (not (neg? (long %)))) "sample-rate to be a non-negative integer" sample-rate)
+    (SlowQueryLog. (int capacity) (long (* 1000000.0 (double threshold-millis))) (int sample-rate))))
+
+
+(defn slow-query-listener
+  "Given a slow-query log (see `make-slow-query-log`) return a JDBC event listener that records SQL executions into the
+  log, usable as option :sql-execution in `instrument-connection-source`."
+  ^FastJdbcEventListener [^SlowQueryLog slow-query-log]
+  (i/make-slow-query-listener slow-query-log))
+
+
+(defn- slow-query-entries
+  [entries]
+  (mapv (fn [^SlowQueryEntry entry]
+          {:sql           (.getSql entry)
+           :sql-stmt-type (.getKind entry)
+           :nanos         (.getNanos entry)
+           :thread        (.getThreadName entry)
+           :timestamp     (.getTimestamp entry)
+           :error         (.getError entry)
+           :slow?         (.isSlow entry)})
+    entries))
+
+
+(defn slow-query-snapshot
+  "Given a slow-query log (see `make-slow-query-log`) return a vector of the retained entries (oldest first) without
+  removing them. Every entry is a map with keys :sql, :sql-stmt-type, :nanos, :thread (name), :timestamp (epoch millis),
+  :error (exception or nil) and :slow? (false when sampled)."
+  [^SlowQueryLog slow-query-log]
+  (slow-query-entries (.snapshot slow-query-log)))
+
+
+(defn drain-slow-queries
+  "Given a slow-query log (see `make-slow-query-log`) return a vector of the entries (oldest first) recorded since the
+  last drain and still retained. See `slow-query-snapshot` for the entry format."
+  [^SlowQueryLog slow-query-log]
+  (slow-query-entries (.drain slow-query-log)))
+
+
+;; ----- connection pool -----
+
+
+(defn pooled-connection-source
+  "Make a pooled connection source (also java.io.Closeable) that reuses connections created from the given connection
+  source, e.g. a connection-spec map. Borrowing a connection first tries the connection last used by the current thread,
+  then the shared lock-free queue of idle connections, then creates a new connection unless the pool is full, in which
+  case it waits for a connection to be returned. Idle connections are evicted upon returns, without a background thread.
+  Options:
+  Key                    Type/spec         Default         Description
+  ----                   ----------        -------         ------------
+  :max-size              positive integer  10              max number of connections
+  :idle-timeout-millis   positive integer  600000 (10min)  idle duration after which a connection is evicted
+  :borrow-timeout-millis positive integer  30000 (30sec)   max duration to wait for a connection when pool is full
+  See:
+    connection-pool-metrics"
+  ([connection-source]
+    (pooled-connection-source connection-source {}))
+  ([connection-source {:keys [max-size idle-timeout-millis borrow-timeout-millis]
+                       :or {max-size              10
+                            idle-timeout-millis   600000
+                            borrow-timeout-millis 30000}}]
+    (i/expected #(and (integer? %) (pos? (long %))) "max-size to be a positive integer" max-size)
+    (i/expected #(and (integer? %) (pos? (long %))) "idle-timeout-millis to be a positive integer" idle-timeout-millis)
+    (i/expected #(and (integer? %) (pos? (long %))) "borrow-timeout-millis to be a positive integer"
+      borrow-timeout-millis)
+    (i/->PooledConnectionSource (ConnectionPool. #(t/create-connection connection-source)
+                                  (int max-size) (long idle-timeout-millis) (long borrow-timeout-millis)))))
+
+
+(defn connection-pool-metrics
+  "Given a connection source made with `pooled-connection-source` return its metrics as a map with keys :max-size,
+  :total (connections), :in-use, :borrows, :affine-borrows (reusing the thread's last connection), :creates, :discards
+  and :timeouts."
+  [pooled-connection-source]
+  (let [^ConnectionPool pool (:pool pooled-connection-source)]
+    {:max-size       (.getMaxSize pool)
+     :total          (.getTotal pool)
+     :in-use         (.getInUse pool)
+     :borrows        (.getBorrowCount pool)
+     :affine-borrows (.getAffineBorrowCount pool)
+     :creates        (.getCreateCount pool)
+     :discards       (.getDiscardCount pool)
+     :timeouts       (.getTimeoutCount pool)}))
+
+
+;; ----- connection lease tracking -----
+
+
+(defn read-write-connection-source
+  "Make a connection source that routes read-only queries (plain SELECT statements executed via `query`, and hence SQL
+  templates classified as queries) to the replica connection sources, and everything else to the primary connection
+  source. Replica connections are set read-only. Within a transaction all SQL uses the transaction's connection, i.e.
+  the primary, for read-your-writes. Wrap the primary and replica sources (e.g. with `instrument-connection-source`),
+  not the returned source, as wrappers do not route reads. Connections are returned to the replica they were obtained
+  from, keyed by the connection; a replica source may hand out the same connection more than once (leases are
+  counted), but replicas must not share connections with each other or with the primary.
+  Options:
+  Key       Type/spec                         Default           Description
+  ----      ----------                        --------          ------------
+  :balance  :least-in-flight or :round-robin  :least-in-flight  how to balance reads across replicas"
+  ([primary-source replica-sources]
+    (read-write-connection-source primary-source replica-sources {}))
+  ([primary-source replica-sources {:keys [balance]
+                                    :or {balance :least-in-flight}}]
+    (i/expected #(and (sequential? %) (seq %)) "one or more replica connection sources" replica-sources)
+    (i/expected #{:least-in-flight :round-robin} "option :balance to be :least-in-flight or :round-robin" balance)
+    (i/->ReadWriteConnectionSource primary-source (vec replica-sources)
+      (ReplicaBalancer. (count replica-sources) (= :least-in-flight balance))
+      (ConcurrentHashMap.))))
+
+
+(defn replica-in-flight
+  "Given a connection source made with `read-write-connection-source` return a vector of in-flight (i.e. obtained, but
+  not yet returned) connection counts per replica."
+  [read-write-connection-source]
+  (let [^ReplicaBalancer balancer (:balancer read-write-connection-source)]
+    (mapv #(.getInFlight balancer (int %)) (range (.getCount balancer)))))
+
+
+(defn lease-tracking-connection-source
+  "Make a connection source that tracks connection leases, i.e. from obtaining (or creating) a connection until it is
+  returned to the source, e.g. in `with-connection`. Tracks acquisition-wait and hold-time histograms, in-flight
+  connection count and, optionally, detects leaks: leases held beyond a threshold. With leak detection enabled, the
+  stack trace where a connection is acquired (typically the `with-connection` caller) is captured for every lease, and
+  reported for leaked leases either when returned or when found by `check-connection-leaks`.
+  Options:
+  Key                    Type/spec             Default                Description
+  ----                   ----------            -------                ------------
+  :leak-threshold-millis positive number/nil   nil                    hold time beyond which a lease is leaked, nil to
+                                                                      disable leak detection
+  :on-leak               (fn [leak-map])       prints leak to *err*   called with every leak detected upon return
+                                                                      (see `check-connection-leaks` for leak-map)
+  See:
+    connection-lease-metrics
+    check-connection-leaks"
+  ([connection-source]
+    (lease-tracking-connection-source connection-source {}))
+  ([connection-source {:keys [leak-threshold-millis on-leak]
+                       :or {on-leak i/print-connection-leak}}]
+    (when (some? leak-threshold-millis)
+      (i/expected #(and (number? %) (pos? (double %))) "leak-threshold-millis to be a positive number"
+        leak-threshold-millis))
+    (i/expected fn? "on-leak to be a function" on-leak)
+    (i/->LeaseTrackingConnectionSource connection-source
+      (ConnectionLeaseTracker. (if leak-threshold-millis (long (* 1000000.0 (double leak-threshold-millis))) 0))
+      on-leak)))
+
+
+(defn connection-lease-metrics
+  "Given a connection source made with `lease-tracking-connection-source` return its lease metrics as a map with keys
+  :acquire (acquisition-wait stats), :hold (hold-time stats), :in-flight and :peak-in-flight, where stats is a map with
+  keys :count, :errors, :mean, :p50, :p99, :p999 and :max (in nanoseconds), or nil when empty. Begins a new interval,
+  i.e. resets the histograms and the peak, when `reset?` is true."
+  ([lease-tracking-connection-source]
+    (connection-lease-metrics lease-tracking-connection-source false))
+  ([lease-tracking-connection-source reset?]
+    (let [^ConnectionLeaseTracker tracker (:tracker lease-tracking-connection-source)
+          result {:acquire        (latency-stats (.getAcquireHistogram tracker) reset?)
+                  :hold           (latency-stats (.getHoldHistogram tracker) reset?)
+                  :in-flight      (.getInFlight tracker)
+                  :peak-in-flight (.getPeakInFlight tracker)}]
+      (when reset?
+        (.resetPeakInFlight tracker))
+      result)))
+
+
+(defn check-connection-leaks
+  "Given a connection source made with `lease-tracking-connection-source` return a vector of leases currently held
+  beyond the leak-detection threshold that are not reported yet, with the stack traces where they were acquired.
+  Every leak is a map with keys :thread (name), :held-nanos, :stack-trace (vector of StackTraceElement) and :returned?
+  (false here). Meant to be called periodically, e.g. from a scheduled executor."
+  [lease-tracking-connection-source]
+  (let [^ConnectionLeaseTracker tracker (:tracker lease-tracking-connection-source)]
+    (mapv i/connection-leak->map (.checkLeaks tracker))))
+
+
+;; ----- prepared statement caching -----
+
+
+(defn caching-connection-source
+  "Make a connection source that caches prepared statements per JDBC connection, so that repeated execution of the same
+  SQL (e.g. a `defsql` template) on a connection reuses the prepared statement instead of preparing it again. Cached
+  statements are keyed by SQL string and statement creation options (e.g. generated-keys flag), and are evicted in
+  least-recently-used order. Connections that are closed upon return (e.g. pooled connection proxies) take their cache
+  with them, hence statements are reused across calls only when the underlying source hands out the same connection,
+  e.g. a java.sql.Connection, a transactional connection source or an asphalt connection pool.
+  Options:
+  Key          Type/spec         Default  Description
+  ----         ----------        -------- ------------
+  :cache-size  positive integer  64       max number of idle prepared statements to cache per connection
+  See:
+    statement-cache-metrics"
+  [connection-source {:keys [cache-size]
+                      :or {cache-size 64}}]
+  (i/expected #(and (integer? %) (pos? (long %))) "cache size to be a positive integer" cache-size)
+  (i/->StatementCachingConnectionSource connection-source (long cache-size)
+    (StatementCacheMetrics.) (ConcurrentHashMap.)))
+
+
+(defn statement-cache-metrics
+  "Given a connection source made with `caching-connection-source` return its prepared statement cache metrics as a
+  map with keys :hits, :misses, :evictions and :connections (number of connections with a live cache). Resets the
+  counters when called with `reset?` as true."
+  ([caching-connection-source]
+    (statement-cache-metrics caching-connection-source false))
+  ([caching-connection-source reset?]
+    (let [^StatementCacheMetrics metrics (:metrics caching-connection-source)
+          result {:hits        (.getHits metrics)
+                  :misses      (.getMisses metrics)
+                  :evictions   (.getEvictions metrics)
+                  :connections (.size ^ConcurrentHashMap (:connections caching-connection-source))}]
+      (when reset?
+        (.reset metrics))
+      result)))
 
 
 ;; ----- java.sql.ResultSet operations -----
@@ -118,7 +456,8 @@
 
 (defn fetch-maps
   "Given asphalt.type.ISqlSource and java.sql.ResultSet instances fetch a collection of rows as maps. It is required
-  for asphalt.type.ISqlSource/read-row to return a vector of all column values for the sql-source.
+  for asphalt.type.ISqlSource/read-row to return a vector of all column values for the sql-source. Rows are compact
+  immutable maps (asphalt.row.RowMap) that share the column keys, and turn into regular maps when new keys are added.
   Options:
   Key          Type/spec            Default                    Description
   ----         ----------           --------                   ------------
@@ -138,19 +477,11 @@
     (let [rows (transient [])
           ^ResultSetMetaData rsmd (.getMetaData result-set)
           column-count (.getColumnCount rsmd)
-          column-keys  (let [ks (object-array column-count)]
-                         (loop [i 0]
-                           (when (< i column-count)
-                             (let [j (unchecked-inc i)]
-                               (aset ks i (key-maker (.getColumnLabel rsmd j)))
-                               (recur j))))
-                         (vec ks))
+          column-keys  (iresult/column-keys key-maker rsmd)
           row-maker    t/read-row]
-      (when-not (distinct? column-keys)
-        (throw (ex-info "Column keys must be unique" {:column-count column-count
-                                                      :column-keys column-keys})))
       (while (.next result-set)
-        (conj! rows (zipmap column-keys (row-maker sql-source result-set column-count))))
+        (conj! rows (RowMap. column-keys (.toArray ^java.util.Collection (row-maker sql-source result-set
+                                                                            column-count)))))
       (persistent! rows))))
 
 
@@ -189,6 +520,210 @@
       (persistent! rows))))
 
 
+(def ^:private ^ConcurrentHashMap column-value-readers (ConcurrentHashMap.))
+
+
+(defn- column-value-reader
+  "Return a compiled (fn [result-set]) to read column value of given type at given index, caching it for reuse."
+  [column-type ^long column-index]
+  (let [k [column-type column-index]]
+    (or (.get column-value-readers k)
+      (let [reader (r/make-column-value-reader column-type column-index nil)]
+        (or (.putIfAbsent column-value-readers k reader)
+          reader)))))
+
+
+(defn- column-buffer
+  "Make a column buffer for given column type keyword, falling back to the JDBC column type when the keyword is nil."
+  ^ColumnBuffer [column-type ^ResultSetMetaData rsmd ^long column-index]
+  (when-not (contains? t/single-typemap column-type)
+    (i/expected-result-type column-type))
+  (let [column-type (get t/single-typemap column-type)
+        index       (int column-index)]
+    (case (if (= :object column-type)
+            (condp contains? (.getColumnType rsmd column-index)
+              #{Types/BIGINT}                                :long
+              #{Types/INTEGER Types/SMALLINT Types/TINYINT}  :int
+              #{Types/DOUBLE Types/FLOAT Types/REAL}         :double
+              #{Types/BOOLEAN Types/BIT}                     :boolean
+              :object)
+            column-type)
+      :long    (ColumnBuffer$LongBuffer. index)
+      :int     (ColumnBuffer$IntBuffer. index)
+      (:double
+        :float) (ColumnBuffer$DoubleBuffer. index)
+      :boolean (ColumnBuffer$BooleanBuffer. index)
+      :object  (ColumnBuffer$ObjectBuffer. index (fn [result-set]
+                                                   (r/read-column-value result-set column-index)))
+      (ColumnBuffer$ObjectBuffer. index (column-value-reader column-type column-index)))))
+
+
+(defn fetch-columns
+  "Given asphalt.type.ISqlSource and java.sql.ResultSet instances fetch the result column-wise, reading :long, :int,
+  :double/:float and :boolean columns into primitive arrays without boxing, and other columns into object arrays.
+  Column types are taken from option :column-types, else from the SQL template result types, else inferred from the
+  JDBC column types. Return a map with the following keys:
+  :row-count  number of rows read
+  :labels     vector of column labels
+  :columns    vector of column arrays (long[], int[], double[], boolean[] or Object[])
+  :nulls      vector of java.util.BitSet (positions of SQL NULL values) per primitive column, nil if no NULL values
+  Options:
+  Key            Type/spec                  Default      Description
+  ----           ----------                 --------     ------------
+  :fetch-size    positive integer           not applied  fetch-size to set on java.sql.ResultSet
+  :max-rows      positive integer           not applied  max result rows to read
+  :column-types  vector of type keywords    see above    result column types, e.g. [:long :double :string]"
+  ([sql-source ^ResultSet result-set]
+    (fetch-columns {} sql-source result-set))
+  ([{:keys [fetch-size
+            max-rows
+            column-types]
+     :as options}
+    sql-source ^ResultSet result-set]
+    ;; set fetch size on the JDBC driver
+    (when fetch-size
+      (.setFetchSize result-set (int fetch-size)))
+    (let [^ResultSetMetaData rsmd (.getMetaData result-set)
+          column-count (.getColumnCount rsmd)
+          column-types (or column-types
+                         (cond
+                           (instance? clojure.lang.IRecord sql-source) (:result-types sql-source)
+                           (instance? java.util.List sql-source)       (second sql-source)))
+          column-types (if (seq column-types)
+                         (do (i/expected #(= column-count (count %)) (str column-count " column types") column-types)
+                           (vec column-types))
+                         (vec (repeat column-count nil)))
+          buffers (->> (range column-count)
+                    (mapv #(column-buffer (get column-types %) rsmd (inc ^long %)))
+                    (into-array ColumnBuffer))
+          row-count (ColumnBuffer/fetch result-set buffers (if max-rows (long max-rows) Long/MAX_VALUE))]
+      {:row-count row-count
+       :labels    (mapv #(.getColumnLabel rsmd (inc ^long %)) (range column-count))
+       :columns   (mapv #(.toArray ^ColumnBuffer %) buffers)
+       :nulls     (mapv #(.getNulls ^ColumnBuffer %) buffers)})))
+
+
+(defn- export-writer
+  "Return a java.io.Writer (UTF-8 encoded for byte outputs) for given output."
+  ^Writer [out]
+  (cond
+    (instance? Writer out)              out
+    (instance? OutputStream out)        (OutputStreamWriter. ^OutputStream out StandardCharsets/UTF_8)
+    (instance? WritableByteChannel out) (Channels/newWriter ^WritableByteChannel out "UTF-8")
+    :otherwise                          (i/expected "java.io.Writer, java.io.OutputStream or WritableByteChannel" out)))
+
+
+(defn export-rows
+  "Given asphalt.type.ISqlSource and java.sql.ResultSet instances write the rows, as they are read, to the output in
+  the specified format, returning the number of rows written. Memory use does not depend on the number of rows, so
+  arbitrarily large results may be exported, e.g. as result-set-worker `(partial export-rows {:out writer})`. Column
+  values are read using typed column readers, with column types taken from option :column-types, else from the SQL
+  template result types. The output is flushed (but not closed) at the end.
+  Formats:
+  :csv    comma separated values, with a header row of column labels (SQL NULL as empty field)
+  :jsonl  JSON lines, one JSON object (keyed by column labels) per row
+  :edn    one EDN map (keyed by `:key-maker` applied to column labels) per line
+  Byte arrays are written as Base64 strings in every format. Other values are written as their `toString` text in CSV
+  and JSON lines, and printed as EDN in EDN.
+  Options:
+  Key            Type/spec                Default             Description
+  ----           ----------               --------            ------------
+  :out           see description          (required)          java.io.Writer, java.io.OutputStream or
+                                                              java.nio.channels.WritableByteChannel (UTF-8 encoded)
+  :format        :csv, :jsonl or :edn     :csv                output format
+  :labels        vector of strings        JDBC column labels  column labels to use as CSV header/JSON keys
+  :key-maker     (fn [^String label])     r/label->key        converts column label to EDN map key
+  :header?       boolean                  true                whether to write the CSV header row
+  :separator     char                     comma               CSV field separator
+  :column-types  vector of type keywords  see above           result column types, e.g. [:long :double :string]
+  :fetch-size    positive integer         not applied         fetch-size to set on java.sql.ResultSet
+  :max-rows      positive integer         not applied         max result rows to write
+  :flush-rows    positive integer         not applied         number of rows after which the output is flushed
+  :buffer-size   positive integer         8192                chars to buffer before writing to the output"
+  [{:keys [out
+           format
+           labels
+           key-maker
+           header?
+           separator
+           column-types
+           fetch-size
+           max-rows
+           flush-rows
+           buffer-size]
+    :or {format      :csv
+         key-maker   r/label->key
+         header?     true
+         separator   \,
+         buffer-size 8192}
+    :as options}
+   sql-source ^ResultSet result-set]
+  (i/expected #(and (integer? %) (pos? (long %))) "option :buffer-size to be a positive integer" buffer-size)
+  (when flush-rows
+    (i/expected #(and (integer? %) (pos? (long %))) "option :flush-rows to be a positive integer" flush-rows))
+  (let [writer (export-writer out)]
+    ;; set fetch size on the JDBC driver
+    (when fetch-size
+      (.setFetchSize result-set (int fetch-size)))
+    (let [^ResultSetMetaData rsmd (.getMetaData result-set)
+          column-count (.getColumnCount rsmd)
+          column-types (vec (or column-types
+                              (cond
+                                (instance? clojure.lang.IRecord sql-source) (:result-types sql-source)
+                                (instance? java.util.List sql-source)       (second sql-source))))
+          _            (when (seq column-types)
+                         (i/expected #(= column-count (count %)) (str column-count " column types") column-types))
+          labels       (if labels
+                         (do (i/expected #(= column-count (count %)) (str column-count " column labels") labels)
+                           (into-array String (map i/as-str labels)))
+                         (into-array String (map #(.getColumnLabel rsmd (int %)) (range 1 (inc column-count)))))
+          readers      (->> (range column-count)
+                         (map (fn [^long i]
+                                (let [column-index (inc i)
+                                      column-type  (get column-types i)]
+                                  (if (nil? column-type)
+                                    (fn [result-set] (r/read-column-value result-set column-index))
+                                    (do (when-not (contains? t/single-typemap column-type)
+                                          (i/expected-result-type column-type))
+                                      (column-value-reader column-type column-index))))))
+                         (into-array clojure.lang.IFn))
+          ^RowExporter exporter (case format
+                                  :csv   (RowExporter$Csv. labels (char separator) (boolean header?))
+                                  :jsonl (RowExporter$JsonLines. labels)
+                                  :edn   (RowExporter$Edn. labels
+                                           (into-array String (map #(pr-str (key-maker %)) labels)))
+                                  (i/expected "option :format to be either of :csv, :jsonl or :edn" format))]
+      (.export exporter result-set readers writer (if max-rows (long max-rows) Long/MAX_VALUE)
+        (if flush-rows (long flush-rows) 0) (int buffer-size)))))
+
+
+(defn reduce-rows
+  "Return a result-set-worker fn (fn [sql-source result-set]) that applies transducer `xform` (with reducing fn `f`
+  and initial value `init`) to each row as it is read from the java.sql.ResultSet instance, without holding the rows
+  in memory. Rows are made using asphalt.type.ISqlSource/read-row, i.e. the compiled row-maker of SQL templates.
+  Options:
+  Key          Type/spec                               Default      Description
+  ----         ----------                              --------     ------------
+  :fetch-size  positive integer                        not applied  fetch-size to set on java.sql.ResultSet
+  :row-maker   (fn [sql-source result-set col-count])  returns vector of col values
+                                                                    fn to make a row from column values
+  See:
+    reducible-query"
+  ([xform f init]
+    (reduce-rows {} xform f init))
+  ([{:keys [fetch-size
+            row-maker]
+     :or {row-maker t/read-row}
+     :as options}
+    xform f init]
+    (fn [sql-source ^ResultSet result-set]
+      ;; set fetch size on the JDBC driver
+      (when fetch-size
+        (.setFetchSize result-set (int fetch-size)))
+      (let [rf (xform f)]
+        (rf (iresult/reduce-result-rows rf init row-maker sql-source result-set))))))
+
+
 (defn fetch-single-row
   "Given asphalt.type.ISqlSource and java.sql.ResultSet instances fetch a single row.
   Options:
@@ -297,64 +832,692 @@
 ;; ----- java.sql.PreparedStatement (connection-worker) stuff -----
 
 
+(defn with-statement-options
+  "Return a SQL source like the given one (a SQL template retains its type and behavior), whose JDBC statements are
+  prepared with the given options (merged over the options of a SQL template, see `compile-sql-template` option
+  :statement-options) by `query`, `genkey`, `update`, `batch-update` and the like. Fetch size and max rows are set on
+  the statement, so that the driver may use a server-side cursor and the server may stop producing rows early, unlike
+  the :fetch-size/:max-rows options of the result-set workers that apply to the java.sql.ResultSet instance. Result
+  set type, concurrency and holdability are ignored by `genkey`, as JDBC does not support them with generated keys.
+  Options:
+  Key               Type/spec                 Default            Description
+  ----              ----------                --------           ------------
+  :result-set-type  :forward-only, :scroll-insensitive or :scroll-sensitive
+                                              driver default     java.sql.ResultSet type
+  :concurrency      :read-only or :updatable  driver default     java.sql.ResultSet concurrency
+  :holdability      :hold-over-commit or :close-at-commit
+                                              driver default     whether cursors stay open upon commit
+  :fetch-size       non-negative integer      driver default     rows to fetch per round trip, 0 means driver default
+  :max-rows         non-negative integer      0 (no limit)       max rows the statement returns (large max rows are
+                                                                 set using JDBC 4.2 setLargeMaxRows when supported)"
+  [sql-source options]
+  (let [stmt-options (i/compile-statement-options options)]
+    (if (instance? clojure.lang.IRecord sql-source)
+      (assoc sql-source :stmt-options (merge (:stmt-options sql-source) stmt-options))
+      (isql/->StatementOptionsSqlSource sql-source stmt-options))))
+
+
 (defn query
   "Execute query with params and process the java.sql.ResultSet instance with result-set-worker. The java.sql.ResultSet
   instance is closed in the end, so result-set-worker should neither close it nor make a direct/indirect reference to
-  it in the value it returns."
+  it in the value it returns. Plain SELECT statements use a read connection if the connection source supports it (see
+  `read-write-connection-source`)."
   ([connection-source sql-source params]
     (query t/set-params fetch-rows connection-source sql-source params))
   ([result-set-worker connection-source sql-source params]
     (query t/set-params result-set-worker connection-source sql-source params))
   ([params-setter result-set-worker connection-source sql-source params]
-    (i/with-connection [connection connection-source]
-      (with-open [^PreparedStatement pstmt (i/prepare-statement connection
-                                             (t/get-sql sql-source params) false)]
-        (params-setter sql-source pstmt params)
-        (with-open [^ResultSet result-set (.executeQuery pstmt)]
-          (result-set-worker sql-source result-set))))))
+    (let [sql (t/get-sql sql-source params)]
+      (i/with-read-connection [connection connection-source sql]
+        (with-open [^PreparedStatement pstmt (i/prepare-statement connection sql false
+                                                                  (i/statement-options sql-source))]
+          (params-setter sql-source pstmt params)
+          (with-open [^ResultSet result-set (.executeQuery pstmt)]
+            (result-set-worker sql-source result-set)))))))
+
+
+(defn reducible-query
+  "Return a reducible (clojure.lang.IReduceInit instance) that executes the query with params when reduced, feeding the
+  rows to the reducing fn one at a time as they are read. The connection, statement and result-set are held only for
+  the duration of the reduction and are closed when it completes, terminates early or fails. Suitable for use with
+  `reduce`, `transduce`, `into` and `eduction` to process large results in constant memory.
+  Options:
+  Key             Type/spec                               Default           Description
+  ----            ----------                              --------          ------------
+  :params-setter  (fn [sql-source prepared-stmt params])  t/set-params      fn to set params on the prepared statement
+  :fetch-size     positive integer                        not applied       fetch-size to set on java.sql.ResultSet
+  :row-maker      (fn [sql-source result-set col-count])  returns vector of col values
+                                                                            fn to make a row from column values"
+  ([connection-source sql-source params]
+    (reducible-query {} connection-source sql-source params))
+  ([{:keys [params-setter
+            fetch-size
+            row-maker]
+     :or {params-setter t/set-params
+          row-maker     t/read-row}
+     :as options}
+    connection-source sql-source params]
+    (reify clojure.lang.IReduceInit
+      (reduce [this f init]
+        (query params-setter
+          (fn [sql-source ^ResultSet result-set]
+            ;; set fetch size on the JDBC driver
+            (when fetch-size
+              (.setFetchSize result-set (int fetch-size)))
+            (iresult/reduce-result-rows f init row-maker sql-source result-set))
+          connection-source sql-source params)))))
 
 
 (defn genkey
   "Execute an update statement returning the keys generated by the statement. The generated keys are extracted from a
-  java.sql.ResultSet instance using the optional result-set-worker argument."
+  java.sql.ResultSet instance using the optional result-set-worker argument. Invalidates the cached results (see
+  `compile-sql-template` option :result-cache) depending on the table written to."
   ([connection-source sql-source params]
     (genkey t/set-params fetch-single-value connection-source sql-source params))
   ([result-set-worker connection-source sql-source params]
     (genkey t/set-params result-set-worker connection-source sql-source params))
   ([params-setter result-set-worker connection-source sql-source params]
-    (i/with-connection [connection connection-source]
-      (with-open [^PreparedStatement pstmt (i/prepare-statement connection
-                                             (t/get-sql sql-source params) true)]
-        (params-setter sql-source pstmt params)
-        (.executeUpdate pstmt)
-        (with-open [^ResultSet generated-keys (.getGeneratedKeys pstmt)]
-          (result-set-worker sql-source generated-keys))))))
+    (let [sql (t/get-sql sql-source params)]
+      (i/with-connection [connection connection-source]
+        (try
+          (with-open [^PreparedStatement pstmt (i/prepare-statement connection sql true
+                                                                    (i/statement-options sql-source))]
+            (params-setter sql-source pstmt params)
+            (.executeUpdate pstmt)
+            (with-open [^ResultSet generated-keys (.getGeneratedKeys pstmt)]
+              (result-set-worker sql-source generated-keys)))
+          (finally
+            (i/invalidate-tables connection sql)))))))
 
 
 (defn update
-  "Execute an update statement returning the number of rows impacted."
+  "Execute an update statement returning the number of rows impacted. Invalidates the cached results (see
+  `compile-sql-template` option :result-cache) depending on the table written to."
   ([connection-source sql-source params]
     (update t/set-params connection-source sql-source params))
   ([params-setter connection-source sql-source params]
-    (i/with-connection [connection connection-source]
-      (with-open [^PreparedStatement pstmt (i/prepare-statement connection
-                                             (t/get-sql sql-source params) false)]
-        (params-setter sql-source pstmt params)
-        (.executeUpdate pstmt)))))
+    (let [sql (t/get-sql sql-source params)]
+      (i/with-connection [connection connection-source]
+        (try
+          (with-open [^PreparedStatement pstmt (i/prepare-statement connection sql false
+                                                                    (i/statement-options sql-source))]
+            (params-setter sql-source pstmt params)
+            (.executeUpdate pstmt))
+          (finally
+            (i/invalidate-tables connection sql)))))))
 
 
 (defn batch-update
-  "Execute a SQL write statement with a batch of parameters returning the number of rows updated as a vector."
+  "Execute a SQL write statement with a batch of parameters returning the number of rows updated as a vector. The SQL
+  is generated using the first set of params. Invalidates the cached results (see `compile-sql-template` option
+  :result-cache) depending on the table written to.
+
+  When called with options, `batch-params` may be any reducible (e.g. a lazy sequence or an IReduceInit instance) that
+  is consumed as the batch is executed, and the update counts are returned as a long array.
+  Options:
+  Key            Type/spec         Default   Description
+  ----           ----------        --------  ------------
+  :batch-size    positive integer  no limit  number of param sets after which the JDBC batch is executed (flushed)
+  :large-batch?  boolean           true      use java.sql.Statement/executeLargeBatch (JDBC 4.2) when supported"
   ([connection-source sql-source batch-params]
     (batch-update t/set-params connection-source sql-source batch-params))
   ([params-setter connection-source sql-source batch-params]
-    (i/with-connection [connection connection-source]
-      (with-open [^PreparedStatement pstmt (i/prepare-statement connection
-                                             (t/get-sql sql-source (first batch-params)) false)]
-        (doseq [params batch-params]
-          (params-setter sql-source pstmt params)
-          (.addBatch pstmt))
-        (vec (.executeBatch pstmt))))))
+    (let [sql (t/get-sql sql-source (first batch-params))]
+      (i/with-connection [connection connection-source]
+        (try
+          (with-open [^PreparedStatement pstmt (i/prepare-statement connection sql false
+                                                                    (i/statement-options sql-source))]
+            (doseq [params batch-params]
+              (params-setter sql-source pstmt params)
+              (.addBatch pstmt))
+            (vec (.executeBatch pstmt)))
+          (finally
+            (i/invalidate-tables connection sql))))))
+  ([{:keys [batch-size
+            large-batch?]
+     :or {large-batch? true}
+     :as options}
+    params-setter connection-source sql-source batch-params]
+    (when batch-size
+      (i/expected #(and (integer? %) (pos? (long %))) "batch size to be a positive integer" batch-size))
+    (let [max-pending (if batch-size (long batch-size) Long/MAX_VALUE)
+          large?      (volatile! (boolean large-batch?))
+          chunks      (java.util.ArrayList.)
+          flush!      (fn [^PreparedStatement pstmt]
+                        (.add chunks (or (when @large?
+                                           (or (i/execute-large-batch pstmt)
+                                             (vreset! large? false)))
+                                       (i/execute-batch pstmt))))
+          stmt-opts   (i/statement-options sql-source)
+          sql-ref     (volatile! nil)
+          pstmt-ref   (volatile! nil)]
+      (i/with-connection [connection connection-source]
+        (try
+          (let [pending (reduce (fn [^long n params]
+                                  (let [^PreparedStatement pstmt (or @pstmt-ref
+                                                                   (let [sql (t/get-sql sql-source params)]
+                                                                     (vreset! sql-ref sql)
+                                                                     (vreset! pstmt-ref
+                                                                       (i/prepare-statement connection sql false
+                                                                         stmt-opts))))
+                                        n (unchecked-inc n)]
+                                    (params-setter sql-source pstmt params)
+                                    (.addBatch pstmt)
+                                    (if (< n max-pending)
+                                      n
+                                      (do (flush! pstmt) 0))))
+                          0 batch-params)]
+            (when (pos? (long pending))
+              (flush! @pstmt-ref))
+            (i/concat-longs chunks))
+          (finally
+            (when-let [^PreparedStatement pstmt @pstmt-ref]
+              (.close pstmt))
+            (when-let [sql @sql-ref]
+              (i/invalidate-tables connection sql))))))))
+
+
+;; ----- asynchronous execution -----
+
+
+(defn make-async-executor
+  "Make a java.util.concurrent.ExecutorService for asynchronous calls, running each call on a new virtual thread when
+  the JVM supports virtual threads (Java 21+), otherwise on a bounded pool of daemon threads.
+  Options:
+  Key           Type/spec         Default                  Description
+  ----          ----------        --------                 ------------
+  :virtual?     boolean           true                     use virtual threads when supported
+  :max-threads  positive integer  2 x available processors max threads when virtual threads are not used"
+  ([]
+    (make-async-executor {}))
+  ([{:keys [virtual? max-threads]
+     :or {virtual?    true
+          max-threads (* 2 (.availableProcessors (Runtime/getRuntime)))}}]
+    (i/expected #(and (integer? %) (pos? (long %))) "max-threads to be a positive integer" max-threads)
+    (or (when virtual?
+          (AsyncExecutors/newVirtualThreadExecutor))
+      (AsyncExecutors/newBoundedExecutor (int max-threads)))))
+
+
+(defn query-async
+  "Asynchronous variant of `query`, returning a java.util.concurrent.CompletableFuture of the result. Cancelling the
+  future cancels the statement being executed via java.sql.Statement/cancel. As JDBC connections are not thread-safe,
+  do not use the connection source of an ongoing transaction for asynchronous calls.
+  Options:
+  Key                 Type/spec                               Default       Description
+  ----                ----------                              --------      ------------
+  :executor           java.util.concurrent.Executor           see below     executor to run the query on
+  :params-setter      (fn [sql-source prepared-stmt params])  t/set-params  fn to set params on the prepared statement
+  :result-set-worker  (fn [sql-source result-set])            fetch-rows    fn to process the result set
+  The default executor uses virtual threads when the JVM supports them, else a shared bounded pool sized to the
+  connection source (pool size for `pooled-connection-source`, otherwise twice the number of available processors)."
+  ([connection-source sql-source params]
+    (query-async {} connection-source sql-source params))
+  ([{:keys [executor
+            params-setter
+            result-set-worker]
+     :or {params-setter     t/set-params
+          result-set-worker fetch-rows}
+     :as options}
+    connection-source sql-source params]
+    (i/submit-async executor connection-source
+      #(query params-setter result-set-worker connection-source sql-source params))))
+
+
+(defn update-async
+  "Asynchronous variant of `update`, returning a java.util.concurrent.CompletableFuture of the number of rows impacted.
+  See `query-async` for cancellation and the default executor.
+  Options:
+  Key             Type/spec                               Default       Description
+  ----            ----------                              --------      ------------
+  :executor       java.util.concurrent.Executor           see above     executor to run the update on
+  :params-setter  (fn [sql-source prepared-stmt params])  t/set-params  fn to set params on the prepared statement"
+  ([connection-source sql-source params]
+    (update-async {} connection-source sql-source params))
+  ([{:keys [executor
+            params-setter]
+     :or {params-setter t/set-params}
+     :as options}
+    connection-source sql-source params]
+    (i/submit-async executor connection-source
+      #(update params-setter connection-source sql-source params))))
+
+
+(defn make-write-batcher
+  "Make a write batcher (asphalt.async.WriteBatcher) that coalesces writes, submitted from any thread via
+  `batched-update`, into batches executed using `batch-update` on the SQL source. A batch is executed when either the
+  batch size is reached or the linger time has elapsed since its first write. Submitting blocks while the queue is full.
+  Close the batcher with `.close` (or `with-open`) to flush the queued writes upon shutdown.
+  Options:
+  Key                      Type/spec                               Default       Description
+  ----                     ----------                              --------      ------------
+  :batch-size              positive integer                        100           max writes per batch
+  :linger-millis           non-negative integer                    5             max wait for more writes in a batch
+  :queue-capacity          positive integer                        10000         max queued writes (backpressure)
+  :enqueue-timeout-millis  non-negative integer                    nil           max wait to queue a write when the
+                                                                                 queue is full, nil to wait forever
+  :params-setter           (fn [sql-source prepared-stmt params])  t/set-params  fn to set params on the statement"
+  (^WriteBatcher [connection-source sql-source]
+    (make-write-batcher {} connection-source sql-source))
+  (^WriteBatcher [{:keys [batch-size linger-millis queue-capacity enqueue-timeout-millis params-setter]
+                   :or {batch-size     100
+                        linger-millis  5
+                        queue-capacity 10000
+                        params-setter  t/set-params}}
+                  connection-source sql-source]
+    (i/expected #(and (integer? %) (pos? (long %))) "batch-size to be a positive integer" batch-size)
+    (i/expected #(and (integer? %) (not (neg? (long %)))) "linger-millis to be a non-negative integer" linger-millis)
+    (i/expected #(and (integer? %) (pos? (long %))) "queue-capacity to be a positive integer" queue-capacity)
+    (when enqueue-timeout-millis
+      (i/expected #(and (integer? %) (not (neg? (long %)))) "enqueue-timeout-millis to be a non-negative integer"
+        enqueue-timeout-millis))
+    (WriteBatcher. (fn [batch-params]
+                     (batch-update {} params-setter connection-source sql-source batch-params))
+      (int batch-size) (long linger-millis) (int queue-capacity)
+      (if enqueue-timeout-millis (long enqueue-timeout-millis) -1))))
+
+
+(defn batched-update
+  "Submit a write with params to the write batcher (see `make-write-batcher`), returning a
+  java.util.concurrent.CompletableFuture of the number of rows impacted by the write. Block while the batcher queue is
+  full, and throw java.util.concurrent.RejectedExecutionException when the batcher is closed or the enqueue timeout
+  elapses. If the batch fails, all writes in the batch fail with the same exception."
+  ^CompletableFuture [^WriteBatcher write-batcher params]
+  (.submit write-batcher params))
+
+
+(defn write-batcher-metrics
+  "Return metrics of given write batcher as a map with keys :queue-size, :writes, :batches and :failed-batches."
+  [^WriteBatcher write-batcher]
+  {:queue-size     (.getQueueSize write-batcher)
+   :writes         (.getWriteCount write-batcher)
+   :batches        (.getBatchCount write-batcher)
+   :failed-batches (.getFailedBatchCount write-batcher)})
+
+
+(defn- range-partitions
+  "Split the key range [lo, hi) into at most n contiguous, non-empty [lo, hi) pairs of near-equal size. The span
+  (hi - lo) must fit in a long."
+  [^long lo ^long hi ^long n]
+  (let [span (- hi lo)
+        size (quot span n)
+        more (rem span n)]
+    (loop [i 0
+           start lo
+           result (transient [])]
+      (if (or (= i n) (= start hi))
+        (persistent! result)
+        (let [end (+ start size (if (< i more) 1 0))]  ; never beyond hi
+          (recur (inc i) end (conj! result [start end])))))))
+
+
+(defn- partition-result
+  "Return the result of a completed partition future, cancelling all futures and throwing the cause upon failure."
+  [futures ^CompletableFuture future]
+  (try
+    (.get future)
+    (catch ExecutionException e
+      (doseq [^CompletableFuture f futures]
+        (.cancel f true))
+      (throw (.getCause e)))))
+
+
+(defn parallel-query
+  "Execute a query over the key range [lo, hi) by splitting it into partitions that are queried concurrently, each on
+  its own connection obtained from the connection source, and merge the partition results. The SQL source must have a
+  range predicate, e.g. `WHERE id >= ^long $lo AND id < ^long $hi`, and params must be a map (without range keys).
+  Partition results are merged in key order, or in completion order when `:ordered?` is false. As each partition runs
+  on a separate connection, the partitions do not share a transaction or a consistent snapshot.
+  Options:
+  Key                 Type/spec                               Default       Description
+  ----                ----------                              --------      ------------
+  :lo                 integer (required)                      --            range start (inclusive)
+  :hi                 integer (required)                      --            range end (exclusive)
+  :partitions         positive integer                        4             max number of partitions
+  :lo-key             param key                               :lo           param key for the partition range start
+  :hi-key             param key                               :hi           param key for the partition range end
+  :ordered?           boolean                                 true          merge partition results in key order
+  :params-setter      (fn [sql-source prepared-stmt params])  t/set-params  fn to set params on the prepared statement
+  :result-set-worker  (fn [sql-source result-set])            fetch-rows    fn to process each partition result set,
+                                                                            e.g. `reduce-rows` to reduce a partition
+  :merge-fn           (fn [merged partition-result])          into          fn to merge partition results
+  :merge-init         any                                     []            initial value to merge results into
+  :executor           java.util.concurrent.Executor           see below     executor to run partitions on
+  The default executor is the same as for `query-async`."
+  [{:keys [lo hi partitions lo-key hi-key ordered? params-setter result-set-worker merge-fn merge-init executor]
+    :or {partitions        4
+         lo-key            :lo
+         hi-key            :hi
+         ordered?          true
+         params-setter     t/set-params
+         result-set-worker fetch-rows
+         merge-fn          into
+         merge-init        []}
+    :as options}
+   connection-source sql-source params]
+  (i/expected #(and (integer? %) (<= Long/MIN_VALUE % Long/MAX_VALUE)) "range start :lo to be a long integer" lo)
+  (i/expected #(and (integer? %) (<= Long/MIN_VALUE % Long/MAX_VALUE)) "range end :hi to be a long integer" hi)
+  (i/expected #(>= (long %) (long lo)) "range end :hi to be no less than :lo" hi)
+  (i/expected #(<= (-' % lo) Long/MAX_VALUE) "range span (:hi - :lo) to be at most Long/MAX_VALUE" hi)
+  (i/expected #(and (integer? %) (pos? (long %))) "partitions to be a positive integer" partitions)
+  (i/expected map? "params to be a map" params)
+  (let [futures (mapv (fn [[plo phi]]
+                        (i/submit-async executor connection-source
+                          #(query params-setter result-set-worker connection-source sql-source
+                             (assoc params lo-key plo hi-key phi))))
+                  (range-partitions lo hi partitions))]
+    (if ordered?
+      (reduce (fn [merged future] (merge-fn merged (partition-result futures future)))
+        merge-init futures)
+      (let [completed (LinkedBlockingQueue.)]
+        (doseq [^CompletableFuture future futures]
+          (.whenComplete future (reify BiConsumer
+                                  (accept [_ _ _] (.add completed future)))))
+        (loop [n (count futures)
+               merged merge-init]
+          (if (zero? n)
+            merged
+            (recur (dec n) (merge-fn merged (partition-result futures (.take completed))))))))))
+
+
+;; ----- bulk load -----
+
+
+(defn- bulk-load-unit
+  "Execute the chunks (lists of params) as JDBC batches and commit on given (non auto-commit) connection, returning the
+  set of SQL statements executed. The caller must roll back upon failure."
+  [params-setter ^Connection connection sql-source ^java.util.List chunks]
+  (let [sqls (java.util.HashSet.)]
+    (doseq [^java.util.List chunk chunks]
+      (let [sql (t/get-sql sql-source (.get chunk 0))]
+        (.add sqls sql)
+        (with-open [^PreparedStatement pstmt (i/prepare-statement connection sql false
+                                                                  (i/statement-options sql-source))]
+          (doseq [params chunk]
+            (params-setter sql-source pstmt params)
+            (.addBatch pstmt))
+          (.executeBatch pstmt))))
+    (.commit connection)
+    sqls))
+
+
+(defn bulk-load
+  "Insert (or otherwise write) rows of params, taken from a reducible source (e.g. a lazy sequence or an IReduceInit
+  instance), using several worker threads concurrently. Each worker has its own connection from the connection source
+  and writes the chunks of rows it takes from a bounded queue as JDBC batches, committing every `:commit-rows` rows.
+  The source is reduced on the calling thread, which blocks while the queue is full (backpressure). A failed commit
+  unit (the chunks since the last commit) is rolled back and retried up to `:retries` times. Return a map of stats:
+  :rows            number of rows committed
+  :chunks          number of chunks committed
+  :commits         number of commits
+  :retries         number of retried commit units
+  :failed-rows     number of rows not loaded due to failure (only when `:fail-fast?` is false)
+  :errors          vector of errors due to which rows were not loaded
+  :elapsed-millis  duration of the load in milliseconds
+  :rows-per-sec    rows committed per second
+  When `:fail-fast?` is true (default), the load is aborted upon the first failure after retries, throwing
+  clojure.lang.ExceptionInfo (with the stats as data and the failure as cause). Rows committed before the abort stay.
+  Options:
+  Key                  Type/spec                               Default       Description
+  ----                 ----------                              --------      ------------
+  :workers             positive integer                        4             number of worker threads/connections
+  :chunk-size          positive integer                        1000          number of rows per JDBC batch
+  :commit-rows         positive integer                        10000         rows per commit (in whole chunks)
+  :queue-capacity      positive integer                        2 x workers   number of chunks to queue for workers
+  :retries             non-negative integer                    2             retries for a failed commit unit
+  :retry-delay-millis  non-negative integer                    100           delay before retry (x attempt number)
+  :fail-fast?          boolean                                 true          abort upon failure, else skip rows
+  :params-setter       (fn [sql-source prepared-stmt params])  t/set-params  fn to set params on the prepared statement
+  :progress-fn         (fn [stats])                            no-op         called after every commit with the stats
+  :executor            java.util.concurrent.Executor           new threads   executor to run the workers on
+  Note: Rows are not loaded in the order of the source, and the SQL of each chunk is generated using its first row."
+  ([connection-source sql-source rows]
+    (bulk-load {} connection-source sql-source rows))
+  ([{:keys [workers chunk-size commit-rows queue-capacity retries retry-delay-millis fail-fast? params-setter
+            progress-fn executor]
+     :or {workers            4
+          chunk-size         1000
+          commit-rows        10000
+          retries            2
+          retry-delay-millis 100
+          fail-fast?         true
+          params-setter      t/set-params}
+     :as options}
+    connection-source sql-source rows]
+    (doseq [[k v] {:workers workers :chunk-size chunk-size :commit-rows commit-rows}]
+      (i/expected #(and (integer? %) (pos? (long %))) (str "option " k " to be a positive integer") v))
+    (when queue-capacity
+      (i/expected #(and (integer? %) (pos? (long %))) "option :queue-capacity to be a positive integer" queue-capacity))
+    (doseq [[k v] {:retries retries :retry-delay-millis retry-delay-millis}]
+      (i/expected #(and (integer? %) (>= (long %) 0)) (str "option " k " to be a non-negative integer") v))
+    (i/expected #(not (instance? TxnConnectionSource %)) "a non-transactional connection source" connection-source)
+    (let [workers     (int workers)
+          chunk-size  (int chunk-size)
+          end-marker  (java.util.ArrayList.)  ; identity marks end of the source, one per worker
+          queue       (ArrayBlockingQueue. (int (or queue-capacity (* 2 workers))))
+          failure     (AtomicReference.)      ; set upon abort
+          row-count   (AtomicLong.)
+          chunk-count (AtomicLong.)
+          commits     (AtomicLong.)
+          retry-count (AtomicLong.)
+          failed-rows (AtomicLong.)
+          errors      (ConcurrentLinkedQueue.)
+          start-nanos (System/nanoTime)
+          stats       (fn []
+                        (let [elapsed (- (System/nanoTime) start-nanos)
+                              rows    (.get row-count)]
+                          {:rows           rows
+                           :chunks         (.get chunk-count)
+                           :commits        (.get commits)
+                           :retries        (.get retry-count)
+                           :failed-rows    (.get failed-rows)
+                           :errors         (vec errors)
+                           :elapsed-millis (quot elapsed 1000000)
+                           :rows-per-sec   (if (pos? elapsed) (/ (* rows 1e9) elapsed) 0.0)}))
+          discard     (fn [^Connection conn]  ; close, so that a pool does not reuse it, with any open transaction
+                        (try (.close conn)
+                          (catch Exception _)
+                          (finally
+                            (t/return-connection connection-source conn))))
+          obtain      (fn []
+                        (let [^Connection conn (t/obtain-connection connection-source)]
+                          (try (.setAutoCommit conn false)
+                            (catch Exception e
+                              (discard conn)
+                              (throw e)))
+                          conn))
+          release     (fn [^Connection conn]
+                        (try (.setAutoCommit conn true)
+                          (finally
+                            (t/return-connection connection-source conn))))
+          worker      (fn []
+                        (let [conn    (volatile! nil)
+                              pending (java.util.ArrayList.)
+                              commit! (fn [^long n]
+                                        (loop [attempt 0]
+                                          (when-not (.get failure)
+                                            (let [result (try
+                                                           (when-not @conn
+                                                             (vreset! conn (obtain)))
+                                                           (bulk-load-unit params-setter @conn sql-source pending)
+                                                           (catch Exception e
+                                                             ;; discard the connection if it cannot roll back
+                                                             (when-let [^Connection c @conn]
+                                                               (when-not (try (.rollback c) true
+                                                                           (catch Exception _ false))
+                                                                 (vreset! conn nil)
+                                                                 (try (discard c) (catch Exception _))))
+                                                             e))]
+                                              (if (instance? Exception result)
+                                                (if (< attempt (long retries))
+                                                  (do (.incrementAndGet retry-count)
+                                                    (Thread/sleep (* (long retry-delay-millis) (inc attempt)))
+                                                    (recur (inc attempt)))
+                                                  (do (.add errors result)
+                                                    (if fail-fast?
+                                                      (.compareAndSet failure nil result)
+                                                      (.addAndGet failed-rows n))))
+                                                (do (.addAndGet row-count n)
+                                                  (.addAndGet chunk-count (.size pending))
+                                                  (.incrementAndGet commits)
+                                                  (doseq [sql result]
+                                                    (i/invalidate-tables sql))
+                                                  (when progress-fn
+                                                    (progress-fn (stats))))))))
+                                        (.clear pending))]
+                          (try
+                            (loop [n 0]
+                              (when-not (.get failure)
+                                (let [^java.util.List chunk (.poll queue 100 TimeUnit/MILLISECONDS)]
+                                  (cond
+                                    (nil? chunk)                   (recur n)
+                                    (identical? chunk end-marker)  (when (pos? n)
+                                                                     (commit! n))
+                                    :otherwise                     (let [n (+ n (.size chunk))]
+                                                                     (.add pending chunk)
+                                                                     (if (>= n (long commit-rows))
+                                                                       (do (commit! n)
+                                                                         (recur 0))
+                                                                       (recur n)))))))
+                            (catch Throwable e
+                              (.add errors e)
+                              (.compareAndSet failure nil e))
+                            (finally
+                              (when-let [c @conn]
+                                (release c))))))
+          enqueue     (fn [chunk]
+                        (loop []
+                          (cond
+                            (.get failure)                                  false
+                            (.offer queue chunk 100 TimeUnit/MILLISECONDS)  true
+                            :otherwise                                      (recur))))
+          own-exec    (when-not executor
+                        (AsyncExecutors/newBoundedExecutor workers))
+          futures     (mapv (fn [_] (CompletableFuture/runAsync ^Runnable worker ^Executor (or executor own-exec)))
+                        (range workers))]
+      (try
+        (let [last-chunk (reduce (fn [^java.util.ArrayList chunk params]
+                                   (.add chunk params)
+                                   (if (< (.size chunk) chunk-size)
+                                     chunk
+                                     (if (enqueue chunk)
+                                       (java.util.ArrayList. chunk-size)
+                                       (reduced nil))))
+                           (java.util.ArrayList. chunk-size) rows)]
+          (when (and last-chunk (pos? (.size ^java.util.ArrayList last-chunk)))
+            (enqueue last-chunk)))
+        (dotimes [_ workers]
+          (enqueue end-marker))
+        (catch Throwable e  ; failure reducing the source
+          (.compareAndSet failure nil e)
+          (throw e))
+        (finally
+          (doseq [^CompletableFuture f futures]
+            (.join f))
+          (when own-exec
+            (.shutdown ^ExecutorService own-exec))))
+      (let [result (stats)]
+        (when-let [^Throwable error (.get failure)]
+          (throw (ex-info (str "Bulk load aborted: " (.getMessage error)) result error)))
+        result))))
+
+
+;; ----- keyset pagination -----
+
+
+(defn scan-pages
+  "Return a reducible (clojure.lang.IReduceInit instance), also seqable as a lazy sequence, of the pages of a keyset
+  paginated query. The SQL source must select the rows after a last key in key order and limit them to the page size,
+  e.g. `SELECT ... FROM emp WHERE id > ^long $last ORDER BY id LIMIT ^int $n`, and params must be a map (without the
+  page keys). The first page is read after the `:start` key, and every following page after the key of the last row of
+  the previous page, until a page has fewer rows than the page size. Every page is read using a connection obtained
+  for that page only, so the pages are not a consistent snapshot.
+  For composite keys, specify `:last-key` as a vector of param keys, e.g. for SQL
+  `... WHERE dept > $last-dept OR (dept = $last-dept AND id > $last-id) ORDER BY dept, id LIMIT $n` use
+  {:last-key [:last-dept :last-id] :start [\"\" 0]}, in which case `:key-fn` must return a vector of key values.
+  With `:read-ahead?` true, the next page is read on a background thread while the current page is being consumed.
+  Options:
+  Key                 Type/spec                               Default       Description
+  ----                ----------                              --------      ------------
+  :start              key value(s) (required)                 --            key after which the first page starts
+  :page-size          positive integer                        100           max rows per page
+  :last-key           param key, or vector of param keys      :last         param key(s) for the last key of the page
+  :size-key           param key                               :n            param key for the page size
+  :key-fn             (fn [row]) -> key value(s)              see below     fn to extract key from (last) row of page
+  :read-ahead?        boolean                                 false         read next page on a background thread
+  :params-setter      (fn [sql-source prepared-stmt params])  t/set-params  fn to set params on the prepared statement
+  :result-set-worker  (fn [sql-source result-set])            fetch-rows    fn to read a page as a vector of rows
+  :executor           java.util.concurrent.Executor           see below     executor to read ahead pages on
+  The default :key-fn returns the first column value of a vector row, or a vector of the first N column values for a
+  composite key of N param keys. The default executor is the same as for `query-async`."
+  ([connection-source sql-source params]
+    (scan-pages {} connection-source sql-source params))
+  ([{:keys [start page-size last-key size-key key-fn read-ahead? params-setter result-set-worker executor]
+     :or {page-size         100
+          last-key          :last
+          size-key          :n
+          params-setter     t/set-params
+          result-set-worker fetch-rows}
+     :as options}
+    connection-source sql-source params]
+    (i/expected #(contains? % :start) "option :start (key after which the first page starts)" options)
+    (i/expected #(and (integer? %) (pos? (long %))) "option :page-size to be a positive integer" page-size)
+    (i/expected #(or (keyword? %) (and (vector? %) (seq %) (every? keyword? %)))
+      "option :last-key to be a keyword or a vector of keywords" last-key)
+    (i/expected map? "params to be a map" params)
+    (let [page-size  (long page-size)
+          composite? (vector? last-key)
+          key-fn     (or key-fn
+                       (if composite?
+                         (let [n (count last-key)] #(subvec (vec %) 0 n))
+                         first))
+          key-params (if composite?
+                       (fn [k]
+                         (i/expected #(and (sequential? %) (= (count last-key) (count %)))
+                           (str (count last-key) " key values for " last-key) k)
+                         (zipmap last-key k))
+                       (fn [k] {last-key k}))
+          fetch-page (fn [k]
+                       (query params-setter result-set-worker connection-source sql-source
+                         (merge params (key-params k) {size-key page-size})))
+          fetch-next (fn [page]  ; return [next-key pending-page-future], or nil if this is the last page
+                       (when (= page-size (count page))
+                         (let [k (key-fn (if (vector? page) (peek page) (last page)))]
+                           [k (when read-ahead?
+                                (i/submit-async executor connection-source #(fetch-page k)))])))
+          take-page  (fn [[k ^CompletableFuture pending]]
+                       (if pending
+                         (partition-result [pending] pending)
+                         (fetch-page k)))]
+      (reify
+        clojure.lang.IReduceInit
+        (reduce [this f init]
+          (loop [acc  init
+                 page (take-page [start nil])]
+            (if (empty? page)
+              acc
+              (let [[_ ^CompletableFuture pending :as next-page] (fetch-next page)
+                    acc (let [done? (volatile! true)]  ; cancel the read-ahead page unless the scan goes on
+                          (try
+                            (let [acc (f acc page)]
+                              (vreset! done? (reduced? acc))
+                              acc)
+                            (finally
+                              (when (and pending @done?)
+                                (.cancel pending true)))))]
+                (cond
+                  (reduced? acc)    @acc
+                  (nil? next-page)  acc
+                  :otherwise        (recur acc (take-page next-page)))))))
+        clojure.lang.Seqable
+        (seq [this]
+          (seq ((fn pages [next-page]
+                  (lazy-seq
+                    (let [page (take-page next-page)]
+                      (when (seq page)
+                        (cons page (when-let [next-page (fetch-next page)]
+                                     (pages next-page)))))))
+                 [start nil])))))))
 
 
 ;; ----- parse SQL for named parameters and types -----
@@ -418,11 +1581,56 @@
          (mapv (partial isql/encode-result-type sql)))])))
 
 
+(defn- make-result-cache
+  "Return a result cache for a read-only SQL template, given the :result-cache option value."
+  ^ResultCache [sql-name sql-tokens result-cache]
+  (i/expected #(or (true? %) (map? %)) "option :result-cache to be true or a map" result-cache)
+  (let [{:keys [max-entries ttl-millis tables]
+         :or {max-entries 1000
+              ttl-millis  60000}} (when (map? result-cache) result-cache)
+        sql (apply str (filter string? sql-tokens))]
+    (i/expected #(and (integer? %) (pos? (long %))) "result-cache :max-entries to be a positive integer" max-entries)
+    (i/expected #(and (integer? %) (pos? (long %))) "result-cache :ttl-millis to be a positive integer" ttl-millis)
+    (i/expected i/read-only-sql? "option :result-cache only for read-only (SELECT) SQL" sql)
+    (i/expected #(not-any? (fn [token] (and (vector? token) (contains? t/zero-typemap (second token)))) %)
+      "option :result-cache only for SQL without ^sql params" sql-tokens)
+    (let [table-names (if (some? tables)
+                        (do
+                          (i/expected #(and (coll? %) (every? (some-fn string? keyword? symbol?) %))
+                            "result-cache :tables to be a collection of table names" tables)
+                          (mapv #(i/normalize-table-name (i/as-str %)) tables))
+                        (i/sql-tables sql true))]
+      (if (some? tables)
+        (i/expected (fn [_] (every? some? table-names)) "result-cache :tables to be valid table names" tables)
+        (i/expected (fn [_] (some? table-names))
+          "option :result-cache only for SQL whose tables can be determined (or specify :tables)" sql))
+      (ResultCache. sql-name (into-array String (distinct table-names)) i/table-versions (int max-entries)
+        (long ttl-millis)))))
+
+
+(defn- make-caching-conn-worker
+  "Wrap conn-worker to look up results in the result cache, bypassing the cache in transactions."
+  [conn-worker ^ResultCache cache]
+  (fn caching-conn-worker [connection-source sql-source params]
+    (if (instance? TxnConnectionSource connection-source)
+      (conn-worker connection-source sql-source params)
+      (let [cache-key [connection-source (if (and params (.isArray (class params))) (vec params) params)
+                       (i/statement-options sql-source)]
+            result    (.get cache cache-key)]
+        (if (identical? result ResultCache/MISS)
+          (let [versions (.versions cache)  ; taken before the query, so that concurrent writes discard the result
+                result   (conn-worker connection-source sql-source params)]
+            (.put cache cache-key result versions)
+            result)
+          result)))))
+
+
 (defn compile-sql-template
   "Given a SQL template (SQL tokens and result types) compile it into a more efficient SQL source with the following
   enhancements:
     * associated params-setter
     * param placeholder for named, multi-value params
+    * param groups expanded into one placeholder group per element, e.g. multi-row `VALUES (?, ?), (?, ?)`
     * associated result-set-worker
     * associated row-maker
     * associated column-reader
@@ -431,6 +1639,11 @@
   Options:
     :result-set-worker  (fn [sql-source result-set])         - used when :make-conn-worker auto-defaults to query
     :param-placeholder  map {:param-name placeholder-string} - override placeholder ? for named multi-value params
+    :group-placeholder  map {:param-name group-template}     - param group template, e.g. \"(^int $id, $name)\"
+    :multi-padding      :repeat-last or :null                - pad multi-value params to power-of-two value-counts
+    :sql-cache-size     positive integer (default 1024)      - max SQL shapes to cache for multi-value/group params
+    :result-cache       true or map (see below)              - cache results of read-only SQL (default: no caching)
+    :statement-options  map (see `with-statement-options`)   - options to prepare the JDBC statement with
     :params-setter      (fn [prepared-stmt params])          - used when :make-params-setter not specified
     :row-maker          (fn [result-set col-count])          - used when :make-row-maker not specified
     :column-reader      (fn [result-set])                    - used when :make-column-reader not specified
@@ -440,11 +1653,37 @@
     :make-column-reader (fn [result-types]) -> (fn [result-set]) to return column value
     :make-conn-worker   (fn [sql-tokens result-types]) -> (fn [conn-source sql-source params])
     :sql-name           string (or coerced as string) name for the template
+  Param groups:
+    A param group is a named param (type hinted as ^group, or left untyped) having an entry in :group-placeholder.
+    Its value is a collection of groups (vector/map each) expanded as comma separated copies of the group template,
+    e.g. with option {:group-placeholder {:rows \"(^int $id, ^string $name)\"}} and SQL template
+    \"INSERT INTO emp (id, name) VALUES ^group $rows\" the param {:rows [[1 \"Joe\"] [2 \"Jane\"]]} is expanded as
+    \"INSERT INTO emp (id, name) VALUES (?, ?), (?, ?)\". The SQL for every group count is generated only once.
+  SQL shapes:
+    SQL for templates with multi-value/group params varies with the value-counts (the SQL shape). Generated SQL is
+    cached per shape, up to :sql-cache-size shapes (see `sql-shape-cache-metrics`). Option :multi-padding limits the
+    number of shapes by padding every multi-value param up to the next power-of-two value-count, repeating the last
+    value (:repeat-last) or adding NULL values (:null), e.g. 5 values are padded to 8 values. Padding applies to every
+    multi-value param of the template, hence use it only when all of them are `IN` lists, where the extra values do not
+    change the result. Option :null is unsuitable for `NOT IN`, which matches no rows when the list contains NULL.
+  Result cache:
+    Option :result-cache (true, or a map with keys :max-entries (default 1000) and :ttl-millis (default 60000)) caches
+    the results of a read-only template per connection source and params, evicting the least recently used results
+    beyond :max-entries and expiring them after :ttl-millis. The tables read from are extracted from the SQL, which is
+    rejected when some table reference cannot be resolved (e.g. a parenthesized join, a table function, FROM ONLY or
+    LATERAL), unless the table names are specified as :tables (a collection of table names) in the map. Cached results
+    are invalidated when `update`, `genkey` or `batch-update` (including via templates) write to a table the template
+    reads from, or all of them when the written tables cannot be determined. Writes in a transaction (see
+    `asphalt.transaction`) invalidate upon execution and again upon commit. Writes by other processes, or by other
+    means, are not detected and only age out. Transactions bypass the cache. See `result-cache-metrics`.
   See:
     `parse-sql` for SQL-template format"
   [sql-tokens result-types
    {:keys [result-set-worker
            param-placeholder
+           group-placeholder
+           multi-padding
+           sql-cache-size
            params-setter
            row-maker
            column-reader
@@ -453,14 +1692,41 @@
            make-row-maker
            make-column-reader
            make-conn-worker
+           result-cache
+           statement-options
            sql-name]
-    :or {sql-name (gensym "sql-name-")}
+    :or {sql-name (gensym "sql-name-")
+         sql-cache-size 1024}
     :as options}]
   (i/expected vector? "vector of SQL template tokens" sql-tokens)
   (i/expected vector? "vector of result column types" result-types)
+  (when multi-padding
+    (i/expected #{:repeat-last :null} "option :multi-padding to be :repeat-last or :null" multi-padding))
   (let [split-into-halves  (fn [coll] (-> (count coll)
                                         (bit-shift-right 1)  ; divide by two
                                         (split-at coll)))
+        group-specs        (reduce-kv (fn [m k v]
+                                        (i/expected keyword? "param key (keyword) in option :group-placeholder" k)
+                                        (i/expected string? "param group template string" v)
+                                        (let [[g-tokens g-rtypes] (parse-sql v)
+                                              g-pairs (filterv vector? g-tokens)]
+                                          (i/expected empty? "no result types in param group template" g-rtypes)
+                                          (i/expected seq "one or more named params in param group template" g-pairs)
+                                          (i/expected #(every? (partial contains? t/single-typemap) (map second %))
+                                            "only single-value params in param group template" g-pairs)
+                                          (assoc m k {:sql    (isql/make-sql g-tokens nil nil)
+                                                      :keys   (mapv first g-pairs)
+                                                      :types  (mapv second g-pairs)})))
+                             {} group-placeholder)
+        make-params-layer  (fn [param-keys param-types]
+                             (if (some #(contains? t/group-typemap %) param-types)
+                               (let [specs (mapv (fn [k t] (when (contains? t/group-typemap t)
+                                                             (get group-specs k)))
+                                             param-keys param-types)]
+                                 (p/make-params-layer param-keys param-types
+                                   (mapv #(some-> % :keys count) specs)
+                                   (mapv #(when % (p/make-group-params-layer (:keys %) (:types %))) specs)))
+                               (p/make-params-layer param-keys param-types)))
         make-params-setter (or make-params-setter
                              (fn [param-keys param-types] (or params-setter
                                                             (if (seq param-keys)
@@ -471,8 +1737,8 @@
                                                                     (apply interleave)
                                                                     split-into-halves
                                                                     (map vec)
-                                                                    (apply p/make-params-layer))
-                                                                  (p/make-params-layer param-keys param-types))
+                                                                    (apply make-params-layer))
+                                                                  (make-params-layer param-keys param-types))
                                                                 p/set-params)
                                                               p/set-params))))
         make-row-maker     (or make-row-maker
@@ -498,28 +1764,49 @@
         sanitized-st (mapv (fn [token]
                              (cond
                                (string? token)  token
-                               (keyword? token) [token :nil]
+                               (keyword? token) (recur [token :nil])
                                (vector? token)  (let [[param-key param-type] token]
                                                   (i/expected keyword? "param key (keyword)" param-key)
                                                   (when-not (contains? t/all-typemap param-type)
                                                     (i/expected-param-type param-type))
-                                                  token)
+                                                  (cond
+                                                    (contains? group-specs param-key)
+                                                    (if (contains? #{:nil :object :group} param-type)
+                                                      [param-key :group]
+                                                      (i/expected (str "param " param-key " with a :group-placeholder"
+                                                                    " entry to be typed as a param group")
+                                                        param-type))
+                                                    (contains? t/group-typemap param-type)
+                                                    (i/expected (str "option :group-placeholder entry for param group "
+                                                                  param-key) group-placeholder)
+                                                    :otherwise
+                                                    token))
                                :otherwise       (i/expected "string, param key or key/type vector" token)))
                        sql-tokens)]
     (let [kt-pairs (filter vector? sanitized-st)
-          kt-map   (zipmap (map first kt-pairs) (map second kt-pairs))]
+          kt-map   (zipmap (map first kt-pairs) (map second kt-pairs))
+          r-cache  (when result-cache
+                     (make-result-cache (i/as-str sql-name) sanitized-st result-cache))
+          s-opts   (when statement-options
+                     (i/compile-statement-options statement-options))
+          c-worker (cond-> (make-conn-worker sanitized-st result-types)
+                     r-cache (make-caching-conn-worker r-cache))]
       (if (->> kt-pairs
            (map second)
            (every? (partial contains? t/single-typemap)))
         (do
           (i/expected empty? "option :param-placeholder only for named multi-value params" param-placeholder)
+          (i/expected empty? "option :group-placeholder only for named param groups" group-placeholder)
           (isql/->StaticSqlTemplate
             (i/as-str sql-name)
             (isql/make-sql sanitized-st nil (vec (repeat (count kt-pairs) nil)))
             (make-params-setter (mapv first kt-pairs) (mapv second kt-pairs))
             (make-row-maker result-types)
             (make-column-reader result-types)
-            (make-conn-worker sanitized-st result-types)))
+            c-worker
+            result-types
+            r-cache
+            s-opts))
         (isql/->DynamicSqlTemplate
           (i/as-str sql-name)
           (reduce (fn shrink-template [st token]
@@ -534,17 +1821,141 @@
                        (i/expected #(contains? t/multi-typemap (get kt-map %))
                          "only multi-value params in option :param-placeholder" k)
                        (i/expected string? "param placeholder string" v)
-                       (assoc m k (memoize (fn [^long n] (str/join ", " (repeat n v))))))
-            {} param-placeholder)
+                       (assoc m k (fn [^long n] (str/join ", " (repeat n v)))))
+            (reduce-kv (fn [m k spec]
+                         (assoc m k (isql/make-group-placeholder (:sql spec))))
+              {} group-specs)
+            param-placeholder)
           (make-params-setter (mapv first kt-pairs) (mapv second kt-pairs))
           (make-row-maker result-types)
           (make-column-reader result-types)
-          (make-conn-worker sanitized-st result-types))))))
+          c-worker
+          (SqlShapeCache. (int sql-cache-size))
+          (if multi-padding isql/pow2-bucket identity)
+          (if multi-padding
+            (let [multi? #(contains? t/multi-typemap (second %))]
+              (isql/make-multi-padder (->> kt-pairs
+                                        (filter multi?)
+                                        (map first))
+                (keep-indexed #(when (multi? %2) %1) kt-pairs)
+                multi-padding))
+            identity)
+          result-types
+          r-cache
+          s-opts)))))
+
+
+(defn sql-shape-cache-metrics
+  "Given a SQL template compiled with `compile-sql-template` (or defined with `defsql`), return its SQL shape cache
+  metrics as a map with keys :hits, :misses (number of times SQL was generated), :shapes (number of distinct SQL shapes
+  cached), :overflows (number of generated shapes not cached due to full cache) and :max-size, or nil when the template
+  has a static SQL. Resets the counters when called with `reset?` as true."
+  ([sql-template]
+    (sql-shape-cache-metrics sql-template false))
+  ([sql-template reset?]
+    (when-let [^SqlShapeCache cache (:shape-cache sql-template)]
+      (let [result {:hits      (.getHits cache)
+                    :misses    (.getMisses cache)
+                    :shapes    (.size cache)
+                    :overflows (.getOverflows cache)
+                    :max-size  (.getMaxSize cache)}]
+        (when reset?
+          (.reset cache))
+        result))))
+
+
+(defn result-cache-metrics
+  "Given a SQL template compiled with option :result-cache (see `compile-sql-template`), return its result cache
+  metrics as a map with keys :name, :tables (table names the cached results depend on), :size (number of cached
+  results), :hits, :misses, :evictions (results evicted beyond max entries), :invalidations (results invalidated by
+  writes to the tables) and :expirations (results expired after TTL), or nil when the template does not cache results.
+  Resets the counters when called with `reset?` as true, and also discards the cached results when `clear?` is true."
+  ([sql-template]
+    (result-cache-metrics sql-template false false))
+  ([sql-template reset?]
+    (result-cache-metrics sql-template reset? false))
+  ([sql-template reset? clear?]
+    (when-let [^ResultCache cache (:result-cache sql-template)]
+      (let [result {:name          (.getName cache)
+                    :tables        (vec (.getTables cache))
+                    :size          (.size cache)
+                    :hits          (.getHits cache)
+                    :misses        (.getMisses cache)
+                    :evictions     (.getEvictions cache)
+                    :invalidations (.getInvalidations cache)
+                    :expirations   (.getExpirations cache)}]
+        (when reset?
+          (.resetMetrics cache))
+        (when clear?
+          (.clear cache))
+        result))))
+
+
+(defmacro defrowrecord
+  "Define a record type for result rows, along with a row-maker that reads the typed columns (by position) straight into
+  a record instance. Fields are type hinted like SQL result columns (see `asphalt.result/letcol`) - fields hinted
+  ^long/^int/^byte are stored as primitive long, ^double/^float as primitive double, others as objects. Primitive
+  reads are not null-safe, as with primitive type hints elsewhere, i.e. SQL NULL is read as 0 (or 0.0).
+  (defrowrecord Employee [^string name ^int salary ^string dept [^date joined cal]])  ; cal is calendar/timezone
+  Besides the record `Employee` (with `->Employee` and `map->Employee`), it defines:
+  Employee-row-maker       row-maker (fn [result-set col-count]) and (fn [sql-source result-set col-count]),
+                           e.g. option :row-maker in `fetch-rows` and `compile-sql-template`
+  make-Employee-row-maker  (fn [result-types]) -> Employee-row-maker, option :make-row-maker in `compile-sql-template`
+                           and `defsql` (template result types, if any, must match the field types)"
+  [record-name fields]
+  (i/expected symbol? "a symbol for record name" record-name)
+  (i/expected vector? "a vector of fields" fields)
+  (i/expected seq "at least one field" fields)
+  (let [col-lhs     (mapv i/as-vector fields)
+        field-syms  (mapv first col-lhs)
+        _           (doseq [sym field-syms]
+                      (i/expected symbol? "field name to be a symbol" sym)
+                      (when-not (contains? t/single-typemap (-> sym meta :tag keyword))
+                        (i/expected-result-type (-> sym meta :tag))))
+        field-types (mapv #(get t/single-typemap (-> % meta :tag keyword)) field-syms)
+        rec-fields  (mapv (fn [sym field-type]
+                            (with-meta (symbol (name sym)) (case field-type
+                                                             (:long :int :byte) {:tag 'long}
+                                                             (:double :float)   {:tag 'double}
+                                                             nil)))
+                      field-syms field-types)
+        local-syms  (mapv #(gensym (name %)) field-syms)
+        rs-lhs      (mapv (fn [sym [field-sym & col-args]] (let [sym (with-meta sym (meta field-sym))]
+                                                             (if (seq col-args)
+                                                               (into [sym] col-args)
+                                                               sym)))
+                      local-syms col-lhs)
+        n-fields    (count fields)
+        row-maker   (symbol (str record-name "-row-maker"))
+        make-maker  (symbol (str "make-" record-name "-row-maker"))]
+    `(do
+       (defrecord ~record-name ~rec-fields)
+       (defn ~row-maker
+         ~(str "Read current row of java.sql.ResultSet as " record-name " instance.")
+         ([^ResultSet result-set# ^long col-count#]
+           (when-not (= col-count# ~n-fields)
+             (i/expected ~(str n-fields " columns") col-count#))
+           (r/letcol [~rs-lhs result-set#]
+             (new ~record-name ~@local-syms)))
+         ([sql-source# result-set# col-count#]
+           (~row-maker result-set# col-count#)))
+       (defn ~make-maker
+         ~(str "Return row-maker for " record-name " given the SQL template result types.")
+         [result-types#]
+         (when (seq result-types#)
+           (i/expected #(and (= ~n-fields (count %))
+                          (every? true? (map (fn [field-type# result-type#]
+                                               (or (nil? result-type#) (= field-type# result-type#)))
+                                          ~field-types %)))
+             ~(str "result types matching the field types " field-types) result-types#))
+         ~row-maker))))
 
 
 (defmacro defsql
   "Define a parsed/compiled SQL template that can be used to execute the SQL later. The defined template may be invoked
-  like a function (fn [connection-source] [connection-source params])."
+  like a function (fn [connection-source] [connection-source params]), or asynchronously with an extra options map
+  (fn [connection-source params async-options]) returning a java.util.concurrent.CompletableFuture - see `query-async`
+  for async options."
   ([var-symbol sql]
     (i/expected symbol? "a symbol" var-symbol)
     `(defsql ~var-symbol ~sql {}))
@@ -555,7 +1966,8 @@
                                       m
                                       (assoc m k v)))
           defn-var-sym  (-> var-symbol
-                          (vary-meta assoc-missing :arglists ''([connection-source] [connection-source params]))
+                          (vary-meta assoc-missing :arglists ''([connection-source] [connection-source params]
+                                                                   [connection-source params async-options]))
                           (vary-meta assoc-missing :doc      sql-template))]
       `(def ~defn-var-sym
          (let [opts# (merge {:sql-name ~(name var-symbol)} ~options)]
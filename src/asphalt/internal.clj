@@ -15,14 +15,22 @@
   (:import
     [java.io         Writer]
     [java.sql        Blob Clob Date Time Timestamp
-                     Connection DriverManager PreparedStatement Statement
+                     Connection Driver DriverManager PreparedStatement SQLException SQLFeatureNotSupportedException
+                     Statement
                      ResultSet ResultSetMetaData
                      Savepoint]
     [java.util       Calendar Hashtable Map Properties TimeZone]
     [java.util.regex Pattern]
     [javax.naming    Context InitialContext]
+    [java.util.concurrent CompletableFuture ConcurrentHashMap Executor ExecutorService]
+    [java.util.function   BiFunction Consumer Function]
     [javax.sql       DataSource]
-    [asphalt.instrument JdbcEventFactory JdbcEventListener]))
+    [asphalt.async   AsyncExecutors StatementFuture]
+    [asphalt.cache   StatementCache StatementCacheMetrics StatementCachingConnection TableVersions]
+    [asphalt.instrument ConnectionLeak ConnectionLeaseTracker
+                        FastJdbcEventListener JdbcEventFactory JdbcEventListener JdbcEventListenerAdapter
+                        LatencyRegistry SlowQueryLog]
+    [asphalt.pool    ConnectionPool ReplicaBalancer]))
 
 
 ;; ----- error reporting -----
@@ -173,11 +181,118 @@
 ;; ----- statement helpers -----
 
 
+(def ^:private statement-option-values
+  {:result-set-type {:forward-only       ResultSet/TYPE_FORWARD_ONLY
+                     :scroll-insensitive ResultSet/TYPE_SCROLL_INSENSITIVE
+                     :scroll-sensitive   ResultSet/TYPE_SCROLL_SENSITIVE}
+   :concurrency     {:read-only          ResultSet/CONCUR_READ_ONLY
+                     :updatable          ResultSet/CONCUR_UPDATABLE}
+   :holdability     {:hold-over-commit   ResultSet/HOLD_CURSORS_OVER_COMMIT
+                     :close-at-commit    ResultSet/CLOSE_CURSORS_AT_COMMIT}})
+
+
+(defn compile-statement-options
+  "Validate statement options and resolve the keyword values to the java.sql.ResultSet constants, returning a map."
+  [options]
+  (expected map? "statement options to be a map" options)
+  (reduce-kv (fn [m k v]
+               (case k
+                 (:result-set-type
+                   :concurrency
+                   :holdability) (let [values (get statement-option-values k)]
+                                   (assoc m k (or (get values v)
+                                                (expected (str "statement option " k " to be either of "
+                                                            (vec (keys values))) v))))
+                 (:fetch-size
+                   :max-rows)    (do (expected #(and (integer? %) (>= (long %) 0))
+                                       (str "statement option " k " to be a non-negative integer") v)
+                                   (assoc m k (long v)))
+                 (expected (str "statement option key to be either of "
+                             (conj (vec (keys statement-option-values)) :fetch-size :max-rows)) k)))
+    {} options))
+
+
 (defn prepare-statement
-  ^PreparedStatement [^Connection connection ^String sql return-generated-keys?]
-  (if return-generated-keys?
-    (.prepareStatement connection sql Statement/RETURN_GENERATED_KEYS)
-    (.prepareStatement connection sql)))
+  "Prepare statement on given connection, registering it (for cancellation) with the asynchronous task, if any, running
+  on the current thread. Apply the statement options (see `compile-statement-options`), if any. Result set type,
+  concurrency and holdability are ignored when generated keys are requested, as JDBC does not support both."
+  (^PreparedStatement [^Connection connection ^String sql return-generated-keys?]
+    (prepare-statement connection sql return-generated-keys? nil))
+  (^PreparedStatement [^Connection connection ^String sql return-generated-keys? stmt-options]
+    (let [pstmt (cond
+                  return-generated-keys?  (.prepareStatement connection sql Statement/RETURN_GENERATED_KEYS)
+                  (or (nil? stmt-options)
+                    (not (or (contains? stmt-options :result-set-type)
+                           (contains? stmt-options :concurrency)
+                           (contains? stmt-options :holdability))))
+                  (.prepareStatement connection sql)
+                  (contains? stmt-options :holdability)
+                  (.prepareStatement connection sql
+                    (int (get stmt-options :result-set-type ResultSet/TYPE_FORWARD_ONLY))
+                    (int (get stmt-options :concurrency ResultSet/CONCUR_READ_ONLY))
+                    (int (get stmt-options :holdability)))
+                  :otherwise
+                  (.prepareStatement connection sql
+                    (int (get stmt-options :result-set-type ResultSet/TYPE_FORWARD_ONLY))
+                    (int (get stmt-options :concurrency ResultSet/CONCUR_READ_ONLY))))]
+      (StatementFuture/register pstmt)
+      (when stmt-options
+        (when-let [fetch-size (get stmt-options :fetch-size)]
+          (.setFetchSize pstmt (int fetch-size)))
+        (when-let [max-rows (get stmt-options :max-rows)]
+          (let [max-rows (long max-rows)]
+            (if (<= max-rows Integer/MAX_VALUE)
+              (.setMaxRows pstmt (int max-rows))
+              (try
+                (.setLargeMaxRows pstmt max-rows)  ; JDBC 4.2
+                (catch UnsupportedOperationException e
+                  (.setMaxRows pstmt 0))
+                (catch SQLFeatureNotSupportedException e
+                  (.setMaxRows pstmt 0)))))))
+      pstmt)))
+
+
+(defn statement-options
+  "Return the compiled statement options carried by given SQL source, if any."
+  [sql-source]
+  (when (instance? clojure.lang.IRecord sql-source)
+    (:stmt-options sql-source)))
+
+
+(defn execute-large-batch
+  "Execute batch on given statement using java.sql.Statement/executeLargeBatch (JDBC 4.2), returning the update counts
+  as a long array. Return nil if the driver does not support it, in which case the batch is left intact."
+  ^longs [^Statement stmt]
+  (try
+    (.executeLargeBatch stmt)
+    (catch UnsupportedOperationException e
+      nil)
+    (catch SQLFeatureNotSupportedException e
+      nil)))
+
+
+(defn execute-batch
+  "Execute batch on given statement using java.sql.Statement/executeBatch, returning the update counts as a long array."
+  ^longs [^Statement stmt]
+  (let [^ints counts (.executeBatch stmt)
+        n (alength counts)
+        ^longs result (long-array n)]
+    (loop [i 0]
+      (when (< i n)
+        (aset result i (aget counts i))
+        (recur (unchecked-inc i))))
+    result))
+
+
+(defn concat-longs
+  "Concatenate a java.util.List of long arrays into a single long array."
+  ^longs [^java.util.List arrays]
+  (let [^longs result (long-array (reduce (fn [^long n ^longs arr] (+ n (alength arr))) 0 arrays))]
+    (reduce (fn [^long offset ^longs arr]
+              (System/arraycopy arr 0 result offset (alength arr))
+              (+ offset (alength arr)))
+      0 arrays)
+    result))
 
 
 ;; ----- transaction stuff -----
@@ -233,6 +348,53 @@
 ;; ----- protocol stuff -----
 
 
+(def ^:private ^ConcurrentHashMap resolved-drivers (ConcurrentHashMap.))
+
+
+(defn resolve-driver
+  "Return the java.sql.Driver instance for given JDBC URL, loading the driver class (if specified) only the first time."
+  ^Driver [classname ^String url]
+  (or (.get resolved-drivers url)
+    (do
+      (when classname
+        (Class/forName ^String classname))
+      (let [driver (DriverManager/getDriver url)]
+        (or (.putIfAbsent resolved-drivers url driver)
+          driver)))))
+
+
+(defn driver-connection
+  "Obtain a connection for given JDBC URL and properties from the (cached) JDBC driver."
+  ^Connection [classname ^String url ^Properties properties]
+  (or (.connect (resolve-driver classname url) url properties)
+    (throw (SQLException. (str "No suitable driver found for " url) "08001"))))
+
+
+(defn user-properties
+  "Return java.util.Properties instance with JDBC user and password (when not nil)."
+  ^Properties [user password]
+  (let [p (Properties.)]
+    (when user     (.setProperty p "user"     ^String user))
+    (when password (.setProperty p "password" ^String password))
+    p))
+
+
+(def ^:private ^ConcurrentHashMap resolved-datasources (ConcurrentHashMap.))
+
+
+(defn resolve-jndi-datasource
+  "Lookup (only the first time for given arguments) and return the JNDI datasource."
+  ^DataSource [name context environment]
+  (let [k [name context environment]]
+    (or (.get resolved-datasources k)
+      (let [^Context c (or context
+                         (InitialContext. (and environment
+                                            (Hashtable. ^Map environment))))
+            ^DataSource d (.lookup c ^String name)]
+        (or (.putIfAbsent resolved-datasources k d)
+          d)))))
+
+
 (extend-protocol t/IConnectionSource
   java.sql.Connection
   (create-connection      [this] (throw (UnsupportedOperationException.
@@ -261,31 +423,19 @@
                                      datasource           (.getConnection ^DataSource datasource)
                                      (or (and connection-uri username password)
                                        (and connection-uri
-                                         user password))  (do
-                                                            (when classname
-                                                              (Class/forName ^String classname))
-                                                            (DriverManager/getConnection connection-uri
-                                                              ^String (or username user) ^String password))
-                                     connection-uri       (do
-                                                            (when classname
-                                                              (Class/forName ^String classname))
-                                                            (DriverManager/getConnection connection-uri))
+                                         user password))  (driver-connection classname connection-uri
+                                                            (user-properties (or username user) password))
+                                     connection-uri       (driver-connection classname connection-uri (Properties.))
                                      (and subprotocol
                                        subname)           (let [url (format "jdbc:%s:%s" subprotocol subname)
                                                                 cfg (dissoc this :classname :subprotocol :subname)]
-                                                            (when classname
-                                                              (Class/forName classname))
-                                                            (DriverManager/getConnection
-                                                              url (let [p (Properties.)]
-                                                                    (doseq [[k v] (seq cfg)]
-                                                                      (.setProperty p (as-str k) v))
-                                                                    p)))
-                                     name                 (let [^Context c (or context
-                                                                             (InitialContext.
-                                                                               (and environment
-                                                                                 (Hashtable. ^Map environment))))
-                                                                ^DataSource d (.lookup c ^String name)]
-                                                            (.getConnection d))
+                                                            (driver-connection classname url
+                                                              (let [p (Properties.)]
+                                                                (doseq [[k v] (seq cfg)]
+                                                                  (.setProperty p (as-str k) v))
+                                                                p)))
+                                     name                 (.getConnection
+                                                            (resolve-jndi-datasource name context environment))
                                      :otherwise           (expected "a valid connection-source map" this))))
   (return-connection [this conn] (when-not (:connection this)
                                    (.close ^Connection conn))))
@@ -309,6 +459,181 @@
          (t/return-connection conn-source# ~connection)))))
 
 
+(def ^:private ^Pattern read-only-sql-start (Pattern/compile "\\s*select\\b" Pattern/CASE_INSENSITIVE))
+
+
+(def ^:private ^Pattern locking-read-clause (Pattern/compile "\\bfor\\s+(update|share)\\b" Pattern/CASE_INSENSITIVE))
+
+
+(defn read-only-sql?
+  "Return true if given SQL is a plain (non-locking) SELECT statement, false otherwise."
+  [^String sql]
+  (and (.lookingAt (.matcher read-only-sql-start sql))
+    (not (.find (.matcher locking-read-clause sql)))))
+
+
+(def ^:private table-token-regex
+  ;; `(` with the following word, or a (possibly qualified and quoted) name with `(` when it is a function call
+  "(\\(\\s*[\\w$]*|(?:\"[^\"]*\"|`[^`]*`|\\[[^\\]]*\\]|[\\w$.])+\\(?)")
+
+
+(def ^:private ^Pattern table-ref-pattern
+  ;; table reference after keyword, or after `) alias,` (i.e. following a sub-query)
+  (Pattern/compile (str "(?:\\b(join|update|into|table|using)\\s+|\\)\\s*(?:as\\s+)?[\\w$]+\\s*,\\s*)"
+                     table-token-regex)
+    Pattern/CASE_INSENSITIVE))
+
+
+(def ^:private ^Pattern table-token-pattern (Pattern/compile (str "\\s*" table-token-regex)))
+
+
+(def ^:private ^Pattern from-clause-pattern
+  (Pattern/compile (str "\\bfrom\\s+(.+?)(?=\\b(?:where|group|order|having|limit|offset|fetch|union|intersect|except"
+                     "|join|inner|left|right|full|cross|natural|on|using|for|window)\\b|[();]|$)")
+    (bit-or Pattern/CASE_INSENSITIVE Pattern/DOTALL)))
+
+
+(defn normalize-table-name
+  "Return lower-case table name without schema prefix and quotes, or nil if not a table name (e.g. a sub-query)."
+  [^String table-ref]
+  (let [^String table (-> (str/replace table-ref #"[\"`\[\]]" "")
+                        (str/split #"\.")
+                        last)]
+    (when (and table (re-matches #"[A-Za-z_][\w$]*" table))
+      (str/lower-case table))))
+
+
+(def ^:private non-table-words #{"only" "lateral" "unnest" "table" "values" "select" "with" "rows" "set"})
+
+
+(defn- resolve-table-ref
+  "Return the normalized table name for given table reference token, following given (lower-case) keyword or nil
+  after a sub-query. Return :sub-query for a parenthesized sub-query (whose tables are found separately), :skip for
+  a column list, or nil if unresolved (e.g. a parenthesized join, a table function or a keyword)."
+  [^String keyword ^String token]
+  (let [write? (contains? #{"update" "into" "table"} keyword)]
+    (cond
+      (.startsWith token "(") (cond
+                                (#{"select" "with" "values"} (str/lower-case (str/trim (subs token 1)))) :sub-query
+                                (= "using" keyword) :skip  ; join column list
+                                :otherwise          nil)
+      (and (.endsWith token "(")
+        (not write?))         nil  ; table function, but a column list when writing
+      :otherwise              (let [table (normalize-table-name (str/replace token #"\($" ""))]
+                                (when-not (contains? non-table-words table)
+                                  table)))))
+
+
+(defn sql-tables
+  "Return a sorted vector of the (normalized, lower-case) table names referred to by given SQL. Unresolved table
+  references (e.g. a parenthesized join, a table function or a keyword such as ONLY or LATERAL) are ignored, unless
+  `strict?` is true, in which case nil is returned."
+  ([sql]
+    (sql-tables sql false))
+  ([^String sql strict?]
+    (let [tables (java.util.TreeSet.)
+          failed (volatile! false)
+          add!   (fn [keyword token]
+                   (let [table (resolve-table-ref (some-> ^String keyword str/lower-case) token)]
+                     (cond
+                       (string? table) (.add tables table)
+                       (nil? table)    (vreset! failed true))))]
+      (let [m (.matcher table-ref-pattern sql)]
+        (while (.find m)
+          (add! (.group m 1) (.group m 2))))
+      (let [m (.matcher from-clause-pattern sql)]
+        (loop [start 0]
+          (when (.find m (int start))  ; find from just after each FROM keyword, so that nested FROM clauses are found
+            ;; match each item in the SQL itself, as the FROM clause excludes a `(` following a table function name
+            (reduce (fn [^long offset ^String item]
+                      (let [tm (.region (.matcher table-token-pattern sql) offset (.length sql))]
+                        (if (.lookingAt tm)
+                          (add! "from" (.group tm 1))
+                          (vreset! failed true)))
+                      (+ offset (.length item) 1))
+              (.start m 1) (str/split (.group m 1) #","))
+            (recur (+ (.start m) 4)))))
+      (when-not (and strict? @failed)
+        (vec tables)))))
+
+
+(def ^TableVersions table-versions (TableVersions.))
+
+
+(def ^:private ^ConcurrentHashMap written-tables (ConcurrentHashMap.))
+
+
+(def ^:private ^ConcurrentHashMap txn-written-tables (ConcurrentHashMap.))  ; connection -> tables written in txn
+
+
+(def ^:private all-tables "*")  ; not a valid (normalized) table name
+
+
+(defn- sql-written-tables
+  "Return the tables written to by given SQL as an array, or `all-tables` when the tables cannot be determined."
+  ^"[Ljava.lang.String;" [^String sql]
+  (or (.get written-tables sql)
+    (let [tables (into-array String (or (not-empty (sql-tables sql true)) [all-tables]))]
+      (when (< (.size written-tables) 1024)  ; bounded, as SQL strings may be generated
+        (.put written-tables sql tables))
+      tables)))
+
+
+(defn- bump-tables
+  [tables]
+  (doseq [^String table tables]
+    (if (= all-tables table)
+      (.bumpAll table-versions)
+      (.bump table-versions table))))
+
+
+(defn invalidate-tables
+  "Invalidate cached query results depending on the tables written to by given SQL, or all cached results when the
+  tables cannot be determined. When a connection in a transaction (i.e. not in auto-commit mode) is specified, the
+  tables are recorded to be invalidated again upon commit (see `invalidate-txn-tables`), so that results read after
+  the write but before the commit do not stay cached. Does nothing unless some SQL template caches its results."
+  ([^String sql]
+    (when (.isActive table-versions)
+      (bump-tables (sql-written-tables sql))))
+  ([^Connection connection ^String sql]
+    (when (.isActive table-versions)
+      (let [tables (sql-written-tables sql)]
+        (bump-tables tables)
+        (when-not (.getAutoCommit connection)
+          (let [^java.util.Set txn-tables (.computeIfAbsent txn-written-tables connection
+                                             (reify Function
+                                               (apply [_ _] (ConcurrentHashMap/newKeySet))))]
+            (doseq [table tables]
+              (.add txn-tables table))))))))
+
+
+(defn invalidate-txn-tables
+  "End tracking the tables written to in the transaction of given connection, invalidating the cached query results
+  depending on them if the transaction is `committed?`."
+  [connection committed?]
+  (when-let [tables (.remove txn-written-tables connection)]
+    (when committed?
+      (bump-tables tables))))
+
+
+(defmacro with-read-connection
+  "Like `with-connection`, except that a read connection is obtained when the source supports it (i.e. implements
+  asphalt.type.IReadConnectionSource) and the SQL is read-only."
+  [[connection connection-source sql] & body]
+  (when-not (symbol? connection)
+    (expected "a symbol" connection))
+  `(let [conn-source# ~connection-source
+         read?#       (and (instance? asphalt.type.IReadConnectionSource conn-source#) (read-only-sql? ~sql))
+         ~(if (:tag (meta connection))
+            connection
+            (vary-meta connection assoc :tag java.sql.Connection)) (if read?#
+                                                                      (t/obtain-read-connection conn-source#)
+                                                                      (t/obtain-connection conn-source#))]
+     (try ~@body
+       (finally
+         (t/return-connection conn-source# ~connection)))))
+
+
 (defmacro with-new-connection
   "Bind `connection` (symbol) to a connection created from specified source, evaluating the body of code in that
   context. Return connection to source in the end."
@@ -324,6 +649,200 @@
          (t/return-connection conn-source# ~connection)))))
 
 
+;; ----- prepared statement caching -----
+
+
+(defn unwrap-caching-connection
+  "Return the asphalt.cache.StatementCachingConnection instance wrapped by given connection, nil if there is none."
+  ^StatementCachingConnection [^Connection connection]
+  (cond
+    (instance? StatementCachingConnection connection)     connection
+    (.isWrapperFor connection StatementCachingConnection) (.unwrap connection StatementCachingConnection)
+    :otherwise                                            nil))
+
+
+(defn- make-caching-connection
+  "Make a statement caching connection that, when closed directly, removes itself from the connections map."
+  ^StatementCachingConnection [^Connection raw ^long cache-size ^StatementCacheMetrics metrics
+                               ^ConcurrentHashMap connections]
+  (StatementCachingConnection. raw (StatementCache. cache-size metrics)
+    (reify Consumer
+      (accept [_ scc] (.remove connections raw scc)))))
+
+
+(defrecord StatementCachingConnectionSource
+  [connection-source ^long cache-size ^StatementCacheMetrics metrics ^ConcurrentHashMap connections]
+  t/IConnectionSource
+  (create-connection [this] (let [raw (t/create-connection connection-source)
+                                  scc (make-caching-connection raw cache-size metrics connections)]
+                              (.put connections raw scc)
+                              scc))
+  (obtain-connection [this] (let [raw (t/obtain-connection connection-source)]
+                              (or (.get connections raw)
+                                (let [scc (make-caching-connection raw cache-size metrics connections)]
+                                  (or (.putIfAbsent connections raw scc)
+                                    scc)))))
+  (return-connection [this conn] (let [scc (unwrap-caching-connection conn)
+                                       ^Connection raw (if scc (.getDelegate scc) conn)]
+                                   (try
+                                     (t/return-connection connection-source raw)
+                                     (finally
+                                       ;; discard the cache when the underlying connection is gone for good
+                                       (when (.isClosed raw)
+                                         (when-let [^StatementCachingConnection old (.remove connections raw)]
+                                           (.close (.getCache old)))))))))
+
+
+;; ----- read/write splitting -----
+
+
+(defn- lease-replica-connection
+  "Record a lease of the connection from the replica at given index. Leases are counted per connection, as a replica
+  source may hand out the same connection more than once (e.g. a java.sql.Connection used as a connection source)."
+  [^ConcurrentHashMap replica-leases conn ^long index]
+  (.compute replica-leases conn (reify BiFunction
+                                  (apply [_ _ lease] (if lease
+                                                       [(first lease) (inc ^long (second lease))]
+                                                       [index 1])))))
+
+
+(defn- unlease-replica-connection
+  "Remove a lease of the connection, returning the replica index if leased from a replica, nil otherwise."
+  [^ConcurrentHashMap replica-leases conn]
+  (let [index (volatile! nil)]
+    (.computeIfPresent replica-leases conn (reify BiFunction
+                                             (apply [_ _ lease] (let [[i ^long n] lease]
+                                                                  (vreset! index i)
+                                                                  (when (> n 1)
+                                                                    [i (dec n)])))))
+    @index))
+
+
+(defrecord ReadWriteConnectionSource
+  [primary replicas ^ReplicaBalancer balancer ^ConcurrentHashMap replica-leases]
+  t/IConnectionSource
+  (create-connection      [this] (t/create-connection primary))
+  (obtain-connection      [this] (t/obtain-connection primary))
+  (return-connection [this conn] (if-let [index (unlease-replica-connection replica-leases conn)]
+                                   (try
+                                     (t/return-connection (get replicas index) conn)
+                                     (finally
+                                       (.release balancer (int index))))
+                                   (t/return-connection primary conn)))
+  t/IReadConnectionSource
+  (obtain-read-connection [this] (let [index   (.acquire balancer)
+                                       replica (get replicas index)]
+                                   (try
+                                     (let [^Connection conn (t/obtain-connection replica)]
+                                       (try
+                                         (when-not (.isReadOnly conn)
+                                           (.setReadOnly conn true))
+                                         (catch Throwable e
+                                           (t/return-connection replica conn)
+                                           (throw e)))
+                                       (lease-replica-connection replica-leases conn index)
+                                       conn)
+                                     (catch Throwable e
+                                       (.release balancer index)
+                                       (throw e))))))
+
+
+;; ----- connection pool -----
+
+
+(defrecord PooledConnectionSource
+  [^ConnectionPool pool]
+  t/IConnectionSource
+  (create-connection      [this] (.borrow pool))
+  (obtain-connection      [this] (.borrow pool))
+  (return-connection [this conn] (.release pool conn))
+  java.io.Closeable
+  (close [this] (.close pool)))
+
+
+;; ----- asynchronous execution -----
+
+
+(def ^:private virtual-executor (delay (AsyncExecutors/newVirtualThreadExecutor)))
+
+
+(def ^:private ^ConcurrentHashMap bounded-executors (ConcurrentHashMap.))
+
+
+(defn default-async-executor
+  "Return the default executor for asynchronous calls on given connection source, i.e. a shared virtual-thread executor
+  when the JVM supports it, otherwise a shared bounded executor with as many threads as the connection pool size (for
+  a pooled connection source) or twice the number of available processors."
+  ^Executor [connection-source]
+  (or @virtual-executor
+    (let [n (if (instance? PooledConnectionSource connection-source)
+              (.getMaxSize ^ConnectionPool (:pool connection-source))
+              (* 2 (.availableProcessors (Runtime/getRuntime))))]
+      (or (.get bounded-executors n)
+        (let [executor (AsyncExecutors/newBoundedExecutor (int n))]
+          (if-let [existing (.putIfAbsent bounded-executors n executor)]
+            (do (.shutdown ^ExecutorService executor)
+              existing)
+            executor))))))
+
+
+(defn submit-async
+  "Run (f) asynchronously using given executor (or the default one for connection source when nil), returning a
+  java.util.concurrent.CompletableFuture. Cancelling the future cancels the JDBC statement being executed, if any."
+  ^CompletableFuture [executor connection-source f]
+  (let [^Executor executor (or executor (default-async-executor connection-source))
+        future (StatementFuture. f)]
+    (.execute executor future)
+    future))
+
+
+;; ----- connection lease tracking -----
+
+
+(defn lease-connection
+  "Obtain a connection by calling (f connection-source), recording the lease with the given tracker."
+  ^Connection [^ConnectionLeaseTracker tracker f connection-source]
+  (let [start (System/nanoTime)
+        conn  (try
+                (f connection-source)
+                (catch Exception e
+                  (.acquireError tracker (- (System/nanoTime) start))
+                  (throw e)))]
+    (.acquire tracker conn (- (System/nanoTime) start))
+    conn))
+
+
+(defn connection-leak->map
+  [^ConnectionLeak leak]
+  {:thread      (.getThreadName leak)
+   :held-nanos  (.getHeldNanos leak)
+   :stack-trace (vec (.getStackTrace leak))
+   :returned?   (.isReturned leak)})
+
+
+(defn print-connection-leak
+  "Print given connection leak (map) to *err*."
+  [{:keys [thread held-nanos stack-trace returned?]}]
+  (binding [*out* *err*]
+    (println (format "Connection leak: held by thread '%s' for %d ms (%s), stack trace:"
+               thread (quot (long held-nanos) 1000000) (if returned? "returned" "still held")))
+    (doseq [each stack-trace]
+      (println "\tat" each))))
+
+
+(defrecord LeaseTrackingConnectionSource
+  [connection-source ^ConnectionLeaseTracker tracker on-leak]
+  t/IConnectionSource
+  (create-connection [this] (lease-connection tracker t/create-connection connection-source))
+  (obtain-connection [this] (lease-connection tracker t/obtain-connection connection-source))
+  (return-connection [this conn] (let [leak (.release tracker conn)]
+                                   (try
+                                     (t/return-connection connection-source conn)
+                                     (finally
+                                       (when leak
+                                         (on-leak (connection-leak->map leak))))))))
+
+
 ;; ----- connection source instrumentation -----
 
 
@@ -348,7 +867,15 @@
                                             (sqlQueryExecutionEventForPreparedStatement [this sql]
                                               (t/->SQLExecutionEvent true sql :sql-query))
                                             (sqlUpdateExecutionEventForPreparedStatement [this sql]
-                                              (t/->SQLExecutionEvent true sql :sql-update))))
+                                              (t/->SQLExecutionEvent true sql :sql-update))
+                                            ;; result set fetch
+                                            (sqlFetchEventForStatement [this sql first-row-nanos row-count round-trips]
+                                              (t/->SQLFetchEvent false sql :sql-fetch
+                                                first-row-nanos row-count round-trips))
+                                            (sqlFetchEventForPreparedStatement [this sql first-row-nanos row-count
+                                                                                round-trips]
+                                              (t/->SQLFetchEvent true sql :sql-fetch
+                                                first-row-nanos row-count round-trips))))
 
 
 (defn make-jdbc-event-listener
@@ -362,3 +889,45 @@
     (onSuccess [this id nanos event]       (on-success id nanos event))
     (onError   [this id nanos event error] (on-error   id nanos event error))
     (lastly    [this id nanos event]       (lastly     id nanos event))))
+
+
+(defn as-fast-jdbc-event-listener
+  "Given a JDBC event listener (asphalt.instrument.FastJdbcEventListener or asphalt.instrument.JdbcEventListener
+  instance, or a map of listener fns) return an asphalt.instrument.FastJdbcEventListener instance."
+  ^FastJdbcEventListener [listener]
+  (cond
+    (instance? FastJdbcEventListener listener) listener
+    (instance? JdbcEventListener listener)     (JdbcEventListenerAdapter/adapt listener)
+    :otherwise                                 (JdbcEventListenerAdapter/adapt (make-jdbc-event-listener listener))))
+
+
+(defn nop-listener?
+  "Return true if the argument is a NOP JDBC event listener, false otherwise."
+  [listener]
+  (or
+    (identical? listener FastJdbcEventListener/NOP)
+    (identical? listener JdbcEventListener/NOP)))
+
+
+(defn make-latency-listener
+  "Return a JDBC event listener that records the latency of every event having a SQL (keyed by the SQL) into the given
+  asphalt.instrument.LatencyRegistry instance."
+  ^FastJdbcEventListener [^LatencyRegistry registry]
+  (reify FastJdbcEventListener
+    (before    [this event]                0)
+    (onSuccess [this id nanos event]       (.record      registry ^String (:sql event) nanos))
+    (onError   [this id nanos event error] (.recordError registry ^String (:sql event) nanos))
+    (lastly    [this id nanos event]       nil)))
+
+
+(defn make-slow-query-listener
+  "Return a JDBC event listener that records every SQL execution into the given asphalt.instrument.SlowQueryLog
+  instance."
+  ^FastJdbcEventListener [^SlowQueryLog slow-query-log]
+  (reify FastJdbcEventListener
+    (before    [this event]                0)
+    (onSuccess [this id nanos event]       (.record slow-query-log ^String (:sql event) (:sql-stmt-type event)
+                                             nanos nil))
+    (onError   [this id nanos event error] (.record slow-query-log ^String (:sql event) (:sql-stmt-type event)
+                                             nanos ^Exception error))
+    (lastly    [this id nanos event]       nil)))
@@ -45,30 +45,39 @@
 
 
 (defn params-indices
-  [param-keys-vec param-types-vec params-sym]
-  (i/expected vector? "a vector of param keys" param-keys-vec)
-  (i/expected vector? "a vector of param types" param-types-vec)
-  (when-not (= (count param-keys-vec) (count param-types-vec))
-    (i/expected (format "param keys (%d) and param types (%d) to be of same length"
-                  (count param-keys-vec) (count param-types-vec))
-      {:param-keys param-keys-vec
-       :param-types param-types-vec}))
-  (if (every? (partial contains? t/single-typemap) param-types-vec)
-    (->> (iterate inc 1)
-      (take (count param-types-vec))
-      (apply vector-of :int))
-    (let [multi-counts (map-indexed (fn [^long idx pt]
-                                      (if (contains? t/single-typemap pt)
-                                        `1
-                                        `(let [pk# ~(get param-keys-vec idx)
-                                               vs# (get ~params-sym pk#)]
-                                           (i/expected coll? (str "multi-value collection against param key " pk#) vs#)
-                                           (count vs#))))
-                         param-types-vec)]
-      `(reduce (fn [cv# ^long pcount#]
-                 (conj cv# (unchecked-add (int (last cv#)) pcount#)))
-         (vector-of :int 1)  ; JDBC param index begins at 1
-         [~@multi-counts]))))
+  ([param-keys-vec param-types-vec params-sym]
+    (params-indices param-keys-vec param-types-vec params-sym (vec (repeat (count param-types-vec) nil))))
+  ([param-keys-vec param-types-vec params-sym group-widths-vec]
+    (i/expected vector? "a vector of param keys" param-keys-vec)
+    (i/expected vector? "a vector of param types" param-types-vec)
+    (when-not (= (count param-keys-vec) (count param-types-vec))
+      (i/expected (format "param keys (%d) and param types (%d) to be of same length"
+                    (count param-keys-vec) (count param-types-vec))
+        {:param-keys param-keys-vec
+         :param-types param-types-vec}))
+    (if (every? (partial contains? t/single-typemap) param-types-vec)
+      (->> (iterate inc 1)
+        (take (count param-types-vec))
+        (apply vector-of :int))
+      (let [multi-counts (map-indexed (fn [^long idx pt]
+                                        (cond
+                                          (contains? t/single-typemap pt)
+                                          `1
+                                          (contains? t/group-typemap pt)
+                                          `(let [pk# ~(get param-keys-vec idx)
+                                                 vs# (get ~params-sym pk#)]
+                                             (i/expected coll? (str "param-group collection against param key " pk#) vs#)
+                                             (unchecked-multiply (count vs#) ~(get group-widths-vec idx)))
+                                          :otherwise
+                                          `(let [pk# ~(get param-keys-vec idx)
+                                                 vs# (get ~params-sym pk#)]
+                                             (i/expected coll? (str "multi-value collection against param key " pk#) vs#)
+                                             (count vs#))))
+                           param-types-vec)]
+        `(reduce (fn [cv# ^long pcount#]
+                   (conj cv# (unchecked-add (int (last cv#)) pcount#)))
+           (vector-of :int 1)  ; JDBC param index begins at 1
+           [~@multi-counts])))))
 
 
 ;; ----- param setting helpers -----
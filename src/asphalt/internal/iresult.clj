@@ -16,7 +16,8 @@
     [java.math BigDecimal]
     [java.net  URL]
     [java.sql  Array Blob Clob Date NClob Ref ResultSet ResultSetMetaData RowId SQLXML Time Timestamp]
-    [java.util Calendar Map TimeZone]))
+    [java.util Arrays Calendar Map TimeZone]
+    [asphalt.row ColumnKeys ColumnKeysCache]))
 
 
 (defn tz-cal
@@ -194,3 +195,53 @@
          :url               [assoc  :tag "java.net.URL"]
          (i/expected-result-type column-type)))
      (read-column-expr column-type result-set-sym column-index-or-label col-arg)]))
+
+
+;; ----- reduce ResultSet rows -----
+
+
+(defn reduce-result-rows
+  "Reduce the remaining rows of a java.sql.ResultSet instance using reducing fn `f` and initial value `init`, making
+  each row with `row-maker` as it is read. Stop early when `f` returns a reduced value."
+  [f init row-maker sql-source ^ResultSet result-set]
+  (let [column-count (.getColumnCount (.getMetaData result-set))]
+    (loop [acc init]
+      (if (.next result-set)
+        (let [acc (f acc (row-maker sql-source result-set column-count))]
+          (if (reduced? acc)
+            @acc
+            (recur acc)))
+        acc))))
+
+
+;; ----- shared column keys for row maps -----
+
+
+(def ^:const max-cached-column-keys 1024)
+
+
+(def ^ColumnKeysCache column-keys-cache (ColumnKeysCache. max-cached-column-keys))
+
+
+(defn column-keys
+  "Return asphalt.row.ColumnKeys made by applying `key-maker` to the column labels of a java.sql.ResultSetMetaData
+  instance. The result is cached (least recently used evicted) per key-maker and column label signature."
+  ^ColumnKeys [key-maker ^ResultSetMetaData rsmd]
+  (let [column-count (.getColumnCount rsmd)
+        ^objects sig (object-array (unchecked-inc column-count))]
+    (aset sig 0 key-maker)
+    (loop [i 1]
+      (when (<= i column-count)
+        (aset sig i (.getColumnLabel rsmd i))
+        (recur (unchecked-inc i))))
+    (let [sig-key (Arrays/asList sig)]
+      (or (.get column-keys-cache sig-key)
+        (let [ks (->> (rest sig)
+                   (map key-maker)
+                   object-array)]
+          (when-not (apply distinct? (seq ks))
+            (throw (ex-info "Column keys must be unique" {:column-count column-count
+                                                          :column-keys (vec ks)})))
+          (let [ck (ColumnKeys. ks)]
+            (.put column-keys-cache sig-key ck)
+            ck))))))
@@ -15,7 +15,9 @@
     [asphalt.result   :as r]
     [asphalt.type     :as t])
   (:import
-    [java.sql PreparedStatement ResultSet]))
+    [java.sql PreparedStatement ResultSet]
+    [asphalt.cache  SqlShapeCache]
+    [asphalt.parser SqlParser]))
 
 
 ;; ----- parsing helpers -----
@@ -131,8 +133,9 @@
       delta-state)))
 
 
-(defn parse-sql-str
-  "Parse SQL string using escape char, named-param char and type-hint char, returning [sql named-params return-col-types]"
+(defn parse-sql-str-reference
+  "Reference implementation of `parse-sql-str` with map-based parser state, retained to verify the equivalence of
+  asphalt.parser.SqlParser."
   [^String sql ec mc tc]
   (let [^char ec ec ^char mc mc ^char tc tc nn (count sql)
         st (transient [])  ; SQL template (alternating tokens of SQL-string and param-name/type vectors)
@@ -178,12 +181,96 @@
     [(persistent! st) (persistent! ts)]))
 
 
+(defn parse-sql-str
+  "Parse SQL string using escape char, named-param char and type-hint char, returning [sql named-params return-col-types]"
+  [^String sql ec mc tc]
+  (SqlParser/parse sql (char ec) (char mc) (char tc)))
+
+
 ;; ----- SQL generation -----
 
 
-(def cached-qmarks
-  (memoize (fn [^long n]
-             (string/join ", " (repeat n \?)))))
+(def ^:const max-cached-qmarks 1024)
+
+
+(def ^"[Ljava.lang.String;" qmarks-cache (make-array String (unchecked-inc max-cached-qmarks)))
+
+
+(defn cached-qmarks
+  "Return comma separated `n` question marks, cached for `n` up to `max-cached-qmarks`."
+  ^String [^long n]
+  (if (<= n max-cached-qmarks)
+    (or (aget qmarks-cache n)
+      (let [qmarks (string/join ", " (repeat n \?))]
+        (aset qmarks-cache n qmarks)  ; benign race, strings are immutable
+        qmarks))
+    (string/join ", " (repeat n \?))))
+
+
+(defn make-group-placeholder
+  "Given a param group placeholder string, e.g. \"(?, ?)\", return a fn (fn [n]) -> placeholders-string for `n` groups."
+  [^String group-sql]
+  (fn [^long n]
+    (when-not (pos? n)
+      (i/illegal-arg "Expected one or more param groups, but found" n))
+    (string/join ", " (repeat n group-sql))))
+
+
+;; ----- multi-value param padding -----
+
+
+(defn pow2-bucket
+  "Return the smallest power of two that is greater than or equal to `n` (returns `n` for `n` less than 2)."
+  ^long [^long n]
+  (if (< n 2)
+    n
+    (bit-shift-left (Long/highestOneBit (unchecked-dec n)) 1)))
+
+
+(defn make-multi-padder
+  "Given multi-value param keys, their positions (indices) among the params and padding strategy (:repeat-last or
+  :null), return a fn (fn [params]) that pads every multi-value param (named in a map, or positional in a vector) up to
+  its power-of-two bucket size, repeating the last value or adding NULL values."
+  [multi-keys multi-indices padding]
+  (let [pad-value (case padding
+                    :repeat-last peek
+                    :null        (constantly nil)
+                    (i/expected "multi-value padding :repeat-last or :null" padding))
+        pad-param (fn [params k]
+                    (let [vs (get params k)]
+                      (if (coll? vs)
+                        (let [n (count vs)
+                              b (pow2-bucket n)]
+                          (if (= n b)
+                            params
+                            (let [v (vec vs)]
+                              (assoc params k (into v (repeat (unchecked-subtract b n) (pad-value v)))))))
+                        params)))
+        multi-keys (vec (distinct multi-keys))
+        multi-indices (vec multi-indices)]
+    (fn [params]
+      (cond
+        (map? params)    (reduce pad-param params multi-keys)
+        (vector? params) (reduce pad-param params multi-indices)
+        :otherwise       params))))
+
+
+(defn sql-shape-key
+  "Given SQL template tokens, a count-bucketing fn and SQL params, return the SQL shape key, i.e. a vector of bucketed
+  value-counts of multi-value/group params and values of non-params in the order of occurrence in the tokens."
+  [sql-tokens bucket params]
+  (let [key (transient [])]
+    (i/each-indexed [i 0
+                     token sql-tokens]
+      (when-not (string? token)
+        (let [[param-key param-type] token
+              k (if (vector? params) i param-key)]
+          (cond
+            (contains? t/multi-typemap param-type) (conj! key (bucket (count (get params k))))
+            (contains? t/group-typemap param-type) (conj! key (count (get params k)))
+            (contains? t/zero-typemap param-type)  (conj! key (i/as-str (get params k)))
+            :otherwise                             nil))))
+    (persistent! key)))
 
 
 (defn make-sql
@@ -198,8 +285,9 @@
         (.append sb ^String token)
         (let [[param-key param-type] token]
           (cond
-            ;; multi-value params
-            (contains? t/multi-typemap param-type)
+            ;; multi-value params and param groups
+            (or (contains? t/multi-typemap param-type)
+              (contains? t/group-typemap param-type))
             (let [k (if (vector? params) i param-key)]
               (if (contains? params k)
                 (if-let [cached-holder (get cached-param-placeholder param-key)]
@@ -223,11 +311,21 @@
 
 (defn bad-st-arity
   [^long n ^String sql-name]
-  (throw (clojure.lang.ArityException. n (str sql-name " (accepts 2 args)"))))
+  (throw (clojure.lang.ArityException. n (str sql-name " (accepts 1 to 3 args)"))))
+
+
+(defn invoke-async
+  "Invoke SQL template asynchronously with given options (see `asphalt.core/query-async`), returning a
+  java.util.concurrent.CompletableFuture of the result."
+  [sql-template connection-worker connection-source params options]
+  (i/expected map? "async options to be a map" options)
+  (i/submit-async (:executor options) connection-source
+    #(connection-worker connection-source sql-template params)))
 
 
 (defrecord StaticSqlTemplate
-  [^String sql-name ^String sql param-setter row-maker column-reader connection-worker]
+  [^String sql-name ^String sql param-setter row-maker column-reader connection-worker result-types result-cache
+   stmt-options]
   clojure.lang.Named
   (getNamespace [_] nil)
   (getName      [_] sql-name)
@@ -237,14 +335,12 @@
   (read-col   [this result-set] (column-reader result-set))
   (read-row   [this result-set col-count] (row-maker result-set col-count))
   clojure.lang.IFn
-  (applyTo    [this args] (let [n (count args)]
-                            (if (= 2 n)
-                              (apply connection-worker args)
-                              (bad-st-arity n sql-name))))
+  (applyTo    [this args] (clojure.lang.AFn/applyToHelper this args))
   (invoke     [this] (bad-st-arity 0 sql-name))
   (invoke     [this connection-source] (connection-worker connection-source this []))
   (invoke     [this connection-source params] (connection-worker connection-source this params))
-  (invoke     [this a b c] (bad-st-arity 3 sql-name))
+  (invoke     [this connection-source params options] (invoke-async this connection-worker connection-source params
+                                                            options))
   (invoke     [this a b c d] (bad-st-arity 4 sql-name))
   (invoke     [this a b c d e] (bad-st-arity 5 sql-name))
   (invoke     [this a b c d e f] (bad-st-arity 6 sql-name))
@@ -266,24 +362,27 @@
 
 
 (defrecord DynamicSqlTemplate
-  [^String sql-name sql-tokens placeholder-fns param-setter row-maker column-reader connection-worker]
+  [^String sql-name sql-tokens placeholder-fns param-setter row-maker column-reader connection-worker
+   ^SqlShapeCache shape-cache multi-bucket multi-padder result-types result-cache stmt-options]
   clojure.lang.Named
   (getNamespace [_] nil)
   (getName      [_] sql-name)
   t/ISqlSource
-  (get-sql    [this params] (make-sql sql-tokens placeholder-fns params))
-  (set-params [this prepared-stmt params] (param-setter prepared-stmt params))
+  (get-sql    [this params] (let [shape-key (sql-shape-key sql-tokens multi-bucket params)]
+                              (or (.get shape-cache shape-key)
+                                (let [sql (make-sql sql-tokens placeholder-fns (multi-padder params))]
+                                  (.put shape-cache shape-key sql)
+                                  sql))))
+  (set-params [this prepared-stmt params] (param-setter prepared-stmt (multi-padder params)))
   (read-col   [this result-set] (column-reader result-set))
   (read-row   [this result-set col-count] (row-maker result-set col-count))
   clojure.lang.IFn
-  (applyTo    [this args] (let [n (count args)]
-                            (if (= 2 n)
-                              (apply connection-worker args)
-                              (bad-st-arity n sql-name))))
+  (applyTo    [this args] (clojure.lang.AFn/applyToHelper this args))
   (invoke     [this] (bad-st-arity 0 sql-name))
   (invoke     [this connection-source] (connection-worker connection-source this []))
   (invoke     [this connection-source params] (connection-worker connection-source this params))
-  (invoke     [this a b c] (bad-st-arity 3 sql-name))
+  (invoke     [this connection-source params options] (invoke-async this connection-worker connection-source params
+                                                            options))
   (invoke     [this a b c d] (bad-st-arity 4 sql-name))
   (invoke     [this a b c d e] (bad-st-arity 5 sql-name))
   (invoke     [this a b c d e f] (bad-st-arity 6 sql-name))
@@ -304,6 +403,16 @@
   (invoke     [this a b c d e f g h i j k l m n o p q r s t u] (bad-st-arity (+ 20 (alength u)) sql-name)))
 
 
+(defrecord StatementOptionsSqlSource
+  [sql-source stmt-options]
+  t/ISqlSource
+  (get-sql    [this params] (t/get-sql sql-source params))
+  (set-params [this prepared-stmt params] (t/set-params sql-source prepared-stmt params))
+  (read-col   [this result-set] (t/read-col sql-source result-set))
+  (read-row   [this result-set col-count] (let [read-row t/read-row]  ; avoid primitive invocation on ^long arg
+                                            (read-row sql-source result-set col-count))))
+
+
 (extend-protocol t/ISqlSource
   ;;==============
   java.lang.String
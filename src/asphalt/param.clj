@@ -48,48 +48,57 @@
   "Implementation detail of asphalt.param/lay-params.
   See:
     asphalt.param/lay-params"
-  [prepared-stmt param-keys param-types params]
-  (i/expected vector? "vector of SQL param keys" param-keys)
-  (i/expected vector? "vector of SQL param types" param-types)
-  (doseq [each-type param-types]
-    (when-not (contains? t/all-typemap each-type) (i/expected-param-type each-type)))
-  (when (not= (count param-types) (count param-keys))
-    (i/expected (format "param-types (%d) and param-keys (%d) to be of the same length"
-                  (count param-types) (count param-keys)) {:param-types param-types
-                                                           :param-keys  param-keys}))
-  (let [prepared-stmt-sym (with-meta (gensym "prepared-stmt-") {:tag "java.sql.PreparedStatement"})
-        params-sym  (gensym "sql-params-")
-        indices-sym (gensym "param-indices-")
-        indices-exp (iparam/params-indices param-keys param-types params-sym)]
-    `(let [~params-sym ~params
-           ~@(when-not (vector? indices-exp)  ; indices-exp is a vector for single params, S-expr otherwise
-               [indices-sym indices-exp])]
-       (let [~prepared-stmt-sym ~prepared-stmt]
-         ~(if (= param-keys (vec (range (count param-keys))))  ; is it vector params?
-            `(when (< (count ~params-sym) ~(count param-keys)) ; short circuit for vector params
-               (i/expected (str ~(count param-keys) " or more params") ~params-sym))
-            `(doseq [each-key# ~param-keys]
-               (when-not (contains? ~params-sym each-key#)
-                 (i/expected (str "key " each-key# " to be present in SQL params") ~params-sym))))
-         ~@(->> (map vector param-types param-keys)
-             (remove #(contains? t/zero-typemap (first %)))  ; zerotype is not a param
-             (map-indexed (fn [^long idx [t k]]
-                            (iparam/lay-param-expr prepared-stmt-sym t
-                              (if (vector? indices-exp)  ; indices-exp is vector for single params, S-expr otherwise
-                                (get indices-exp idx)
-                                `(get ~indices-sym ~idx))
-                              `(get ~params-sym ~k)))))))))
+  ([prepared-stmt param-keys param-types params]
+    `(lay-params* ~prepared-stmt ~param-keys ~param-types ~params ~(vec (repeat (count param-types) nil)) nil))
+  ([prepared-stmt param-keys param-types params group-widths group-layers]
+    (i/expected vector? "vector of SQL param keys" param-keys)
+    (i/expected vector? "vector of SQL param types" param-types)
+    (doseq [each-type param-types]
+      (when-not (contains? t/all-typemap each-type) (i/expected-param-type each-type)))
+    (when (not= (count param-types) (count param-keys))
+      (i/expected (format "param-types (%d) and param-keys (%d) to be of the same length"
+                    (count param-types) (count param-keys)) {:param-types param-types
+                                                             :param-keys  param-keys}))
+    (let [prepared-stmt-sym (with-meta (gensym "prepared-stmt-") {:tag "java.sql.PreparedStatement"})
+          params-sym  (gensym "sql-params-")
+          indices-sym (gensym "param-indices-")
+          indices-exp (iparam/params-indices param-keys param-types params-sym group-widths)]
+      `(let [~params-sym ~params
+             ~@(when-not (vector? indices-exp)  ; indices-exp is a vector for single params, S-expr otherwise
+                 [indices-sym indices-exp])]
+         (let [~prepared-stmt-sym ~prepared-stmt]
+           ~(if (= param-keys (vec (range (count param-keys))))  ; is it vector params?
+              `(when (< (count ~params-sym) ~(count param-keys)) ; short circuit for vector params
+                 (i/expected (str ~(count param-keys) " or more params") ~params-sym))
+              `(doseq [each-key# ~param-keys]
+                 (when-not (contains? ~params-sym each-key#)
+                   (i/expected (str "key " each-key# " to be present in SQL params") ~params-sym))))
+           ~@(->> (map vector param-types param-keys (range))
+               (remove #(contains? t/zero-typemap (first %)))  ; zerotype is not a param
+               (map-indexed (fn [^long idx [t k ^long pos]]
+                              (let [pidx-exp (if (vector? indices-exp)  ; indices-exp is vector for single params
+                                               (get indices-exp idx)
+                                               `(get ~indices-sym ~idx))]
+                                (if (contains? t/group-typemap t)
+                                  `((get ~group-layers ~pos) ~prepared-stmt-sym ~pidx-exp (get ~params-sym ~k))
+                                  (iparam/lay-param-expr prepared-stmt-sym t pidx-exp `(get ~params-sym ~k))))))))))))
 
 
 (defmacro lay-params
-  "Given literal SQL param types and keys, return an expression to set vector/map params on a JDBC prepared statement."
+  "Given literal SQL param types and keys, return an expression to set vector/map params on a JDBC prepared statement.
+  Param groups (type :group) need literal group widths and an expression evaluating to param-group layers (see
+  `make-group-params-layer`), both as vectors aligned with param types."
   ([prepared-stmt param-keys param-types params]
+    `(lay-params ~prepared-stmt ~param-keys ~param-types ~params ~(vec (repeat (count param-types) nil)) nil))
+  ([prepared-stmt param-keys param-types params group-widths group-layers]
     (let [params-sym (gensym "sql-params-")]
       `(let [~params-sym ~params]
          (cond
            (vector?
-             ~params-sym)     (lay-params* ~prepared-stmt ~(vec (range (count param-types))) ~param-types ~params-sym)
-           (map? ~params-sym) (lay-params* ~prepared-stmt ~param-keys ~param-types ~params-sym)
+             ~params-sym)     (lay-params* ~prepared-stmt ~(vec (range (count param-types))) ~param-types ~params-sym
+                                ~group-widths ~group-layers)
+           (map? ~params-sym) (lay-params* ~prepared-stmt ~param-keys ~param-types ~params-sym
+                                ~group-widths ~group-layers)
            (nil? ~params-sym) nil
            :otherwise         (i/expected "SQL params as a vector/map/nil" ~params-sym)))))
   ([prepared-stmt param-key-type-pairs params]
@@ -100,11 +109,55 @@
        ~params)))
 
 
-(defn make-params-layer
-  "Given param keys and types, return a type-aware efficient params setter fn."
+(defn make-group-params-layer
+  "Given param keys and single-value param types of a param group, return a type-aware efficient fn
+  (fn [prepared-stmt start-index groups]) that sets each group (vector/map) of params in succession, beginning at the
+  JDBC param index `start-index`."
   [param-keys param-types]
-  (eval `(fn [^PreparedStatement prepared-stmt# params#]
-           (lay-params prepared-stmt# ~param-keys ~param-types params#))))
+  (i/expected vector? "vector of group param keys" param-keys)
+  (i/expected vector? "vector of group param types" param-types)
+  (doseq [each-type param-types]
+    (i/expected #(contains? t/single-typemap %) "single-value param type in a param group" each-type))
+  (let [width     (count param-types)
+        pstmt-sym (with-meta (gensym "prepared-stmt-") {:tag "java.sql.PreparedStatement"})
+        base-sym  (gensym "base-index-")
+        group-sym (gensym "group-")
+        lay-group (fn [ks] (map (fn [^long idx k t]
+                                  (iparam/lay-param-expr pstmt-sym t `(unchecked-add ~base-sym ~idx)
+                                    `(get ~group-sym ~k)))
+                             (range) ks param-types))]
+    (eval `(fn [~pstmt-sym start-index# groups#]
+             (reduce (fn [^long ~base-sym ~group-sym]
+                       (cond
+                         (vector? ~group-sym) (do
+                                                (when (< (count ~group-sym) ~width)
+                                                  (i/expected ~(str width " or more params in param group") ~group-sym))
+                                                ~@(lay-group (range width)))
+                         (map? ~group-sym)    (do
+                                                (doseq [each-key# ~param-keys]
+                                                  (when-not (contains? ~group-sym each-key#)
+                                                    (i/expected (str "key " each-key# " to be present in param group")
+                                                      ~group-sym)))
+                                                ~@(lay-group param-keys))
+                         :otherwise           (i/expected "param group as a vector/map" ~group-sym))
+                       (unchecked-add ~base-sym ~width))
+               start-index# groups#)))))
+
+
+(defn make-params-layer
+  "Given param keys and types, return a type-aware efficient params setter fn. Param groups (type :group) need group
+  widths and param-group layers (see `make-group-params-layer`) as vectors aligned with param types."
+  ([param-keys param-types]
+    (eval `(fn [^PreparedStatement prepared-stmt# params#]
+             (lay-params prepared-stmt# ~param-keys ~param-types params#))))
+  ([param-keys param-types group-widths group-layers]
+    (i/expected vector? "vector of group widths" group-widths)
+    (i/expected vector? "vector of param-group layers" group-layers)
+    (let [layers-sym (gensym "group-layers-")]
+      ((eval `(fn [~layers-sym]
+                (fn [^PreparedStatement prepared-stmt# params#]
+                  (lay-params prepared-stmt# ~param-keys ~param-types params# ~group-widths ~layers-sym))))
+        group-layers))))
 
 
 ;; ----- set SQL params at runtime -----
@@ -151,6 +151,23 @@
 ;; ----- transactions -----
 
 
+(defn- commit-txn
+  "Commit the transaction, then invalidate the cached query results depending on the tables written to in it."
+  [propagation txn-connection-source txn-context]
+  (let [connection (:connection txn-connection-source)]
+    (t/commit-txn propagation connection txn-context)
+    (i/invalidate-txn-tables connection true)))
+
+
+(defn- rollback-txn
+  "Roll back the transaction, ending the tracking of the tables written to in it unless rolled back to a savepoint."
+  [propagation txn-connection-source txn-context]
+  (let [connection (:connection txn-connection-source)]
+    (t/rollback-txn propagation connection txn-context)
+    (when-not (:savepoint txn-context)
+      (i/invalidate-txn-tables connection false))))
+
+
 (defn invoke-with-transaction
   "Execute specified txn-worker in a transaction using connection-source and txn options:
   Arguments:
@@ -171,13 +188,13 @@
       (try
         (let [result (txn-worker txn-connection-source)]
           (if (success-result? result)
-            (t/commit-txn   propagation (:connection txn-connection-source) txn-context)
-            (t/rollback-txn propagation (:connection txn-connection-source) txn-context))
+            (commit-txn   propagation txn-connection-source txn-context)
+            (rollback-txn propagation txn-connection-source txn-context))
           result)
         (catch Throwable error
           (try (if (failure-error? error)
-                 (t/rollback-txn propagation (:connection txn-connection-source) txn-context)
-                 (t/commit-txn   propagation (:connection txn-connection-source) txn-context))
+                 (rollback-txn propagation txn-connection-source txn-context)
+                 (commit-txn   propagation txn-connection-source txn-context))
             (catch Exception swallow-nested-error))
           (throw error))))
     (merge options
@@ -18,6 +18,10 @@
   (return-connection  [this connection] "Return connection to the source"))
 
 
+(defprotocol IReadConnectionSource
+  (^java.sql.Connection obtain-read-connection [this] "Obtain connection from the source for read-only SQL"))
+
+
 (defprotocol ISqlSource
   (get-sql    [this params] "Return SQL string to be executed")
   (set-params [this ^PreparedStatement prepared-stmt params] "Set prepared-statement params")
@@ -136,7 +140,11 @@
                     :urls               :url})
 
 
-(def all-typemap (merge zero-typemap single-typemap multi-typemap))
+;; Param group, expands into one placeholder group per element, e.g. `VALUES (?, ?), (?, ?)`
+(def group-typemap {:group :group})
+
+
+(def all-typemap (merge zero-typemap single-typemap multi-typemap group-typemap))
 
 
 (defrecord StmtCreationEvent [^String sql
@@ -147,3 +155,10 @@
 (defrecord SQLExecutionEvent [^boolean prepared? ^String sql
                               ;; #{:sql :sql-query :sql-update}
                               sql-stmt-type])
+
+
+;; Reported on closing a result set: time to first row (nanos), row count and approximate driver round trips
+(defrecord SQLFetchEvent [^boolean prepared? ^String sql
+                          ;; #{:sql-fetch}
+                          sql-stmt-type
+                          ^long first-row-nanos ^long row-count ^long round-trips])
@@ -0,0 +1,26 @@
+;   Copyright (c) Shantanu Kumar. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file LICENSE at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+
+(ns asphalt.test-connpool
+  "Connection source maker for the built-in Asphalt connection pool."
+  (:require
+    [asphalt.core :as a]))
+
+
+(defn make-datasource
+  [{:keys [classname
+           jdbc-url
+           username
+           password]
+    :as config}]
+  (a/pooled-connection-source {:classname      classname
+                               :connection-uri jdbc-url
+                               :username       username
+                               :password       password}
+    {:max-size 10}))
@@ -12,10 +12,15 @@
     [clojure.test :refer :all]
     [asphalt.core     :as a]
     [asphalt.internal :as i]
+    [asphalt.transaction :as x]
     [asphalt.type     :as t])
   (:import
-    [java.sql  Connection DriverManager]
-    [javax.sql DataSource]))
+    [java.sql  Connection DriverManager SQLException]
+    [javax.sql DataSource]
+    [java.lang.reflect InvocationHandler Proxy]
+    [java.util.function LongSupplier]
+    [asphalt.instrument ConnectionLeaseTracker FastJdbcEventListener JdbcEventFactory JdbcEventListener LatencyHistogram
+                        LatencyRegistry LatencySnapshot SlowQueryLog]))
 
 
 (def h2-classname "org.h2.Driver")
@@ -119,3 +124,394 @@
       (is (instance? Connection conn))
       (t/return-connection db-spec conn)
       (is (.isClosed conn)))))
+
+
+(deftest test-caching-connection-source
+  (Class/forName h2-classname)
+  (with-open [^Connection conn (make-connection)]
+    (let [cs (a/caching-connection-source conn {:cache-size 2})
+          q1 "SELECT X FROM SYSTEM_RANGE(1, 10) WHERE X = ?"]
+      (testing "statement reuse"
+        (is (= [[3]] (a/query cs q1 [3])))
+        (is (= [[4]] (a/query cs q1 [4])))
+        (is (= {:hits 1 :misses 1 :evictions 0 :connections 1} (a/statement-cache-metrics cs true))))
+      (testing "statement key includes generated-keys flag"
+        (a/query cs q1 [5])
+        (i/with-connection [c cs]
+          (with-open [pstmt (i/prepare-statement c q1 true)]))
+        (is (= {:hits 1 :misses 1 :evictions 0 :connections 1} (a/statement-cache-metrics cs true))))
+      (testing "LRU eviction for SQL shapes varying with cardinality"
+        (a/defsql t-in "SELECT ^long X FROM SYSTEM_RANGE(1, 10) WHERE X IN (^longs $xs)")
+        (is (= [[1] [2]]     (a/query cs t-in {:xs [1 2]})))
+        (is (= [[1] [2] [3]] (a/query cs t-in {:xs [1 2 3]})))
+        (is (= [[4]]         (a/query cs t-in {:xs [4]})))
+        (is (= [[5] [6]]     (a/query cs t-in {:xs [5 6]})))
+        (is (= {:hits 0 :misses 4 :evictions 4 :connections 1} (a/statement-cache-metrics cs))))
+      (testing "nested use of the same SQL does not share the statement"
+        (is (= [[7] [8]] (a/query (fn [ss rs] (conj (a/query cs q1 [7]) (a/fetch-single-row ss rs))) cs q1 [8]))))
+      (testing "statement options are restored upon reuse"
+        (let [q2 "SELECT X FROM SYSTEM_RANGE(1, 5)"]
+          (is (= [[1] [2]] (a/query cs (a/with-statement-options q2 {:max-rows 2 :fetch-size 1}) [])))
+          (is (= [[1] [2] [3] [4] [5]] (a/query cs q2 []))))))
+    (is (not (.isClosed conn))))
+  (testing "connection closed directly, instead of being returned"
+    (let [cs (a/caching-connection-source ds {})
+          c  (t/obtain-connection cs)]
+      (is (= 1 (:connections (a/statement-cache-metrics cs))))
+      (.close ^Connection c)
+      (is (= 0 (:connections (a/statement-cache-metrics cs)))))))
+
+
+(deftest test-latency-recorder
+  (Class/forName h2-classname)
+  (testing "histogram accuracy"
+    (let [h (LatencyHistogram. 2)]
+      (doseq [v (range 1 10001)]
+        (.record h v))
+      (let [^LatencySnapshot s (.snapshot h true)]
+        (is (= 10000 (.getCount s)))
+        (is (= 10000 (.getMax s)))
+        (is (<= 5000 (.getValueAtPercentile s 50.0) (* 5000 1.0625)))
+        (is (<= 9900 (.getValueAtPercentile s 99.0) (* 9900 1.0625)))
+        (is (= 10000 (.getValueAtPercentile s 100.0))))
+      (is (zero? (.getCount (.snapshot h false))) "reset begins a new interval")))
+  (testing "bounded keys"
+    (let [recorder (a/make-latency-recorder {:max-keys 2})]
+      (doseq [sql ["a" "b" "c" "d" "a"]]
+        (.record ^LatencyRegistry (:execute recorder) ^String sql 100))
+      (is (= {"a" 2 "b" 1 "<other>" 2} (->> (a/latency-snapshot recorder)
+                                             :execute
+                                             (reduce-kv #(assoc %1 %2 (:count %3)) {}))))
+      (is (thrown? IllegalArgumentException (a/make-latency-recorder {:max-keys 0})))))
+  (with-open [^Connection conn (make-connection)]
+    (let [recorder (a/make-latency-recorder)
+          cs (a/instrument-connection-source conn (a/latency-listeners recorder))
+          q1 "SELECT X FROM SYSTEM_RANGE(1, 10) WHERE X = ?"
+          q2 "SELECT Y FROM nonexistent"]
+      (dotimes [i 5]
+        (is (= [[3]] (a/query cs q1 [3]))))
+      (is (thrown? SQLException (a/query cs q2 [])))
+      (let [{:keys [prepare execute]} (a/latency-snapshot recorder true)]
+        (is (= {:count 5 :errors 0} (select-keys (get prepare q1) [:count :errors])))
+        (is (= {:count 1 :errors 1} (select-keys (get prepare q2) [:count :errors])))
+        (is (= {:count 5 :errors 0} (select-keys (get execute q1) [:count :errors])))
+        (is (<= (get-in execute [q1 :p50]) (get-in execute [q1 :p99]) (get-in execute [q1 :max]))))
+      (is (= {:prepare {} :execute {}} (a/latency-snapshot recorder))))))
+
+
+(deftest test-fast-instrumentation
+  (Class/forName h2-classname)
+  (with-open [^Connection conn (make-connection)]
+    (testing "NOP listeners"
+      (is (identical? conn (a/instrument-connection-source conn {})) "nothing to instrument")
+      (is (identical? ds (a/instrument-datasource ds {:sql-execution JdbcEventListener/NOP}))))
+    (testing "long correlation IDs"
+      (let [calls (atom [])
+            ids   (atom 0)
+            sql   "SELECT X FROM SYSTEM_RANGE(1, 10) WHERE X = ?"
+            cs    (a/instrument-connection-source conn
+                    {:sql-execution (reify FastJdbcEventListener
+                                      (before    [this event]          (swap! ids inc))
+                                      (onSuccess [this id nanos event] (swap! calls conj [id (:sql-stmt-type event)]))
+                                      (onError   [this id nanos event e] (swap! calls conj [:error id]))
+                                      (lastly    [this id nanos event] (swap! calls conj [:lastly id])))})]
+        (is (= [[3]] (a/query cs sql [3])))
+        (is (= [[4]] (a/query cs sql [4])))
+        (is (= [[1 :sql-query] [:lastly 1] [2 :sql-query] [:lastly 2]] @calls))))
+    (testing "String correlation IDs"
+      (let [calls (atom [])
+            cs    (a/instrument-connection-source conn
+                    {:stmt-creation {:before     (fn [event] "foo")
+                                     :on-success (fn [id nanos event] (swap! calls conj [:success id]))
+                                     :lastly     (fn [id nanos event] (swap! calls conj [:lastly id]))}})]
+        (is (= [[3]] (a/query cs "SELECT X FROM SYSTEM_RANGE(1, 10) WHERE X = 3" [])))
+        (is (= [[:success "foo"] [:lastly "foo"]] @calls))))))
+
+
+(deftest test-result-set-fetch-event
+  (Class/forName h2-classname)
+  (with-open [^Connection conn (make-connection)]
+    (let [events (atom [])
+          cs     (a/instrument-connection-source conn
+                   {:sql-fetch {:on-success (fn [id ^long nanos event]
+                                              (swap! events conj (assoc event :nanos nanos)))}})
+          sql    "SELECT X FROM SYSTEM_RANGE(1, 25)"]
+      (is (= 25 (count (a/query cs sql []))))
+      (is (= 1 (count @events)))
+      (let [{:keys [prepared? first-row-nanos row-count round-trips nanos] :as event} (first @events)]
+        (is (instance? asphalt.type.SQLFetchEvent event))
+        (is (= [true sql 25] [prepared? (:sql event) row-count]))
+        (is (pos? round-trips))
+        (is (<= 0 first-row-nanos))
+        (is (<= 0 nanos)))
+      (testing "round trips estimated from fetch size"
+        (reset! events [])
+        (i/with-connection [^Connection c cs]
+          (with-open [stmt (.createStatement c)]
+            (.setFetchSize stmt 10)
+            (with-open [rs (.executeQuery stmt sql)]
+              (while (.next rs)))))
+        (is (= {:prepared? false :row-count 25 :round-trips 3}
+              (select-keys (first @events) [:prepared? :row-count :round-trips]))))))
+  (testing "event factory without fetch events"
+    (let [factory (reify JdbcEventFactory  ; implements only the execution events
+                    (jdbcStatementCreationEvent [_] :create)
+                    (jdbcPreparedStatementCreationEvent [_ sql] :create)
+                    (jdbcCallableStatementCreationEvent [_ sql] :create)
+                    (sqlExecutionEventForStatement [_ sql] [:exec sql])
+                    (sqlQueryExecutionEventForStatement [_ sql] [:query sql])
+                    (sqlUpdateExecutionEventForStatement [_ sql] [:update sql])
+                    (sqlExecutionEventForPreparedStatement [_ sql] [:exec-prepared sql])
+                    (sqlQueryExecutionEventForPreparedStatement [_ sql] [:query-prepared sql])
+                    (sqlUpdateExecutionEventForPreparedStatement [_ sql] [:update-prepared sql]))]
+      (is (= [:query "SELECT 1"] (.sqlFetchEventForStatement factory "SELECT 1" 0 1 1)))
+      (is (= [:query-prepared "SELECT 1"] (.sqlFetchEventForPreparedStatement factory "SELECT 1" 0 1 1))))))
+
+
+(deftest test-slow-query-log
+  (Class/forName h2-classname)
+  (testing "ring buffer"
+    (let [log (SlowQueryLog. 3 0 0)]  ; capacity rounded up to 4
+      (is (= 4 (.getCapacity log)))
+      (doseq [i (range 6)]
+        (.record log (str "sql-" i) :sql-query i nil))
+      (is (= ["sql-2" "sql-3" "sql-4" "sql-5"] (mapv :sql (a/slow-query-snapshot log))))
+      (is (= ["sql-2" "sql-3" "sql-4" "sql-5"] (mapv :sql (a/drain-slow-queries log))))
+      (is (= [] (a/drain-slow-queries log)) "drained entries are not returned again")
+      (.record log "sql-6" :sql-query 6 nil)
+      (is (= ["sql-6"] (mapv :sql (a/drain-slow-queries log))))
+      (is (= 4 (count (a/slow-query-snapshot log))) "snapshot is not affected by drain")))
+  (testing "threshold and sampling"
+    (let [none (a/make-slow-query-log {:threshold-millis 60000})
+          all  (a/make-slow-query-log {:threshold-millis 60000 :sample-rate 1})]
+      (is (false? (.record none "foo" :sql 1000 nil)))
+      (is (true?  (.record none "foo" :sql 1000 (SQLException. "error"))) "errors are always recorded")
+      (is (true?  (.record all  "foo" :sql 1000 nil)))
+      (is (= [false] (mapv :slow? (a/slow-query-snapshot all))))))
+  (testing "listener"
+    (with-open [^Connection conn (make-connection)]
+      (let [log (a/make-slow-query-log {:threshold-millis 0})
+            cs  (a/instrument-connection-source conn {:sql-execution (a/slow-query-listener log)})
+            sql "SELECT X FROM SYSTEM_RANGE(1, 10) WHERE X = ?"]
+        (is (instance? FastJdbcEventListener (a/slow-query-listener log)) "no legacy adapter")
+        (is (= [[3]] (a/query cs sql [3])))
+        (is (thrown? SQLException (a/query cs "SELECT X / ? FROM SYSTEM_RANGE(1, 1)" [0])))
+        (let [[q e :as entries] (a/drain-slow-queries log)]
+          (is (= 2 (count entries)) "result-set fetch events are not reported to :sql-execution listeners")
+          (is (= [sql :sql-query nil true] ((juxt :sql :sql-stmt-type :error :slow?) q)))
+          (is (instance? SQLException (:error e)))
+          (is (= (.getName (Thread/currentThread)) (:thread e)))
+          (is (every? (comp pos? :timestamp) entries)))))))
+
+
+(defn obtain-leaked-connection
+  ^Connection [connection-source]
+  (t/obtain-connection connection-source))
+
+
+(deftest test-lease-tracking-connection-source
+  (Class/forName h2-classname)
+  (let [leaks (atom [])
+        clock (atom 0)  ; fake clock (nanoseconds) for hold durations
+        cs    (-> (a/lease-tracking-connection-source ds {:leak-threshold-millis 20
+                                                          :on-leak (fn [leak] (swap! leaks conj leak))})
+                (assoc :tracker (ConnectionLeaseTracker. 20000000 (reify LongSupplier
+                                                                     (getAsLong [_] @clock)))))
+        acquired-here? (fn [stack-trace]
+                         (some #(.startsWith (.getClassName ^StackTraceElement %)
+                                  "asphalt.connection_test$obtain_leaked_connection")
+                           stack-trace))]
+    (testing "metrics"
+      (is (= [[1]] (a/query cs "SELECT 1" [])))
+      (i/with-connection [c cs]
+        (is (= {:in-flight 1 :peak-in-flight 1}
+              (select-keys (a/connection-lease-metrics cs) [:in-flight :peak-in-flight]))))
+      (let [{:keys [acquire hold in-flight peak-in-flight]} (a/connection-lease-metrics cs true)]
+        (is (= [2 2 0 1] [(:count acquire) (:count hold) in-flight peak-in-flight]))
+        (is (<= (:p50 hold) (:max hold))))
+      (is (= {:acquire nil :hold nil :in-flight 0 :peak-in-flight 0} (a/connection-lease-metrics cs)) "reset"))
+    (testing "no leak below the threshold"
+      (i/with-connection [c cs]
+        (swap! clock + 19999999))
+      (is (= [] @leaks)))
+    (testing "leak detected upon return"
+      (let [conn (obtain-leaked-connection cs)]
+        (swap! clock + 30000000)
+        (t/return-connection cs conn))
+      (is (= 1 (count @leaks)))
+      (let [{:keys [thread held-nanos stack-trace returned?]} (first @leaks)]
+        (is (= (.getName (Thread/currentThread)) thread))
+        (is (= 30000000 held-nanos))
+        (is (acquired-here? stack-trace) "stack trace where the connection was acquired")
+        (is (true? returned?))))
+    (testing "leak detected while held"
+      (reset! leaks [])
+      (let [conn (obtain-leaked-connection cs)]
+        (try
+          (is (= [] (a/check-connection-leaks cs)))
+          (swap! clock + 30000000)
+          (let [[leak & more] (a/check-connection-leaks cs)]
+            (is (nil? more))
+            (is (false? (:returned? leak)))
+            (is (acquired-here? (:stack-trace leak)) "stack trace where the connection was acquired"))
+          (is (= [] (a/check-connection-leaks cs)) "reported only once")
+          (finally
+            (t/return-connection cs conn))))
+      (is (= [] @leaks) "not reported again upon return")))
+  (testing "nested leases of the same connection"
+    (with-open [^Connection conn (make-connection)]
+      (let [cs (a/lease-tracking-connection-source conn {})]
+        (i/with-connection [c1 cs]
+          (i/with-connection [c2 cs]
+            (is (= 1 (:in-flight (a/connection-lease-metrics cs)))))
+          (is (= 1 (:in-flight (a/connection-lease-metrics cs)))))
+        (is (= {:in-flight 0 :peak-in-flight 1}
+              (select-keys (a/connection-lease-metrics cs) [:in-flight :peak-in-flight])))
+        (is (= 1 (:count (:hold (a/connection-lease-metrics cs)))) "one lease held")))))
+
+
+(deftest test-pooled-connection-source
+  (Class/forName h2-classname)
+  (testing "reuse"
+    (with-open [^java.io.Closeable cs (a/pooled-connection-source ds {:max-size 2})]
+      (let [c1 (t/obtain-connection cs)
+            _  (t/return-connection cs c1)
+            c2 (t/obtain-connection cs)]
+        (is (identical? c1 c2) "thread-affine reuse")
+        (is (= {:max-size 2 :total 1 :in-use 1 :borrows 2 :affine-borrows 1 :creates 1 :discards 0 :timeouts 0}
+              (a/connection-pool-metrics cs)))
+        (.close ^Connection c2)
+        (t/return-connection cs c2)
+        (is (= {:total 0 :in-use 0 :discards 1}
+              (select-keys (a/connection-pool-metrics cs) [:total :in-use :discards]))
+          "closed connection is discarded upon return"))))
+  (testing "bounded size"
+    (with-open [^java.io.Closeable cs (a/pooled-connection-source ds {:max-size 1 :borrow-timeout-millis 50})]
+      (i/with-connection [c cs]
+        (is (instance? java.sql.SQLTransientConnectionException
+              @(future (try (t/obtain-connection cs) (catch SQLException e e))))))
+      (is (= 1 (:timeouts (a/connection-pool-metrics cs))))
+      (is (instance? Connection @(future (i/with-connection [c cs] c))) "connection available once returned")))
+  (testing "concurrent use"
+    (with-open [^java.io.Closeable cs (a/pooled-connection-source ds {:max-size 3})]
+      (let [results (->> (range 8)
+                      (mapv (fn [_] (future (doall (for [i (range 100)]
+                                                     (a/query a/fetch-single-value cs "SELECT ?" [i]))))))
+                      (mapv deref))]
+        (is (every? #(= (range 100) (map long %)) results)))
+      (let [{:keys [total in-use borrows]} (a/connection-pool-metrics cs)]
+        (is (<= 1 total 3))
+        (is (zero? in-use))
+        (is (= 800 borrows)))))
+  (testing "double return"
+    (with-open [^java.io.Closeable cs (a/pooled-connection-source ds {:max-size 1 :borrow-timeout-millis 50})]
+      (let [conn (t/obtain-connection cs)]
+        (t/return-connection cs conn)
+        (is (thrown? IllegalArgumentException (t/return-connection cs conn)))
+        (is (= 0 (:in-use (a/connection-pool-metrics cs))) "permit not released twice")
+        (i/with-connection [c cs]
+          (is (identical? conn c))
+          (is (instance? java.sql.SQLTransientConnectionException
+                @(future (try (t/obtain-connection cs) (catch SQLException e e))))
+            "borrow times out rather than spinning")))))
+  (testing "idle eviction"
+    (with-open [^java.io.Closeable cs (a/pooled-connection-source ds {:idle-timeout-millis 5})]
+      (let [conn (t/obtain-connection cs)]
+        (t/return-connection cs conn)
+        (Thread/sleep 20)
+        (is (not (identical? conn (i/with-connection [c cs] c))) "expired connection is not reused")
+        (is (.isClosed ^Connection conn)))))
+  (testing "closed pool"
+    (let [cs (a/pooled-connection-source ds)]
+      (i/with-connection [c cs] c)
+      (.close ^java.io.Closeable cs)
+      (is (zero? (:total (a/connection-pool-metrics cs))))
+      (is (thrown? SQLException (t/obtain-connection cs))))))
+
+
+(deftest test-read-write-connection-source
+  (Class/forName h2-classname)
+  (let [make-db  (fn [db-name]
+                   (let [cs {:connection-uri (str "jdbc:h2:mem:rw_" db-name ";DB_CLOSE_DELAY=-1")
+                             :username "sa" :password ""}]
+                     (a/update cs "DROP TABLE IF EXISTS whoami" [])
+                     (a/update cs "CREATE TABLE whoami (name VARCHAR(20))" [])
+                     (a/update cs "INSERT INTO whoami (name) VALUES (?)" [db-name])
+                     cs))
+        primary  (make-db "primary")
+        replicas [(make-db "replica1") (make-db "replica2")]
+        whoami   #(a/query a/fetch-single-value % "SELECT name FROM whoami" [])]
+    (testing "round-robin reads"
+      (let [cs (a/read-write-connection-source primary replicas {:balance :round-robin})]
+        (is (= ["replica1" "replica2" "replica1" "replica2"] (repeatedly 4 #(whoami cs))))
+        (is (= [0 0] (a/replica-in-flight cs)))))
+    (testing "replica connections are set read-only"
+      (let [read-only (atom [])
+            replica   (reify t/IConnectionSource  ; H2 ignores Connection.setReadOnly, hence record the calls
+                        (create-connection [_] (let [^Connection conn (t/create-connection (first replicas))]
+                                                 (Proxy/newProxyInstance (.getClassLoader Connection)
+                                                   (into-array Class [Connection])
+                                                   (reify InvocationHandler
+                                                     (invoke [_ _ method args]
+                                                       (when (= "setReadOnly" (.getName method))
+                                                         (swap! read-only conj (first args)))
+                                                       (.invoke method conn args))))))
+                        (obtain-connection [this] (t/create-connection this))
+                        (return-connection [_ conn] (.close ^Connection conn)))
+            cs        (a/read-write-connection-source primary [replica])]
+        (is (= "replica1" (whoami cs)))
+        (is (= [true] @read-only))))
+    (testing "least-in-flight reads"
+      (let [cs (a/read-write-connection-source primary replicas)
+            inner (promise)]
+        (a/query (fn [_ _]
+                   (is (= [1 0] (a/replica-in-flight cs)))
+                   (deliver inner (whoami cs)))
+          cs "SELECT name FROM whoami" [])
+        (is (= "replica2" @inner) "replica1 is busy")
+        (is (= [0 0] (a/replica-in-flight cs)))))
+    (testing "replica handing out the same connection more than once"
+      (with-open [^Connection conn (t/create-connection (first replicas))]
+        (let [returns (atom 0)
+              replica (reify t/IConnectionSource
+                        (create-connection [_] conn)
+                        (obtain-connection [_] conn)
+                        (return-connection [_ c] (swap! returns inc)))
+              cs      (a/read-write-connection-source primary [replica])
+              inner   (promise)]
+          (a/query (fn [_ _] (deliver inner (whoami cs))) cs "SELECT name FROM whoami" [])
+          (is (= "replica1" @inner))
+          (is (= 2 @returns) "both leases returned to the replica")
+          (is (= [0] (a/replica-in-flight cs))))))
+    (testing "connection returned to replica when it cannot be set read-only"
+      (let [returns (atom 0)
+            replica (reify t/IConnectionSource
+                      (create-connection [_] (let [^Connection conn (t/create-connection (first replicas))]
+                                               (Proxy/newProxyInstance (.getClassLoader Connection)
+                                                 (into-array Class [Connection])
+                                                 (reify InvocationHandler
+                                                   (invoke [_ _ method args]
+                                                     (if (= "setReadOnly" (.getName method))
+                                                       (throw (SQLException. "read-only not supported"))
+                                                       (.invoke method conn args)))))))
+                      (obtain-connection [this] (t/create-connection this))
+                      (return-connection [_ conn] (swap! returns inc) (.close ^Connection conn)))
+            cs      (a/read-write-connection-source primary [replica])]
+        (is (thrown? SQLException (whoami cs)))
+        (is (= 1 @returns))
+        (is (= [0] (a/replica-in-flight cs)))))
+    (testing "writes and locking reads go to primary"
+      (let [cs (a/read-write-connection-source primary replicas)]
+        (is (= 1 (a/update cs "UPDATE whoami SET name = ?" ["primary*"])))
+        (is (= "primary*" (a/query a/fetch-single-value cs "SELECT name FROM whoami FOR UPDATE" [])))
+        (is (= "primary*" (a/query a/fetch-single-value cs "  select name from whoami for update" [])))
+        (is (= "replica1" (a/query a/fetch-single-value cs "  select name from whoami" [])))
+        (is (= [0 0] (a/replica-in-flight cs)))))
+    (testing "transaction pins to primary"
+      (let [cs (a/read-write-connection-source primary replicas)]
+        (x/with-transaction [txn cs] {}
+          (a/update txn "UPDATE whoami SET name = ?" ["primary**"])
+          (is (= "primary**" (whoami txn)) "read-your-writes"))))
+    (testing "bad input"
+      (is (thrown? IllegalArgumentException (a/read-write-connection-source primary [])))
+      (is (thrown? IllegalArgumentException (a/read-write-connection-source primary replicas {:balance :random}))))))
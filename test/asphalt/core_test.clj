@@ -10,16 +10,24 @@
 (ns asphalt.core-test
   (:require
     [clojure.test :refer :all]
+    [clojure.string   :as str]
     [asphalt.test-util :as u]
     [asphalt.core      :as a]
+    [asphalt.internal  :as i]
+    [asphalt.internal.iresult :as iresult]
     [asphalt.param     :as p]
     [asphalt.result    :as r]
     [asphalt.type      :as t]
     [asphalt.transaction :as x])
   (:import
     [java.io  ByteArrayInputStream InputStream]
-    [java.sql Date SQLTimeoutException]
-    [clojure.lang ExceptionInfo]))
+    [java.lang.reflect InvocationHandler Proxy]
+    [java.sql Connection Date SQLException SQLTimeoutException]
+    [java.util.concurrent CancellationException CompletableFuture ExecutionException ExecutorService
+                          RejectedExecutionException]
+    [clojure.lang ExceptionInfo]
+    [asphalt.async WriteBatcher]
+    [asphalt.row  RowMap]))
 
 
 (defn test-fixture
@@ -71,6 +79,55 @@ VALUES (^string $name, ^int $salary, ^string $dept, ^date $joined)" {:conn-worke
 
 (a/defsql t-batch-update "UPDATE emp SET salary = $new-salary WHERE id = $id")
 
+(a/defsql t-insert-rows "INSERT INTO emp (name, salary, dept, j_date) VALUES ^group $rows"
+  {:group-placeholder {:rows "(^string $name, ^int $salary, ^string $dept, ^date $joined)"}})
+
+(a/defsql t-select-pairs "SELECT ^string name FROM emp WHERE (name, dept) IN ($pairs) ORDER BY id"
+  {:group-placeholder {:pairs "(^string $name, ^string $dept)"}})
+
+(a/defsql t-select-by-ids "SELECT ^string name FROM emp WHERE id IN (^ints $ids) ORDER BY id"
+  {:multi-padding :null})
+
+(a/defsql t-select-by-names "SELECT ^int id FROM emp WHERE name IN (^strings $names) ORDER BY id"
+  {:multi-padding :repeat-last})
+
+(a/defsql t-select-range "SELECT ^int id, ^string name FROM emp WHERE id >= ^long $lo AND id < ^long $hi ORDER BY id")
+
+(a/defsql t-select-range-dept "SELECT ^int id FROM emp WHERE dept = ^string $dept AND id >= ^long $from AND id < ^long $to")
+
+(a/defsql t-select-range-bad "SELECT ^int id FROM no_such_table WHERE id >= ^long $lo AND id < ^long $hi")
+
+(a/defsql t-select-columns "SELECT ^long id, ^double salary, ^string dept FROM emp ORDER BY id"
+  {:result-set-worker a/fetch-columns})
+
+(a/defrowrecord EmpRow [^string name ^int salary ^string dept ^date j-date])
+
+(a/defsql t-select-records "SELECT ^string name, ^int salary, ^string dept, ^date j_date FROM emp ORDER BY id"
+  {:make-row-maker make-EmpRow-row-maker})
+
+(a/defsql t-select-records-untyped "SELECT name, salary, dept, j_date FROM emp ORDER BY id"
+  {:make-row-maker make-EmpRow-row-maker})
+
+(a/defsql t-select-export "SELECT ^string name, ^int salary, ^string dept FROM emp ORDER BY id")
+
+(a/defsql t-select-scrollable "SELECT ^string name FROM emp ORDER BY id"
+  {:statement-options {:result-set-type :scroll-insensitive :fetch-size 7}
+   :result-set-worker (fn [sql-source ^java.sql.ResultSet result-set]
+                        [(.getType result-set) (.getFetchSize (.getStatement result-set)) (.last result-set)
+                         (.getString result-set 1)])})
+
+(a/defsql t-select-page "SELECT ^int id, ^string name FROM emp WHERE id > ^long $last ORDER BY id LIMIT ^int $n")
+
+(a/defsql t-select-page-dept "SELECT ^string dept, ^int id FROM emp
+WHERE dept > ^string $last-dept OR (dept = ^string $last-dept AND id > ^long $last-id)
+ORDER BY dept, id LIMIT ^int $n")
+
+(a/defsql t-count-cached "SELECT ^int COUNT(*) FROM emp WHERE dept = ^string $dept"
+  {:result-set-worker a/fetch-single-value :result-cache true})
+
+(a/defsql t-count-cached-small "SELECT ^int COUNT(*) FROM emp WHERE dept = ^string $dept"
+  {:result-set-worker a/fetch-single-value :result-cache {:max-entries 2 :ttl-millis 100}})
+
 (a/defsql t-insert-lobs "INSERT INTO emp (name, salary, dept, j_date, bio, pic)
 VALUES (^string $name, ^int $salary, ^string $dept, ^date $joined, ^ascii-stream $bio, ^binary-stream $pic)"
   {:conn-worker a/genkey})
@@ -233,7 +290,33 @@ VALUES (^string $name, ^int $salary, ^string $dept, ^date $joined, ^ascii-stream
         (is (= (zipmap [:name :salary :dept :j_date] vs1) (first rows))))
       (let [rows (a/query (partial a/fetch-maps {:key-maker r/_label->key})
                    u/ds t-selfew ["Joe Coder"])]
-        (is (= (zipmap [:name :salary :dept :j-date] vs1) (first rows)))))
+        (is (= (zipmap [:name :salary :dept :j-date] vs1) (first rows))))
+      (let [[row] (a/query a/fetch-maps u/ds t-selfew ["Joe Coder"])
+            [alt] (a/query a/fetch-maps u/ds t-selfew ["Joe Coder"])
+            expected (zipmap [:name :salary :dept :j_date] vs1)]
+        (is (instance? RowMap row))
+        (is (identical? (.getColumnKeys ^RowMap row) (.getColumnKeys ^RowMap alt)) "column keys cached")
+        (is (= expected row))
+        (is (= row expected))
+        (is (= (hash expected) (hash row)))
+        (is (= "Joe Coder" (:name row) (row :name) (get row :name)))
+        (is (= ::none (get row :age ::none)))
+        (is (= (seq expected) (seq (into {} row))))
+        (is (= (set (keys expected)) (set (keys row))))
+        (is (= {:name "Joe"} (reduce-kv (fn [m k v] (reduced {k "Joe"})) {} row)))
+        (let [updated (assoc row :salary 1)]
+          (is (instance? RowMap updated) "assoc on existing key keeps the compact row")
+          (is (= (assoc expected :salary 1) updated)))
+        (is (not (instance? RowMap (assoc row :age 40))) "assoc on new key falls back to regular map")
+        (is (= (assoc expected :age 40) (assoc row :age 40)))
+        (is (= (dissoc expected :dept) (dissoc row :dept)))
+        (is (= {:x 1} (meta (with-meta (assoc row :age 40) {:x 1})))))
+      (dotimes [i 2000]  ; inline key-makers fill up the column keys cache
+        (a/query (partial a/fetch-maps {:key-maker (fn [label] (keyword (str label i)))}) u/ds t-selfew ["Joe Coder"]))
+      (let [[row] (a/query a/fetch-maps u/ds t-selfew ["Joe Coder"])
+            [alt] (a/query a/fetch-maps u/ds t-selfew ["Joe Coder"])]
+        (is (identical? (.getColumnKeys ^RowMap row) (.getColumnKeys ^RowMap alt)) "column keys still cached"))
+      (is (<= (.size iresult/column-keys-cache) iresult/max-cached-column-keys) "least recently used evicted"))
     ;; test letcol
     (testing "letcol"
       (let [run-query (fn [row-maker]
@@ -288,6 +371,576 @@ VALUES (^string $name, ^int $salary, ^string $dept, ^date $joined, ^ascii-stream
         (a/query a/fetch-rows u/ds "SELECT salary FROM emp" []))))
 
 
+(deftest test-chunked-batch-update
+  (let [jd1  (u/make-date)
+        rows [["Joe Coder"     100000 "Accounts"  jd1]
+              ["Harry Hacker"   90000 "R&D"       jd1]
+              ["Sam Librarian"  85000 "Library"   jd1]
+              ["Kishore Newbie" 55000 "Sales"     jd1]
+              ["Neal Manager"  110000 "Marketing" jd1]]]
+    (testing "lazy source flushed every N rows"
+      (let [counts (a/batch-update {:batch-size 2} t/set-params u/ds t-insert (map identity rows))]
+        (is (instance? (Class/forName "[J") counts))
+        (is (= [1 1 1 1 1] (vec counts)))))
+    (testing "reducible source without large batch"
+      (is (= [1 1 1 1 1 0 0 0 0 0]
+            (vec (a/batch-update {:batch-size 3 :large-batch? false} t/set-params u/ds t-batch-update
+                   (eduction (map (fn [^long id] [(* id 1000) id])) (range 1 11)))))))
+    (testing "empty source"
+      (is (= [] (vec (a/batch-update {:batch-size 2} t/set-params u/ds t-insert [])))))
+    (is (= [1000 2000 3000 4000 5000] (a/query (a/reduce-rows (map first) conj [])
+                                        u/ds "SELECT salary FROM emp ORDER BY id" [])))))
+
+
+(deftest test-param-groups
+  (let [jd1 (u/make-date)]
+    (is (= 3 (t-insert-rows u/ds {:rows [["Joe Coder"     100000 "Accounts"  jd1]
+                                         ["Harry Hacker"   90000 "R&D"       jd1]
+                                         {:name "Sam Librarian" :salary 85000 :dept "Library" :joined jd1}]})))
+    (is (= 1 (t-insert-rows u/ds {:rows [["Kishore Newbie" 55000 "Sales" jd1]]})))
+    (is (= 4 (t-count u/ds)) "Verify that rows were inserted")
+    (is (= [["Harry Hacker"] ["Kishore Newbie"]]
+          (t-select-pairs u/ds {:pairs [["Harry Hacker" "R&D"] ["Kishore Newbie" "Sales"] ["Joe Coder" "R&D"]]})))
+    (is (thrown? IllegalArgumentException (t-insert-rows u/ds {:rows [["Neal Manager" 110000 "Marketing"]]})))
+    (is (thrown? IllegalArgumentException (t-insert-rows u/ds {:rows []})))))
+
+
+(deftest test-multi-padding
+  (let [jd1 (u/make-date)]
+    (a/batch-update u/ds t-insert [["Joe Coder"     100000 "Accounts"  jd1]
+                                   ["Harry Hacker"   90000 "R&D"       jd1]
+                                   ["Sam Librarian"  85000 "Library"   jd1]]))
+  (is (= [["Joe Coder"] ["Harry Hacker"] ["Sam Librarian"]] (t-select-by-ids u/ds {:ids [1 2 3]})))
+  (is (= [["Harry Hacker"]] (t-select-by-ids u/ds {:ids [2]})))
+  (is (= [[1] [3]] (t-select-by-names u/ds {:names ["Joe Coder" "Sam Librarian" "Nobody"]})))
+  (is (= 2 (:shapes (a/sql-shape-cache-metrics t-select-by-ids)))))
+
+
+(deftest test-reduce-rows
+  (let [jd1 (u/make-date)]
+    (a/batch-update u/ds t-insert [["Joe Coder"     100000 "Accounts"  jd1]
+                                   ["Harry Hacker"   90000 "R&D"       jd1]
+                                   ["Sam Librarian"  85000 "Library"   jd1]]))
+  (testing "result-set worker"
+    (is (= 275000 (a/query (a/reduce-rows (map second) + 0) u/ds t-select [])))
+    (is (= ["Joe Coder"] (a/query (a/reduce-rows {:fetch-size 1} (comp (map first) (take 1)) conj [])
+                           u/ds t-select []))))
+  (testing "reducible query"
+    (is (= 275000 (transduce (map second) + (a/reducible-query u/ds t-select []))))
+    (is (= ["Joe Coder" "Harry Hacker"] (into [] (comp (map first) (take 2))
+                                          (a/reducible-query {:fetch-size 2} u/ds t-select []))))
+    (is (= [90000 85000] (into [] (eduction (map second) (filter #(< ^long % 100000))
+                                    (a/reducible-query u/ds t-select [])))))
+    (is (thrown? ArithmeticException (reduce (fn [_ _] (/ 1 0)) 0 (a/reducible-query u/ds t-select []))))))
+
+
+(deftest test-fetch-columns
+  (let [jd1 (u/make-date)]
+    (a/batch-update u/ds t-insert [["Joe Coder"     100000 "Accounts"  jd1]
+                                   ["Harry Hacker"   90000 nil         jd1]
+                                   ["Sam Librarian"  85000 "Library"   jd1]]))
+  (testing "column types inferred from JDBC metadata"
+    (let [{:keys [row-count labels columns nulls]}
+          (a/query a/fetch-columns u/ds
+            "SELECT id, NULLIF(salary, 90000), dept, salary > 88000 FROM emp ORDER BY id" [])
+          [ids salaries depts flags] columns]
+      (is (= 3 row-count))
+      (is (= ["ID" "DEPT"] (mapv labels [0 2])))
+      (is (instance? (Class/forName "[I") ids))
+      (is (= [1 2 3] (vec ids)))
+      (is (= [100000 0 85000] (vec salaries)))
+      (is (= "{1}" (str (get nulls 1))) "null bitmap marks SQL NULL")
+      (is (nil? (get nulls 0)) "no bitmap without NULL values")
+      (is (= ["Accounts" nil "Library"] (vec depts)))
+      (is (instance? (Class/forName "[Z") flags))
+      (is (= [true true false] (vec flags)))))
+  (testing "column types from SQL template"
+    (let [{:keys [columns]} (t-select-columns u/ds [])
+          [ids salaries depts] columns]
+      (is (instance? (Class/forName "[J") ids))
+      (is (instance? (Class/forName "[D") salaries))
+      (is (= [100000.0 90000.0 85000.0] (vec salaries)))
+      (is (= ["Accounts" nil "Library"] (vec depts)))))
+  (testing "options"
+    (let [{:keys [row-count columns]} (a/query (partial a/fetch-columns {:column-types [:long :string] :max-rows 2})
+                                        u/ds "SELECT salary, name FROM emp ORDER BY id" [])]
+      (is (= 2 row-count))
+      (is (instance? (Class/forName "[J") (first columns)))
+      (is (= ["Joe Coder" "Harry Hacker"] (vec (second columns)))))
+    (is (thrown? IllegalArgumentException (a/query (partial a/fetch-columns {:column-types [:long]})
+                                            u/ds "SELECT salary, name FROM emp" [])))
+    (is (thrown? IllegalArgumentException (a/query (partial a/fetch-columns {:column-types [:long :bad-type]})
+                                            u/ds "SELECT salary, name FROM emp" [])))))
+
+
+(deftest test-row-records
+  (let [jd1 (u/make-date)]
+    (a/batch-update u/ds t-insert [["Joe Coder"     100000 "Accounts"  jd1]
+                                   ["Harry Hacker"   90000 nil         jd1]])
+    (let [expected [(->EmpRow "Joe Coder" 100000 "Accounts" jd1) (->EmpRow "Harry Hacker" 90000 nil jd1)]]
+      (testing "SQL template"
+        (let [rows (t-select-records u/ds [])]
+          (is (= expected rows))
+          (is (every? #(instance? EmpRow %) rows))
+          (is (= 100000 (.-salary ^EmpRow (first rows))))
+          (is (= Long/TYPE (.getType (.getField EmpRow "salary"))) "primitive field")
+          (is (= "Accounts" (:dept (first rows))))))
+      (testing "SQL template without result types"
+        (is (= expected (t-select-records-untyped u/ds []))))
+      (testing "row-maker as option"
+        (is (= expected (a/query (partial a/fetch-rows {:row-maker EmpRow-row-maker}) u/ds
+                          "SELECT name, salary, dept, j_date FROM emp ORDER BY id" [])))
+        (is (thrown? IllegalArgumentException (a/query (partial a/fetch-rows {:row-maker EmpRow-row-maker}) u/ds
+                                                "SELECT name, salary FROM emp" [])))))
+    (testing "result types mismatch"
+      (is (thrown? IllegalArgumentException (make-EmpRow-row-maker [:string :int])))
+      (is (thrown? IllegalArgumentException (make-EmpRow-row-maker [:string :string :string :date])) "field type")
+      (is (fn? (make-EmpRow-row-maker [:string :int :string :date]))))))
+
+
+(deftest test-export-rows
+  (let [jd1 (u/make-date)]
+    (a/batch-update u/ds t-insert [["Coder, Joe"    100000 "Accounts"  jd1]
+                                   ["Harry \"H\""   90000 nil         jd1]
+                                   ["Sam Librarian"  85000 "Library"   jd1]]))
+  (let [export (fn [options]
+                 (let [w (java.io.StringWriter.)]
+                   [(a/query (partial a/export-rows (assoc options :out w)) u/ds t-select-export [])
+                    (str w)]))]
+    (testing "CSV"
+      (is (= [3 (str "NAME,SALARY,DEPT\n"
+                  "\"Coder, Joe\",100000,Accounts\n"
+                  "\"Harry \"\"H\"\"\",90000,\n"
+                  "Sam Librarian,85000,Library\n")]
+            (export {})))
+      (is (= [2 "Coder, Joe;100000;Accounts\n\"Harry \"\"H\"\"\";90000;\n"]
+            (export {:header? false :separator \; :max-rows 2}))))
+    (testing "JSON lines"
+      (is (= [3 (str "{\"name\":\"Coder, Joe\",\"salary\":100000,\"dept\":\"Accounts\"}\n"
+                  "{\"name\":\"Harry \\\"H\\\"\",\"salary\":90000,\"dept\":null}\n"
+                  "{\"name\":\"Sam Librarian\",\"salary\":85000,\"dept\":\"Library\"}\n")]
+            (export {:format :jsonl :labels ["name" "salary" "dept"]}))))
+    (testing "EDN"
+      (let [[n text] (export {:format :edn :buffer-size 16})]
+        (is (= 3 n))
+        (is (= [{:name "Coder, Joe" :salary 100000 :dept "Accounts"}
+                {:name "Harry \"H\"" :salary 90000 :dept nil}
+                {:name "Sam Librarian" :salary 85000 :dept "Library"}]
+              (mapv read-string (str/split-lines text))))))
+    (testing "binary values as Base64"
+      (let [export-binary (fn [fmt]
+                            (let [w (java.io.StringWriter.)]
+                              (a/query (partial a/export-rows {:out w :format fmt :labels ["b"]})
+                                u/ds "SELECT CAST(X'CAFE' AS BINARY(2)) AS b" [])
+                              (str w)))]
+        (is (= "b\nyv4=\n"             (export-binary :csv)))
+        (is (= "{\"b\":\"yv4=\"}\n"     (export-binary :jsonl)))
+        (is (= [{:b "yv4="}]          (mapv read-string (str/split-lines (export-binary :edn)))))))
+    (testing "byte outputs and flushing"
+      (let [baos (java.io.ByteArrayOutputStream.)]
+        (is (= 3 (a/query (partial a/export-rows {:out baos :format :jsonl}) u/ds t-select-export [])))
+        (is (= 3 (count (str/split-lines (String. (.toByteArray baos) "UTF-8"))))))
+      (let [baos (java.io.ByteArrayOutputStream.)]
+        (is (= 3 (a/query (partial a/export-rows {:out (java.nio.channels.Channels/newChannel baos)})
+                   u/ds t-select-export [])))
+        (is (.startsWith (String. (.toByteArray baos) "UTF-8") "NAME,SALARY,DEPT\n")))
+      (let [flushes (atom 0)
+            w       (proxy [java.io.StringWriter] []
+                      (flush [] (swap! flushes inc)))]
+        (is (= 3 (a/query (partial a/export-rows {:out w :flush-rows 1}) u/ds t-select-export [])))
+        (is (= 4 @flushes) "once per row and at the end")))
+    (testing "bad options"
+      (is (thrown? IllegalArgumentException (export {:format :xml})))
+      (is (thrown? IllegalArgumentException (export {:labels ["name"]})))
+      (is (thrown? IllegalArgumentException (a/query (partial a/export-rows {}) u/ds t-select-export []))))))
+
+
+(deftest test-async
+  (let [jd1 (u/make-date)]
+    (a/batch-update u/ds t-insert [["Joe Coder"     100000 "Accounts"  jd1]
+                                   ["Harry Hacker"   90000 "R&D"       jd1]
+                                   ["Sam Librarian"  85000 "Library"   jd1]]))
+  (testing "query and update"
+    (let [count-future  (a/query-async {:result-set-worker a/fetch-single-value} u/ds t-count [])
+          select-future (a/query-async u/ds "SELECT name FROM emp WHERE dept = ?" ["R&D"])
+          update-future (a/update-async u/ds t-update {:new-salary 95000 :dept "R&D"})]
+      (is (instance? CompletableFuture count-future))
+      (is (= 3 @count-future))
+      (is (= [["Harry Hacker"]] @select-future))
+      (is (= 1 @update-future))))
+  (testing "SQL template"
+    (is (= 3 @(t-count u/ds [] {})))
+    (is (= 95000 (get @(t-qfetch u/ds ["Harry Hacker"] {}) 1)))
+    (is (= 3 (apply t-count [u/ds []])) "applying a template dispatches on arity")
+    (is (thrown? IllegalArgumentException (t-count u/ds [] :async)) "async options must be a map"))
+  (testing "errors"
+    (let [f (a/query-async u/ds "SELECT * FROM no_such_table" [])]
+      (is (thrown? ExecutionException @f))
+      (is (instance? SQLException (try @f (catch ExecutionException e (.getCause e)))))))
+  (testing "cancellation"
+    (let [executor (a/make-async-executor {:virtual? false :max-threads 1})]
+      (try
+        (let [slow-future (a/query-async {:executor executor :result-set-worker a/fetch-single-value} u/ds
+                            "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) a, SYSTEM_RANGE(1, 100000) b" [])]
+          (Thread/sleep 200)
+          (is (.cancel ^CompletableFuture slow-future true))
+          (is (thrown? CancellationException @slow-future))
+          (is (= 3 (deref (a/query-async {:executor executor :result-set-worker a/fetch-single-value} u/ds t-count [])
+                     10000 :timeout))
+            "cancelled statement frees the executor thread"))
+        (finally
+          (.shutdown ^ExecutorService executor))))))
+
+
+(deftest test-write-batcher
+  (let [jd1 (u/make-date)
+        row (fn [i] {:name (str "Emp" i) :salary 1000 :dept "Batch" :joined jd1})]
+    (testing "coalescing writes from many threads"
+      (with-open [batcher (a/make-write-batcher {:batch-size 10 :linger-millis 20} u/ds t-insert)]
+        (let [futures (->> (range 8)
+                        (mapv (fn [t] (future (mapv #(a/batched-update batcher (row (+ (* 100 t) %))) (range 25)))))
+                        (mapcat deref)
+                        doall)]
+          (is (= (repeat 200 1) (map deref futures)))
+          (let [{:keys [writes batches failed-batches queue-size]} (a/write-batcher-metrics batcher)]
+            (is (= [200 0 0] [writes failed-batches queue-size]))
+            (is (< batches 200) "writes are coalesced"))))
+      (is (= 200 (t-count u/ds []))))
+    (testing "flush upon close"
+      (let [batcher (a/make-write-batcher {:batch-size 1000 :linger-millis 60000} u/ds t-insert)
+            futures (mapv #(a/batched-update batcher (row %)) (range 1000 1003))]
+        (.close ^WriteBatcher batcher)
+        (is (every? #(= 1 (deref % 0 nil)) futures))
+        (is (thrown? RejectedExecutionException (a/batched-update batcher (row 1003))) "closed batcher")))
+    (testing "close does not wait for the linger time"
+      (let [batcher (a/make-write-batcher {:batch-size 1000 :linger-millis 60000} u/ds t-insert)
+            f1      (a/batched-update batcher (row 1100))
+            _       (Thread/sleep 100)  ; let the flusher pick the first write and linger for more
+            f2      (a/batched-update batcher (row 1101))
+            start   (System/nanoTime)]
+        (.close ^WriteBatcher batcher)
+        (is (< (- (System/nanoTime) start) (* 10000 1000000)) "closed well before the linger time")
+        (is (= [1 1] [(deref f1 0 nil) (deref f2 0 nil)]))
+        (is (= 1 (:batches (a/write-batcher-metrics batcher))))))
+    (testing "failed batch"
+      (with-open [batcher (a/make-write-batcher u/ds t-insert)]
+        (let [f (a/batched-update batcher (assoc (row 2000) :name nil))]
+          (is (thrown? ExecutionException @f))
+          (is (= 1 (:failed-batches (a/write-batcher-metrics batcher)))))))
+    (testing "backpressure"
+      (let [gate    (promise)
+            batcher (a/make-write-batcher {:batch-size 1 :queue-capacity 1 :enqueue-timeout-millis 50
+                                           :params-setter (fn [sql-source pstmt params]
+                                                            @gate
+                                                            (t/set-params sql-source pstmt params))}
+                      u/ds t-insert)]
+        (try
+          (let [f1 (a/batched-update batcher (row 3000))]
+            (Thread/sleep 50)  ; let the flusher pick the first write and block
+            (let [f2 (a/batched-update batcher (row 3001))]
+              (is (thrown? RejectedExecutionException (a/batched-update batcher (row 3002))) "queue is full")
+              (deliver gate true)
+              (is (= [1 1] [@f1 @f2]))))
+          (finally
+            (deliver gate true)
+            (.close batcher)))))))
+
+
+(deftest test-parallel-query
+  (let [jd1 (u/make-date)]
+    (a/batch-update u/ds t-insert (for [i (range 10)]
+                                    [(str "Emp" i) (* 1000 (inc i)) (if (even? i) "Even" "Odd") jd1])))
+  (let [all-rows (a/query u/ds "SELECT id, name FROM emp ORDER BY id" [])]
+    (testing "ordered merge"
+      (is (= all-rows (a/parallel-query {:lo 1 :hi 11 :partitions 3} u/ds t-select-range {})))
+      (is (= all-rows (a/parallel-query {:lo -5 :hi 100 :partitions 7} u/ds t-select-range {})))
+      (is (= all-rows (a/parallel-query {:lo 1 :hi 11 :partitions 50} u/ds t-select-range {}))
+        "more partitions than keys")
+      (is (= [] (a/parallel-query {:lo 5 :hi 5} u/ds t-select-range {})) "empty range"))
+    (testing "unordered merge"
+      (is (= all-rows (sort-by first (a/parallel-query {:lo 1 :hi 11 :ordered? false} u/ds t-select-range {}))))))
+  (testing "custom range keys, extra params and per-partition reduction"
+    (is (= [[2] [4] [6] [8] [10]] (sort (a/parallel-query {:lo 1 :hi 11 :lo-key :from :hi-key :to}
+                                    u/ds t-select-range-dept {:dept "Odd"}))))
+    (is (= 5 (a/parallel-query {:lo 1 :hi 11 :lo-key :from :hi-key :to
+                                :result-set-worker (a/reduce-rows (map (constantly 1)) + 0)
+                                :merge-fn + :merge-init 0}
+               u/ds t-select-range-dept {:dept "Even"}))))
+  (testing "bad input and errors"
+    (is (thrown? IllegalArgumentException (a/parallel-query {:hi 10} u/ds t-select-range {})))
+    (is (thrown? IllegalArgumentException (a/parallel-query {:lo 10 :hi 1} u/ds t-select-range {})))
+    (is (thrown? IllegalArgumentException
+          (a/parallel-query {:lo Long/MIN_VALUE :hi Long/MAX_VALUE} u/ds t-select-range {}))
+      "span does not fit in a long")
+    (is (thrown? IllegalArgumentException (a/parallel-query {:lo 0 :hi (inc' Long/MAX_VALUE)} u/ds t-select-range {})))
+    (is (= [] (a/parallel-query {:lo (- Long/MAX_VALUE 10) :hi Long/MAX_VALUE} u/ds t-select-range {})))
+    (is (thrown? IllegalArgumentException (a/parallel-query {:lo 1 :hi 10} u/ds t-select-range [])))
+    (is (thrown? SQLException (a/parallel-query {:lo 1 :hi 10} u/ds t-select-range-bad {})))))
+
+
+(deftest test-bulk-load
+  (let [jd1 (u/make-date)
+        row (fn [i] {:name (str "Emp" i) :salary 1000 :dept "Bulk" :joined jd1})]
+    (testing "concurrent chunked load"
+      (let [progress (atom 0)
+            {:keys [rows chunks commits retries failed-rows errors rows-per-sec]}
+            (a/bulk-load {:workers 3 :chunk-size 100 :commit-rows 300 :queue-capacity 2
+                          :progress-fn (fn [stats] (swap! progress inc))}
+              u/ds t-insert (map row (range 2550)))]
+        (is (= [2550 26 0 0 []] [rows chunks retries failed-rows errors]))
+        (is (<= 9 commits 26))
+        (is (= commits @progress))
+        (is (pos? rows-per-sec))
+        (is (= 2550 (t-count u/ds [])))
+        (is (= 2550 (count (set (a/query u/ds "SELECT name FROM emp" [])))) "no duplicate rows")))
+    (a/update u/ds t-delete [])
+    (testing "failed commit unit is rolled back and retried"
+      (let [fail-once (atom true)
+            setter    (fn [sql-source pstmt params]
+                        (when (and (= "Emp42" (:name params)) (compare-and-set! fail-once true false))
+                          (throw (SQLException. "transient failure")))
+                        (t/set-params sql-source pstmt params))
+            {:keys [rows retries]} (a/bulk-load {:workers 2 :chunk-size 10 :commit-rows 30 :retry-delay-millis 1
+                                                 :params-setter setter}
+                                     u/ds t-insert (eduction (map row) (range 100)))]
+        (is (= [100 1] [rows retries]))
+        (is (= 100 (t-count u/ds [])))))
+    (a/update u/ds t-delete [])
+    (testing "failure to obtain a connection is retried"
+      (let [fail-once (atom true)
+            cs        (reify t/IConnectionSource
+                        (create-connection [this] (t/obtain-connection this))
+                        (obtain-connection [_] (if (compare-and-set! fail-once true false)
+                                                 (throw (SQLException. "no connection available"))
+                                                 (t/obtain-connection u/ds)))
+                        (return-connection [_ conn] (t/return-connection u/ds conn)))
+            {:keys [rows retries errors]} (a/bulk-load {:workers 2 :chunk-size 10 :commit-rows 30
+                                                        :retry-delay-millis 1}
+                                            cs t-insert (map row (range 100)))]
+        (is (= [100 1 []] [rows retries errors]))
+        (is (= 100 (t-count u/ds [])))))
+    (a/update u/ds t-delete [])
+    (testing "connection that fails to roll back is discarded, not committed"
+      (let [fail-once (atom true)
+            calls     (atom [])  ; [method-name args] for connections that failed to roll back
+            broken    (atom #{})
+            cs        (reify t/IConnectionSource
+                        (create-connection [this] (t/obtain-connection this))
+                        (obtain-connection [_]
+                          (let [^Connection conn (t/obtain-connection u/ds)]
+                            (Proxy/newProxyInstance (.getClassLoader Connection)
+                              (into-array Class [Connection])
+                              (reify InvocationHandler
+                                (invoke [this _ method args]
+                                  (let [mname (.getName method)]
+                                    (when (contains? @broken this)
+                                      (swap! calls conj [mname (vec args)]))
+                                    (if (= "rollback" mname)
+                                      (do (swap! broken conj this)
+                                        (.rollback conn)  ; roll back, but report failure
+                                        (throw (SQLException. "rollback failed")))
+                                      (.invoke method conn args))))))))
+                        (return-connection [_ conn] (.close ^Connection conn)))
+            setter    (fn [sql-source pstmt params]
+                        (when (and (= "Emp42" (:name params)) (compare-and-set! fail-once true false))
+                          (throw (SQLException. "transient failure")))
+                        (t/set-params sql-source pstmt params))
+            {:keys [rows retries]} (a/bulk-load {:workers 1 :chunk-size 10 :commit-rows 30 :retry-delay-millis 1
+                                                 :params-setter setter}
+                                     cs t-insert (map row (range 100)))]
+        (is (= [100 1] [rows retries]))
+        (is (= 100 (t-count u/ds [])))
+        (is (= "close" (ffirst @calls)) "closed without changing auto-commit")))
+    (a/update u/ds t-delete [])
+    (testing "failed rows are skipped"
+      (let [{:keys [rows failed-rows errors]} (a/bulk-load {:workers 2 :chunk-size 10 :commit-rows 10 :retries 1
+                                                            :retry-delay-millis 1 :fail-fast? false}
+                                                u/ds t-insert (map #(if (= 55 %) (assoc (row %) :name nil) (row %))
+                                                                (range 100)))]
+        (is (= [90 10 1] [rows failed-rows (count errors)]))
+        (is (= 90 (t-count u/ds [])))))
+    (a/update u/ds t-delete [])
+    (testing "fail fast"
+      (let [error (try
+                    (a/bulk-load {:workers 2 :chunk-size 10 :retries 0} u/ds t-insert
+                      (map #(if (= 5 %) (assoc (row %) :name nil) (row %)) (range 1000)))
+                    nil
+                    (catch ExceptionInfo e e))]
+        (is (instance? ExceptionInfo error))
+        (is (instance? SQLException (.getCause ^ExceptionInfo error)))
+        (is (< (:rows (ex-data error)) 1000))
+        (is (= (:rows (ex-data error)) (t-count u/ds [])) "rows committed by other workers stay")))
+    (testing "bad options"
+      (is (thrown? IllegalArgumentException (a/bulk-load {:workers 0} u/ds t-insert [])))
+      (is (thrown? IllegalArgumentException (x/with-transaction [txn u/ds] {}
+                                              (a/bulk-load txn t-insert [])))))))
+
+
+(deftest test-statement-options
+  (let [jd1 (u/make-date)]
+    (a/batch-update u/ds t-insert [["Joe Coder"     100000 "Accounts"  jd1]
+                                   ["Harry Hacker"   90000 "R&D"       jd1]
+                                   ["Sam Librarian"  85000 "Library"   jd1]]))
+  (testing "template statement options"
+    (is (= [java.sql.ResultSet/TYPE_SCROLL_INSENSITIVE 7 true "Sam Librarian"] (t-select-scrollable u/ds []))))
+  (testing "per-call statement options"
+    (is (= [["Joe Coder"] ["Harry Hacker"]]
+          (a/query u/ds (a/with-statement-options "SELECT name FROM emp ORDER BY id" {:max-rows 2}) [])))
+    (let [t (a/with-statement-options t-select-export {:max-rows 1})]
+      (is (= [["Joe Coder" 100000 "Accounts"]] (t u/ds [])) "template retains its behavior")
+      (is (= 3 (count (t-select-export u/ds []))) "original template is unchanged"))
+    (let [t (a/with-statement-options t-select-scrollable {:fetch-size 2})]
+      (is (= [java.sql.ResultSet/TYPE_SCROLL_INSENSITIVE 2 true "Sam Librarian"] (t u/ds [])) "options are merged"))
+    (is (= [java.sql.ResultSet/CONCUR_UPDATABLE java.sql.ResultSet/HOLD_CURSORS_OVER_COMMIT]
+          (a/query (fn [_ ^java.sql.ResultSet rs] [(.getConcurrency rs) (.getResultSetHoldability (.getStatement rs))])
+            u/ds (a/with-statement-options "SELECT id, name FROM emp"
+                   {:concurrency :updatable :holdability :hold-over-commit}) [])))
+    (is (integer? (a/genkey u/ds (a/with-statement-options t-insert {:result-set-type :scroll-insensitive})
+                    {:name "Jane" :salary 1 :dept "R&D" :joined (u/make-date)}))))
+  (testing "bad options"
+    (is (thrown? IllegalArgumentException (a/with-statement-options "SELECT 1" {:result-set-type :bad})))
+    (is (thrown? IllegalArgumentException (a/with-statement-options "SELECT 1" {:max-rows -1})))
+    (is (thrown? IllegalArgumentException (a/with-statement-options "SELECT 1" {:timeout 1})))))
+
+
+(deftest test-scan-pages
+  (let [jd1 (u/make-date)]
+    (a/batch-update u/ds t-insert (for [i (range 10)]
+                                    [(str "Emp" i) 1000 (if (even? i) "Even" "Odd") jd1])))
+  (let [ids (fn [pages] (mapv #(mapv first %) pages))]
+    (testing "reducible pages"
+      (is (= [[1 2 3] [4 5 6] [7 8 9] [10]]
+            (ids (into [] (a/scan-pages {:start 0 :page-size 3} u/ds t-select-page {})))))
+      (is (= [[1 2 3 4 5] [6 7 8 9 10]]
+            (ids (into [] (a/scan-pages {:start 0 :page-size 5} u/ds t-select-page {}))))
+        "last page is full")
+      (is (= [] (into [] (a/scan-pages {:start 10} u/ds t-select-page {}))) "no rows")
+      (is (= [[1 2 3] [4 5 6]]
+            (ids (into [] (take 2) (a/scan-pages {:start 0 :page-size 3 :read-ahead? true} u/ds t-select-page {}))))
+        "early termination with read-ahead")
+      (is (= 10 (transduce (map count) + (a/scan-pages {:start 0 :page-size 4 :read-ahead? true}
+                                           u/ds t-select-page {}))))
+      (let [read-ahead (atom nil)
+            executor   (reify java.util.concurrent.Executor  ; holds the read-ahead page without running it
+                         (execute [_ task] (reset! read-ahead task)))]
+        (is (thrown? ExceptionInfo
+              (reduce (fn [_ page] (throw (ex-info "failed" {})))
+                nil (a/scan-pages {:start 0 :page-size 3 :read-ahead? true :executor executor}
+                      u/ds t-select-page {}))))
+        (is (.isCancelled ^CompletableFuture @read-ahead) "read-ahead cancelled when the reducing fn throws")))
+    (testing "lazy pages"
+      (let [calls (atom 0)
+            pages (seq (a/scan-pages {:start 0 :page-size 4 :params-setter (fn [ss pstmt params]
+                                                                              (swap! calls inc)
+                                                                              (t/set-params ss pstmt params))}
+                         u/ds t-select-page {}))]
+        (is (= [1 2 3 4] (mapv first (first pages))))
+        (is (= 1 @calls) "pages are read lazily")
+        (is (= [[1 2 3 4] [5 6 7 8] [9 10]] (ids pages)))
+        (is (= 3 @calls)))
+      (is (= [[1 2 3 4] [5 6 7 8] [9 10]]
+            (ids (seq (a/scan-pages {:start 0 :page-size 4 :read-ahead? true} u/ds t-select-page {}))))))
+    (testing "composite key"
+      (is (= [[["Even" 1] ["Even" 3] ["Even" 5] ["Even" 7]]
+              [["Even" 9] ["Odd" 2] ["Odd" 4] ["Odd" 6]]
+              [["Odd" 8] ["Odd" 10]]]
+            (into [] (a/scan-pages {:start ["" 0] :page-size 4 :last-key [:last-dept :last-id]}
+                       u/ds t-select-page-dept {})))))
+    (testing "bad options"
+      (is (thrown? IllegalArgumentException (a/scan-pages {} u/ds t-select-page {})))
+      (is (thrown? IllegalArgumentException (a/scan-pages {:start 0 :page-size 0} u/ds t-select-page {})))
+      (is (thrown? IllegalArgumentException (into [] (a/scan-pages {:start 0 :last-key [:a :b]}
+                                                       u/ds t-select-page-dept {})))))))
+
+
+(deftest test-result-cache
+  (testing "table names"
+    (is (= ["dept" "emp"] (i/sql-tables "SELECT e.name FROM public.emp e, \"DEPT\" d WHERE e.dept = d.name")))
+    (is (= ["dept" "emp" "loc"] (i/sql-tables "SELECT * FROM emp JOIN dept ON a = b LEFT JOIN loc USING (id)")))
+    (is (= ["audit" "emp"] (i/sql-tables "SELECT id FROM emp WHERE id IN (SELECT emp_id FROM audit)")))
+    (is (= ["t1" "t2"] (i/sql-tables "SELECT * FROM (SELECT * FROM t1) q, t2")))
+    (is (= ["emp"] (i/sql-tables "INSERT INTO emp (name) VALUES (?)")))
+    (is (= ["emp"] (i/sql-tables "UPDATE emp SET salary = ?")))
+    (is (= ["emp"] (i/sql-tables "DELETE FROM emp WHERE id = ?")))
+    (is (= [] (i/sql-tables "SELECT 1")))
+    (testing "unresolved references"
+      (is (= ["dept"] (i/sql-tables "SELECT * FROM (emp JOIN dept ON emp.dept = dept.name)")))
+      (is (nil? (i/sql-tables "SELECT * FROM (emp JOIN dept ON emp.dept = dept.name)" true)))
+      (is (nil? (i/sql-tables "SELECT * FROM ONLY emp" true)))
+      (is (nil? (i/sql-tables "SELECT * FROM emp e LEFT JOIN LATERAL (SELECT 1) x ON true" true)))
+      (is (nil? (i/sql-tables "SELECT X FROM SYSTEM_RANGE(1, 10)" true)))
+      (is (= ["dept" "emp" "loc"] (i/sql-tables "SELECT * FROM emp JOIN dept ON a = b LEFT JOIN loc USING (id)" true))
+        "join column list")))
+  (a/result-cache-metrics t-count-cached true true)
+  (let [jd1 (u/make-date)
+        row (fn [dept] {:name "Joe" :salary 1000 :dept dept :joined jd1})]
+    (testing "hits and invalidation by template writes"
+      (is (= 0 (t-count-cached u/ds {:dept "Sales"})))
+      (is (= 0 (t-count-cached u/ds {:dept "Sales"})))
+      (is (= {:tables ["emp"] :size 1 :hits 1 :misses 1}
+            (select-keys (a/result-cache-metrics t-count-cached) [:tables :size :hits :misses])))
+      (t-insert u/ds (row "Sales"))
+      (is (= 1 (t-count-cached u/ds {:dept "Sales"})))
+      (is (= 1 (t-count-cached u/ds {:dept "Sales"})))
+      (is (= {:hits 2 :misses 2 :invalidations 1}
+            (select-keys (a/result-cache-metrics t-count-cached) [:hits :misses :invalidations]))))
+    (testing "invalidation by SQL string writes"
+      (a/update u/ds "UPDATE emp SET dept = ? WHERE dept = ?" ["Marketing" "Sales"])
+      (is (= 0 (t-count-cached u/ds {:dept "Sales"})))
+      (a/batch-update u/ds "UPDATE emp SET dept = ? WHERE dept = ?" [["Sales" "Marketing"]])
+      (is (= 1 (t-count-cached u/ds {:dept "Sales"})))
+      (is (= 3 (:invalidations (a/result-cache-metrics t-count-cached)))))
+    (testing "transactions bypass the cache"
+      (let [hits (:hits (a/result-cache-metrics t-count-cached))]
+        (x/with-transaction [txn u/ds] {}
+          (t-insert txn (row "Sales"))
+          (is (= 2 (t-count-cached txn {:dept "Sales"}))))
+        (is (= hits (:hits (a/result-cache-metrics t-count-cached))))
+        (is (= 2 (t-count-cached u/ds {:dept "Sales"})))))
+    (testing "writes in a transaction invalidate again upon commit"
+      (x/with-transaction [txn u/ds] {}
+        (t-insert txn (row "Sales"))
+        (is (= 2 (t-count-cached u/ds {:dept "Sales"})) "uncommitted write not visible to other connections"))
+      (is (= 3 (t-count-cached u/ds {:dept "Sales"})) "result read before the commit is not served"))
+    (testing "writes to undetermined tables invalidate all results"
+      (is (= 3 (t-count-cached u/ds {:dept "Sales"})))
+      (let [invalidations (:invalidations (a/result-cache-metrics t-count-cached))]
+        (a/update u/ds "SET @x = 1" [])
+        (is (= 3 (t-count-cached u/ds {:dept "Sales"})))
+        (is (= (inc invalidations) (:invalidations (a/result-cache-metrics t-count-cached))))))
+    (testing "max entries and TTL"
+      (a/result-cache-metrics t-count-cached-small true true)
+      (doseq [dept ["A" "B" "C"]]
+        (t-count-cached-small u/ds {:dept dept}))
+      (let [{:keys [size evictions]} (a/result-cache-metrics t-count-cached-small)]
+        (is (= 2 size))
+        (is (pos? evictions)))
+      (t-count-cached-small u/ds {:dept "C"})
+      (Thread/sleep 150)
+      (t-count-cached-small u/ds {:dept "C"})
+      (is (= 1 (:expirations (a/result-cache-metrics t-count-cached-small)))))
+    (testing "bad options"
+      (is (nil? (a/result-cache-metrics t-count)))
+      (is (thrown? IllegalArgumentException
+            (a/compile-sql-template ["DELETE FROM emp"] [] {:result-cache true})))
+      (is (thrown? IllegalArgumentException
+            (a/compile-sql-template ["SELECT * FROM " [:table :sql]] [] {:result-cache true})))
+      (is (thrown? IllegalArgumentException
+            (a/compile-sql-template ["SELECT * FROM emp"] [] {:result-cache {:ttl-millis 0}})))
+      (is (thrown? IllegalArgumentException
+            (a/compile-sql-template ["SELECT * FROM (emp JOIN dept ON emp.dept = dept.name)"] [] {:result-cache true}))
+        "unresolved table reference")
+      (is (thrown? IllegalArgumentException
+            (a/compile-sql-template ["SELECT * FROM ONLY emp"] [] {:result-cache true}))
+        "unresolved table reference")
+      (is (thrown? IllegalArgumentException
+            (a/compile-sql-template ["SELECT * FROM emp"] [] {:result-cache {:tables ["not a table"]}}))))
+    (testing "explicit tables"
+      (let [tpl (a/compile-sql-template ["SELECT COUNT(*) FROM (emp JOIN dept ON emp.dept = dept.name)"] []
+                  {:result-cache {:tables [:EMP "public.dept"]}})]
+        (is (= ["emp" "dept"] (:tables (a/result-cache-metrics tpl))))))))
+
+
 (deftest test-query-timeout
   (let [jd1 (u/make-date)
         vs1 ["Joe Coder" 100000 "Accounts" jd1]
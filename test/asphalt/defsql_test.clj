@@ -11,7 +11,10 @@
   (:require
     [clojure.test :refer :all]
     [asphalt.core :as a]
-    [asphalt.type :as t]))
+    [asphalt.type :as t]
+    [asphalt.internal.isql :as isql])
+  (:import
+    [java.util Random]))
 
 
 (a/defsql create-table "CREATE TABLE emp (empid INT NOT NULL PRIMARY KEY, empname VARCHAR(50) NOT NULL)")
@@ -45,6 +48,15 @@
   "INSERT INTO ^sql $table (foo, bar) VALUES ($foo, $bar)")
 
 
+(a/defsql insert-emp-rows
+  "INSERT INTO emp (name, age) VALUES ^group $rows"
+  {:group-placeholder {:rows "(^string $name, UNHEX(^int $age))"}})
+
+
+(a/defsql find-padded-employees "SELECT name FROM emp WHERE id IN (^ints $ids) AND dept IN (^strings $depts)"
+  {:multi-padding :repeat-last :sql-cache-size 2})
+
+
 (deftest test-defsql
   (is (= "SELECT name, age, joined FROM emp WHERE dept_id=?"
         (t/get-sql find-employees-by-dept {:dept-id 20})))
@@ -56,7 +68,53 @@
   (is (= "INSERT INTO generic (foo, bar) VALUES (?, ?)"
         (t/get-sql insert-into-specified-table {:table :generic
                                                 :foo "foo"
-                                                :bar "bar"}))))
+                                                :bar "bar"})))
+  (is (= "INSERT INTO emp (name, age) VALUES (?, UNHEX(?)), (?, UNHEX(?))"
+        (t/get-sql insert-emp-rows {:rows [["Joe" 30] ["Jane" 28]]})))
+  (is (= "INSERT INTO emp (name, age) VALUES (?, UNHEX(?))"
+        (t/get-sql insert-emp-rows {:rows [{:name "Sam" :age 40}]}))))
+
+
+(deftest test-sql-shapes
+  (a/sql-shape-cache-metrics find-padded-employees true)
+  (is (= "SELECT name FROM emp WHERE id IN (?, ?, ?, ?) AND dept IN (?)"
+        (t/get-sql find-padded-employees {:ids [1 2 3] :depts ["a"]})))
+  (is (= "SELECT name FROM emp WHERE id IN (?, ?, ?, ?) AND dept IN (?, ?)"
+        (t/get-sql find-padded-employees {:ids [1 2 3 4] :depts ["a" "b"]})))
+  (is (= "SELECT name FROM emp WHERE id IN (?, ?, ?, ?, ?, ?, ?, ?) AND dept IN (?)"
+        (t/get-sql find-padded-employees {:ids [1 2 3 4 5] :depts ["a"]})))
+  (is (= "SELECT name FROM emp WHERE id IN (?, ?, ?, ?) AND dept IN (?)"
+        (t/get-sql find-padded-employees {:ids [1 2 3 4] :depts ["a"]})))
+  (is (= {:hits 1 :misses 3 :shapes 2 :overflows 1 :max-size 2}
+        (a/sql-shape-cache-metrics find-padded-employees)))
+  (is (nil? (a/sql-shape-cache-metrics find-employees-by-dept)) "static SQL has no shapes")
+  (is (= (mapv isql/pow2-bucket [0 1 2 3 4 5 8 9 1000]) [0 1 2 4 4 8 8 16 1024]))
+  (is (= {:ids [1 2 3 3] :depts ["a"] :x 1}
+        ((isql/make-multi-padder [:ids :depts] [0 1] :repeat-last) {:ids [1 2 3] :depts ["a"] :x 1})))
+  (is (= {:ids [1 2 3 nil]}
+        ((isql/make-multi-padder [:ids] [0] :null) {:ids [1 2 3]})))
+  (is (= [:x [1 2 3 3]]
+        ((isql/make-multi-padder [:ids] [1] :repeat-last) [:x [1 2 3]]))))
+
+
+(a/defsql find-padded-employees-in-dept "SELECT name FROM emp WHERE dept = $dept AND id IN (^ints $ids)"
+  {:multi-padding :repeat-last})
+
+
+(deftest test-positional-multi-padding
+  (is (= "SELECT name FROM emp WHERE dept = ? AND id IN (?, ?, ?, ?)"
+        (t/get-sql find-padded-employees-in-dept ["a" [1 2 3]])))
+  (is (= "SELECT name FROM emp WHERE dept = ? AND id IN (?, ?, ?, ?)"
+        (t/get-sql find-padded-employees-in-dept ["a" [1 2 3 4]])) "same shape as the padded 3 values")
+  (is (= "SELECT name FROM emp WHERE dept = ? AND id IN (?, ?, ?, ?, ?, ?, ?, ?)"
+        (t/get-sql find-padded-employees-in-dept ["a" [1 2 3 4 5]])))
+  (let [params (atom [])
+        stmt   (reify java.sql.PreparedStatement
+                 (^void setObject [_ ^int i ^Object v] (swap! params conj [i v]))
+                 (^void setInt    [_ ^int i ^int v]    (swap! params conj [i v]))
+                 (^void setString [_ ^int i ^String v] (swap! params conj [i v])))]
+    (t/set-params find-padded-employees-in-dept stmt ["a" [1 2 3]])
+    (is (= [[1 "a"] [2 1] [3 2] [4 3] [5 3]] @params) "bound values padded like the SQL")))
 
 
 (deftest test-parse-sql
@@ -65,6 +123,40 @@
                                                           :result-types [:string :int :date]}))))
 
 
+(defn parse-outcome
+  [parse sql]
+  (try
+    (parse sql \\ \$ \^)
+    (catch IllegalArgumentException e
+      :error)))
+
+
+(deftest test-parse-sql-str-equivalence
+  (testing "known SQL templates"
+    (doseq [sql [sql-find-employees-by-dept
+                 sql-find-employees-by-dept-badhints
+                 "SELECT ^string name FROM emp WHERE dept_id=^int $dept-id AND level IN (^ints $levels)"
+                 "INSERT INTO ^sql $table (foo, bar) VALUES ($foo, $bar)"
+                 "SELECT ^^ name, ^^ salary FROM emp WHERE name = ? -- ^int $ignored\n AND dept = $dept"
+                 "SELECT 'it''s $not-a-param', \"^not_a_hint\" FROM emp WHERE id = \\$id AND x = $x"
+                 "SELECT * FROM emp WHERE id = $id"
+                 "$a,$b"
+                 ""
+                 "SELECT ^int"
+                 "SELECT \"unfinished"
+                 "SELECT 'unfinished"
+                 "SELECT 1 \\"
+                 "SELECT ^int, 1"
+                 "SELECT $id'"]]
+      (is (= (parse-outcome isql/parse-sql-str-reference sql) (parse-outcome isql/parse-sql-str sql)) sql)))
+  (testing "random SQL strings"
+    (let [rnd   (Random. 42)
+          chars "ab1_ ,()=-'\"\\$^\n"]
+      (dotimes [_ 5000]
+        (let [sql (apply str (repeatedly (.nextInt rnd 24) #(.charAt chars (.nextInt rnd (count chars)))))]
+          (is (= (parse-outcome isql/parse-sql-str-reference sql) (parse-outcome isql/parse-sql-str sql)) sql))))))
+
+
 (deftest test-compile-sql-template
   (as-> "SELECT * FROM emp WHERE id = $id" <>
     (a/parse-sql <>)
@@ -84,4 +176,19 @@
        (as-> "SELECT * FROM emp WHERE id IN (^objects $ids) and dept_id = $dept-id" <>
          (a/parse-sql <>)
          (conj <> {:param-placeholder {:dept-id "?"}})
-         (apply a/compile-sql-template <>)))))
+         (apply a/compile-sql-template <>))))
+  (is (thrown? IllegalArgumentException
+       (as-> "INSERT INTO emp (id, name) VALUES ^group $rows" <>
+         (a/parse-sql <>)
+         (conj <> {})
+         (apply a/compile-sql-template <>))) "param group without group placeholder")
+  (is (thrown? IllegalArgumentException
+       (as-> "INSERT INTO emp (id, name) VALUES ^int $rows" <>
+         (a/parse-sql <>)
+         (conj <> {:group-placeholder {:rows "(^int $id, $name)"}})
+         (apply a/compile-sql-template <>))) "single-value param typed with group placeholder")
+  (is (thrown? IllegalArgumentException
+       (as-> "SELECT * FROM emp WHERE (id, dept) IN (^group $pairs)" <>
+         (a/parse-sql <>)
+         (conj <> {:group-placeholder {:pairs "(^ints $ids, $dept)"}})
+         (apply a/compile-sql-template <>))) "multi-value param in group template"))